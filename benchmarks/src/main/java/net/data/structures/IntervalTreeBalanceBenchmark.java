@@ -0,0 +1,65 @@
+package net.data.structures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the construction of an IntervalTree, which validates the intervals and builds the tree through balance(),
+ * and a second balance() of an already built tree. The intervals are created once, the constructor used here
+ * does not change their boundaries so the same list can be used for every tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeBalanceBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    private List<Interval> intervals;
+    private IntervalTree tree;
+
+    @Setup
+    public void setUp() {
+
+        this.intervals = new ArrayList<Interval>(this.size);
+
+        for (int i = 0; i < this.size; i++)
+            this.intervals.add(new Interval(i * 10, i * 10 + 9, "v" + i));
+
+        this.tree = new IntervalTree(this.intervals);
+
+    }
+
+    @Benchmark
+    public IntervalTree construct() {
+
+        return new IntervalTree(this.intervals);
+
+    }
+
+    @Benchmark
+    public Interval rebalance() {
+
+        this.tree.balance();
+        return this.tree.getRoot();
+
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.data.structures;
+
+import net.data.structures.exceptions.NumberNotFoundException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures IntervalTree.find() for trees of different sizes and for different distributions of the searched keys.
+ * The tree holds adjacent left closed intervals of width 10, so every key inside the range is found.
+ * UNIFORM searches random keys over the whole range, SEQUENTIAL walks the range in order, HOTSPOT sends nine out of ten
+ * searches to one percent of the intervals and MISS searches keys outside the range, which throws NumberNotFoundException.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntervalTreeFindBenchmark {
+
+    private static final int INTERVAL_WIDTH = 10;
+    private static final int KEYS = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    @Param({"UNIFORM", "SEQUENTIAL", "HOTSPOT", "MISS"})
+    private String distribution;
+
+    private IntervalTree tree;
+    private int[] keys = new int[KEYS];
+    private int next = 0;
+
+    /**
+     * Creates the tree and the keys which are searched, in the order they are searched.
+     */
+    @Setup
+    public void setUp() {
+
+        List<Interval> intervals = new ArrayList<Interval>(this.size);
+
+        for (int i = 0; i < this.size; i++)
+            intervals.add(new Interval(i * INTERVAL_WIDTH, (i + 1) * INTERVAL_WIDTH, "v" + i));
+
+        this.tree = new IntervalTree(intervals, true);
+
+        Random random = new Random(42);
+        int range = this.size * INTERVAL_WIDTH;
+
+        for (int i = 0; i < KEYS; i++) {
+
+            if ("UNIFORM".equals(this.distribution))
+                this.keys[i] = random.nextInt(range);
+            else if ("SEQUENTIAL".equals(this.distribution))
+                this.keys[i] = (int) ((long) i * range / KEYS);
+            else if ("HOTSPOT".equals(this.distribution))
+                this.keys[i] = random.nextInt(10) < 9 ? random.nextInt(Math.max(1, range / 100)) : random.nextInt(range);
+            else
+                this.keys[i] = range + 1 + random.nextInt(range);
+
+        }
+
+    }
+
+    @Benchmark
+    public String find() {
+
+        int key = this.keys[this.next];
+        this.next = (this.next + 1) & (KEYS - 1);
+
+        try {
+
+            return this.tree.find(key);
+
+        } catch (NumberNotFoundException e) {
+
+            return null;
+
+        }
+
+    }
+
+}
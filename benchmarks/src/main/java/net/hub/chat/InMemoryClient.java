@@ -0,0 +1,79 @@
+package net.hub.chat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A stand-in for a connected client which keeps everything in memory. A sent frame goes through an outbound queue
+ * like with a real connection and is then written right away to a stream which discards the bytes,
+ * in place of the writer thread and the socket.
+ */
+public class InMemoryClient implements ClientConnection {
+
+    private String nickName;
+    private OutboundQueue<Frame> outboundQueue;
+    private OutputStream out = OutputStream.nullOutputStream();
+    private volatile ChatRoom room;
+
+    private Closeable connection = new Closeable() {
+        public void close() {
+        }
+    };
+
+    public InMemoryClient(String nickName, int queueCapacity) {
+
+        this.nickName = nickName;
+        this.outboundQueue = new OutboundQueue<Frame>(queueCapacity, OverflowPolicy.DROP_OLDEST);
+
+    }
+
+    public void send(Frame frame) throws IOException {
+
+        this.outboundQueue.offer(frame);
+        Frame next;
+
+        while ((next = this.outboundQueue.poll()) != null)
+            next.writeTo(this.out);
+
+    }
+
+    public Closeable getConnection() {
+        return connection;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public ChatRoom getRoom() {
+        return room;
+    }
+
+    public void setRoom(ChatRoom room) {
+        this.room = room;
+    }
+
+    public OutboundQueue<Frame> getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public WireProtocol getProtocol() {
+        return WireProtocol.LEGACY;
+    }
+
+    public long getLastReadNanos() {
+        return System.nanoTime();
+    }
+
+    public void acknowledge(long sequence) {
+    }
+
+    public long getAckedSequence() {
+        return -1;
+    }
+
+    public void disconnect() {
+    }
+
+}
@@ -0,0 +1,61 @@
+package net.hub.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the fan-out of ChatServer.transmit() as a function of the number of connected clients.
+ * The benchmark runs what transmit() runs, encoding the message once and handing the frame to every client
+ * of the registry, against in-memory clients, since a ChatServer itself blocks on its socket once it is created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransmitBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    private int clients;
+
+    @Param({"64"})
+    private int messageSize;
+
+    private ClientRegistry registry = new ClientRegistry();
+    private String message;
+
+    @Setup
+    public void setUp() {
+
+        for (int i = 0; i < this.clients; i++)
+            this.registry.add(new InMemoryClient("client" + i, 1024));
+
+        StringBuilder builder = new StringBuilder("alice : ");
+
+        while (builder.length() < this.messageSize)
+            builder.append('x');
+
+        this.message = builder.toString();
+
+    }
+
+    @Benchmark
+    public int transmit() {
+
+        return ChatServer.broadcast(this.registry, ChatServer.encode(this.message), this.message);
+
+    }
+
+}
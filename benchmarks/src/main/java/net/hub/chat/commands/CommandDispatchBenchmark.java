@@ -0,0 +1,52 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.InMemoryClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the dispatch of the advanced commands, the work done by ChatServer.advancedFeatures() for every
+ * message starting with the command prefix. Only commands that do not need a running server are dispatched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+
+    @Param({"$\\ reverse hello world", "$\\ capitalize hello world", "$\\ time", "$\\ unknown command"})
+    private String message;
+
+    private CommandRegistry registry;
+    private InMemoryClient client;
+
+    @Setup
+    public void setUp() {
+
+        this.registry = CommandRegistry.withBuiltinCommands();
+        this.client = new InMemoryClient("alice", 16);
+
+    }
+
+    @Benchmark
+    public String dispatch() {
+
+        return this.registry.dispatch(null, this.client, this.message, ChatServer.COMMAND_PREFIX.length());
+
+    }
+
+}
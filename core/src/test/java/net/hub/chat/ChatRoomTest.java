@@ -0,0 +1,136 @@
+package net.hub.chat;
+
+import net.hub.chat.metrics.ServerMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The tests of the history of a room as its members acknowledge, or do not acknowledge, the messages they received.
+ * The broadcasts run on the calling thread, so every message is in the history as soon as it was transmitted.
+ */
+class ChatRoomTest {
+
+    private static final int CAPACITY = 256;
+    private static final int REPLAY_COUNT = 20;
+
+    private ServerMetrics metrics = new ServerMetrics();
+
+    private ChatRoom newRoom(long maxAckLag) {
+
+        Executor inline = new Executor() {
+            public void execute(Runnable task) {
+                task.run();
+            }
+        };
+
+        return new ChatRoom("test", true, inline, CAPACITY, REPLAY_COUNT, null, this.metrics, maxAckLag);
+
+    }
+
+    private static void transmit(ChatRoom room, int messages) {
+
+        for (int i = 0; i < messages; i++)
+            room.transmit(Frame.chat(1, "alice", "message " + i), true, 0);
+
+    }
+
+    @Test
+    void historyKeepsItsCapacityWithoutMembers() {
+
+        ChatRoom room = newRoom(0);
+        transmit(room, 100);
+
+        assertEquals(100, room.getHistory(200).size());
+
+    }
+
+    @Test
+    void historyKeepsItsCapacityWhileAMemberDoesNotAcknowledge() {
+
+        ChatRoom room = newRoom(0);
+        TestClient acking = new TestClient("bob", 0);
+        room.join(new TestClient("carol", -1));
+        room.join(acking);
+        acking.acknowledge(99);
+        transmit(room, 200);
+
+        assertEquals(200, room.getHistory(CAPACITY).size());
+
+    }
+
+    @Test
+    void historyIsTrimmedToTheSlowestAcknowledgingMember() {
+
+        ChatRoom room = newRoom(0);
+        TestClient fast = new TestClient("bob", 0);
+        TestClient slow = new TestClient("carol", 0);
+        room.join(fast);
+        room.join(slow);
+        fast.acknowledge(120);
+        slow.acknowledge(39);
+        transmit(room, 128);
+        List<Frame> history = room.getHistory(CAPACITY);
+
+        assertEquals(88, history.size());
+        assertEquals(40, history.get(0).getSequence());
+
+    }
+
+    @Test
+    void historyIsNeverTrimmedBelowTheReplayCount() {
+
+        ChatRoom room = newRoom(0);
+        TestClient member = new TestClient("bob", 0);
+        room.join(member);
+        member.acknowledge(1000);
+        transmit(room, 128);
+
+        assertEquals(REPLAY_COUNT, room.getHistory(CAPACITY).size());
+
+    }
+
+    @Test
+    void bogusAcknowledgementsAreClampedToTheRoom() {
+
+        ChatRoom room = newRoom(0);
+        TestClient member = new TestClient("bob", 0);
+        TestClient other = new TestClient("carol", 0);
+        room.join(member);
+        room.join(other);
+        other.acknowledge(127);
+        transmit(room, 128);
+
+        ChatServer.acknowledge(member, Long.MAX_VALUE);
+        assertEquals(127, member.getAckedSequence());
+        ChatServer.acknowledge(member, 10);
+        assertEquals(127, member.getAckedSequence());
+
+        member.acknowledge(49);
+        ChatServer.acknowledge(member, 39);
+        transmit(room, 64);
+        List<Frame> history = room.getHistory(CAPACITY);
+
+        assertEquals(49, member.getAckedSequence());
+        assertEquals(50, history.get(0).getSequence());
+
+    }
+
+    @Test
+    void laggingMemberIsEvictedOnce() {
+
+        ChatRoom room = newRoom(50);
+        TestClient lagging = new TestClient("bob", 0);
+        room.join(lagging);
+        lagging.acknowledge(0);
+        transmit(room, 256);
+
+        assertEquals(1, lagging.getDisconnects());
+        assertEquals(1, this.metrics.getLagEvictions());
+
+    }
+
+}
@@ -0,0 +1,302 @@
+package net.hub.chat;
+
+import net.hub.chat.logging.LogLevel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The tests of a running chat server, with clients talking to it over the loopback address like real clients do.
+ * Every test starts the servers it needs on free ports and they are stopped after the test.
+ */
+class ChatServerTest {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private List<ChatServer> servers = new ArrayList<ChatServer>();
+
+    /**
+     * Starts a chat server with the given engine on a free port, it is stopped after the test.
+     * @param mode the engine of the server
+     * @return the port of the server
+     */
+    private int startServer(ServerMode mode) throws IOException {
+
+        int port;
+
+        try (ServerSocket probe = new ServerSocket(0)) {
+
+            port = probe.getLocalPort();
+
+        }
+
+        ChatServerConfig config = new ChatServerConfig(port, mode);
+        config.setLogLevel(LogLevel.WARN);
+        config.setConnectionRatePerIp(0);
+        config.setChatRatePerSecond(0);
+        config.setCommandRatePerSecond(0);
+        this.servers.add(ChatServer.start(config));
+        return port;
+
+    }
+
+    @AfterEach
+    void stopServers() {
+
+        for (ChatServer server : this.servers)
+            server.close();
+
+        this.servers.clear();
+
+    }
+
+    /**
+     * A legacy client of the tests, which reads every message with a timeout.
+     */
+    private static class LegacyClient {
+
+        private Socket socket;
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        LegacyClient(int port, String nickName) throws IOException {
+
+            this.socket = new Socket("localhost", port);
+            this.socket.setSoTimeout(TIMEOUT_MILLIS);
+            this.out = new DataOutputStream(this.socket.getOutputStream());
+            this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.out.writeUTF(nickName);
+
+        }
+
+        void write(String message) throws IOException {
+
+            this.out.writeUTF(message);
+
+        }
+
+        /**
+         * Reads the messages until one starts with the given prefix.
+         * @return the message
+         */
+        String readUntil(String prefix) throws IOException {
+
+            while (true) {
+
+                String message = this.in.readUTF();
+
+                if (message.startsWith(prefix))
+                    return message;
+
+            }
+
+        }
+
+        void close() throws IOException {
+
+            this.socket.close();
+
+        }
+
+    }
+
+    /**
+     * Opens a connection of the protocol v2 and returns its socket once the handshake has been answered.
+     * @param answer receives the answer to the handshake
+     */
+    private static Socket openV2(int port, String hello, String[] answer) throws IOException {
+
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        new DataOutputStream(socket.getOutputStream()).writeUTF(hello);
+        answer[0] = new DataInputStream(socket.getInputStream()).readUTF();
+        return socket;
+
+    }
+
+    /**
+     * Reads the frames of a connection of the protocol v2 until a system message holds the given text.
+     * @return true if such a message came before the connection was closed, else false
+     */
+    private static boolean readSystemMessage(Socket socket, String text) throws IOException {
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        try {
+
+            while (true) {
+
+                Frame frame = ProtocolV2.read(in);
+
+                if (frame.getType() == FrameType.SYSTEM && frame.getText().contains(text))
+                    return true;
+
+            }
+
+        } catch (IOException e) {
+
+            return false;
+
+        }
+
+    }
+
+    /**
+     * Reads a connection until the server closes it.
+     * @return true if the server closed the connection within the timeout, else false
+     */
+    private static boolean closedByServer(Socket socket) throws IOException {
+
+        try {
+
+            while (socket.getInputStream().read() != -1);
+
+            return true;
+
+        } catch (SocketTimeoutException e) {
+
+            return false;
+
+        } catch (IOException e) {
+
+            return true;
+
+        }
+
+    }
+
+    @Test
+    void invalidHistoryCountsAreAnsweredWithTheUsageOnEveryEngine() throws Exception {
+
+        for (ServerMode mode : ServerMode.values()) {
+
+            LegacyClient alice = new LegacyClient(startServer(mode), "alice");
+            alice.readUntil("Welcome");
+            alice.write("hello");
+            alice.readUntil("alice : hello");
+
+            alice.write(ChatServer.COMMAND_PREFIX + " history -1");
+            assertTrue(alice.readUntil("Please provide").contains("history 10"), mode.name());
+            alice.write(ChatServer.COMMAND_PREFIX + " history 0");
+            alice.readUntil("Please provide");
+            alice.write(ChatServer.COMMAND_PREFIX + " history 5");
+            assertTrue(alice.readUntil("The last").startsWith("The last 1 messages"), mode.name());
+            alice.close();
+
+        }
+
+    }
+
+    @Test
+    void historyKeepsEveryMessageWithoutAcknowledgingClients() throws Exception {
+
+        LegacyClient alice = new LegacyClient(startServer(ServerMode.NIO), "alice");
+        alice.readUntil("Welcome");
+
+        for (int i = 0; i < 100; i++) {
+
+            alice.write("message " + i);
+            alice.readUntil("alice : message " + i);
+
+        }
+
+        alice.write(ChatServer.COMMAND_PREFIX + " history 200");
+        String history = alice.readUntil("The last");
+
+        assertTrue(history.startsWith("The last 100 messages"), history);
+        alice.close();
+
+    }
+
+    @Test
+    void resumedSessionDoesNotTakeOverANickNameClaimedMeanwhile() throws Exception {
+
+        for (ServerMode mode : ServerMode.values()) {
+
+            int port = startServer(mode);
+            String[] answer = new String[1];
+            Socket bob = openV2(port, ProtocolV2.hello("bob", false), answer);
+            String token = ProtocolV2.optionValue(answer[0], ProtocolV2.SESSION);
+            assertTrue(readSystemMessage(bob, "Welcome"), mode.name());
+            bob.close();
+
+            LegacyClient mallory = null;
+
+            for (int i = 0; i < 50 && mallory == null; i++) {
+
+                LegacyClient candidate = new LegacyClient(port, "bob");
+
+                if (candidate.readUntil("").startsWith("Welcome")) {
+
+                    mallory = candidate;
+
+                } else {
+
+                    candidate.close();
+                    Thread.sleep(100);
+
+                }
+
+            }
+
+            assertTrue(mallory != null, mode.name());
+
+            Socket resumed = openV2(port, ProtocolV2.hello("bob", false, token, 0), answer);
+            assertTrue(ProtocolV2.hasOption(answer[0], ProtocolV2.RESUMED), mode.name());
+            assertTrue(readSystemMessage(resumed, ChatServer.nickNameInUse("bob")), mode.name());
+            mallory.close();
+
+        }
+
+    }
+
+    @Test
+    void resumedSessionTakesOverItsOwnNickName() throws Exception {
+
+        for (ServerMode mode : ServerMode.values()) {
+
+            int port = startServer(mode);
+            String[] answer = new String[1];
+            Socket bob = openV2(port, ProtocolV2.hello("bob", false), answer);
+            String token = ProtocolV2.optionValue(answer[0], ProtocolV2.SESSION);
+            assertTrue(readSystemMessage(bob, "Welcome"), mode.name());
+
+            Socket resumed = openV2(port, ProtocolV2.hello("bob", false, token, 0), answer);
+            assertTrue(ProtocolV2.hasOption(answer[0], ProtocolV2.RESUMED), mode.name());
+            assertTrue(readSystemMessage(resumed, "bob has entered the chat room"), mode.name());
+            assertTrue(closedByServer(bob), mode.name());
+            resumed.close();
+
+        }
+
+    }
+
+    @Test
+    void idsOfReleasedNickNamesAreReused() throws Exception {
+
+        startServer(ServerMode.NIO);
+        ChatServer server = this.servers.get(0);
+        int alice = server.nickIdOf("alice");
+        int bob = server.nickIdOf("bob");
+        server.releaseNickId("alice");
+        server.releaseNickId("alice");
+
+        assertEquals(alice, server.nickIdOf("carol"));
+        assertEquals(bob, server.nickIdOf("bob"));
+        assertEquals(bob + 1, server.nickIdOf("dave"));
+
+    }
+
+}
@@ -0,0 +1,162 @@
+package net.hub.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A concurrency stress test of the ClientRegistry. Clients keep being added and removed by several threads
+ * while other threads broadcast over the registry and take snapshots of it. The clients which stay registered the whole time
+ * must be reached by every broadcast and found in every snapshot, no snapshot may hold a client twice,
+ * and once the threads are done the registry must hold exactly the clients which were added last.
+ */
+class ClientRegistryTest {
+
+    private static final int STABLE_CLIENTS = 100;
+    private static final int CHURN_THREADS = 4;
+    private static final int CHURN_CLIENTS = 500;
+    private static final int CHURN_ROUNDS = 200;
+    private static final int BROADCAST_THREADS = 2;
+    private static final int SNAPSHOT_THREADS = 2;
+
+    @Test
+    void concurrentChurnNeitherLosesNorDuplicatesClients() throws Exception {
+
+        final ClientRegistry registry = new ClientRegistry();
+        final Frame frame = Frame.system("stress test message");
+        final AtomicBoolean churning = new AtomicBoolean(true);
+        final AtomicLong broadcasts = new AtomicLong();
+        final Queue<String> errors = new ConcurrentLinkedQueue<String>();
+        final List<TestClient> stable = new ArrayList<TestClient>();
+        Set<ClientConnection> expected = new HashSet<ClientConnection>();
+
+        for (int i = 0; i < STABLE_CLIENTS; i++) {
+
+            TestClient client = new TestClient("stable-" + i, -1);
+            stable.add(client);
+            registry.add(client);
+
+        }
+
+        expected.addAll(stable);
+        List<Thread> churners = new ArrayList<Thread>();
+        List<Thread> observers = new ArrayList<Thread>();
+
+        for (int t = 0; t < CHURN_THREADS; t++) {
+
+            final List<TestClient> clients = new ArrayList<TestClient>();
+
+            for (int i = 0; i < CHURN_CLIENTS; i++)
+                clients.add(new TestClient("churn-" + t + "-" + i, -1));
+
+            expected.addAll(clients);
+            churners.add(new Thread(new Runnable() {
+                public void run() {
+
+                    for (int round = 0; round < CHURN_ROUNDS; round++) {
+
+                        for (TestClient client : clients)
+                            if (!registry.add(client))
+                                errors.add("added twice : " + client.getNickName());
+
+                        for (TestClient client : clients)
+                            if (!registry.remove(client))
+                                errors.add("removed while absent : " + client.getNickName());
+
+                    }
+
+                    for (TestClient client : clients)
+                        registry.add(client);
+
+                }
+            }));
+
+        }
+
+        for (int t = 0; t < BROADCAST_THREADS; t++) {
+
+            observers.add(new Thread(new Runnable() {
+                public void run() {
+
+                    while (churning.get()) {
+
+                        ChatServer.broadcast(registry, frame, frame.getText());
+                        broadcasts.incrementAndGet();
+
+                    }
+
+                }
+            }));
+
+        }
+
+        for (int t = 0; t < SNAPSHOT_THREADS; t++) {
+
+            observers.add(new Thread(new Runnable() {
+                public void run() {
+
+                    while (churning.get()) {
+
+                        List<ClientConnection> snapshot = registry.snapshot();
+                        Set<ClientConnection> unique = new HashSet<ClientConnection>(snapshot);
+
+                        if (unique.size() != snapshot.size())
+                            errors.add("duplicated clients in a snapshot of " + snapshot.size());
+
+                        if (!unique.containsAll(stable))
+                            errors.add("stable clients missing from a snapshot of " + snapshot.size());
+
+                    }
+
+                }
+            }));
+
+        }
+
+        for (Thread thread : observers)
+            thread.start();
+
+        for (Thread thread : churners)
+            thread.start();
+
+        for (Thread thread : churners)
+            thread.join();
+
+        churning.set(false);
+
+        for (Thread thread : observers)
+            thread.join();
+
+        assertTrue(errors.isEmpty(), errors.toString());
+
+        for (TestClient client : stable)
+            assertEquals(broadcasts.get(), client.getReceived().size(), client.getNickName());
+
+        List<ClientConnection> snapshot = registry.snapshot();
+        assertEquals(expected.size(), registry.size());
+        assertEquals(expected.size(), snapshot.size());
+        assertEquals(expected, new HashSet<ClientConnection>(snapshot));
+
+        List<Integer> before = new ArrayList<Integer>();
+
+        for (ClientConnection client : snapshot)
+            before.add(((TestClient) client).getReceived().size());
+
+        assertEquals(expected.size(), ChatServer.broadcast(registry, frame, frame.getText()));
+
+        for (int i = 0; i < snapshot.size(); i++)
+            assertEquals(before.get(i) + 1, ((TestClient) snapshot.get(i)).getReceived().size());
+
+    }
+
+}
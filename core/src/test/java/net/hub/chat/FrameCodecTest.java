@@ -0,0 +1,46 @@
+package net.hub.chat;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The tests of the nick name ids a connection of the protocol v2 tells its client about.
+ */
+class FrameCodecTest {
+
+    private static FrameCodec v2() {
+
+        FrameCodec codec = new FrameCodec();
+        codec.setProtocol(WireProtocol.V2);
+        return codec;
+
+    }
+
+    @Test
+    void nickNameIsDefinedBeforeItsFirstMessageOnly() {
+
+        FrameCodec codec = v2();
+        Frame definition = codec.definitionFor(Frame.chat(3, "alice", "hello"));
+
+        assertEquals(FrameType.NICK, definition.getType());
+        assertEquals(3, definition.getNickId());
+        assertEquals("alice", definition.getNickName());
+        assertNull(codec.definitionFor(Frame.chat(3, "alice", "again")));
+
+    }
+
+    @Test
+    void reusedIdIsDefinedAgain() {
+
+        FrameCodec codec = v2();
+        codec.definitionFor(Frame.chat(1, "alice", "hello"));
+
+        assertEquals("bob", codec.definitionFor(Frame.chat(1, "bob", "hello")).getNickName());
+        assertNull(codec.definitionFor(Frame.chat(1, "bob", "again")));
+        assertEquals("alice", codec.definitionFor(Frame.chat(1, "alice", "back")).getNickName());
+
+    }
+
+}
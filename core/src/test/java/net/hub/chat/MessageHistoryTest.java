@@ -0,0 +1,61 @@
+package net.hub.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The tests of the bounded history of a room, its snapshots and its trimming.
+ */
+class MessageHistoryTest {
+
+    private static MessageHistory<Integer> historyOf(int capacity, int messages) {
+
+        MessageHistory<Integer> history = new MessageHistory<Integer>(capacity);
+
+        for (int i = 0; i < messages; i++)
+            history.append(i);
+
+        return history;
+
+    }
+
+    @Test
+    void snapshotOfNoMessagesIsEmpty() {
+
+        MessageHistory<Integer> history = historyOf(8, 5);
+
+        assertTrue(history.snapshot(0).isEmpty());
+        assertTrue(history.snapshot(-1).isEmpty());
+        assertTrue(history.snapshotSince(5).isEmpty());
+
+    }
+
+    @Test
+    void snapshotReturnsTheMostRecentMessages() {
+
+        MessageHistory<Integer> history = historyOf(8, 20);
+
+        assertEquals(Arrays.asList(17, 18, 19), history.snapshot(3));
+        assertEquals(Arrays.asList(12, 13, 14, 15, 16, 17, 18, 19), history.snapshot(50));
+
+    }
+
+    @Test
+    void trimmedMessagesAreLeftOut() {
+
+        MessageHistory<Integer> history = historyOf(16, 10);
+        history.trim(6);
+        List<Integer> expected = Arrays.asList(6, 7, 8, 9);
+
+        assertEquals(expected, history.snapshot(10));
+        assertEquals(expected, history.snapshotSince(2));
+        assertEquals(6, history.getTail());
+
+    }
+
+}
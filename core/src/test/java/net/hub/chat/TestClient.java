@@ -0,0 +1,93 @@
+package net.hub.chat;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A stand-in for a connected client in the tests, which keeps the frames sent to it and counts how often it was disconnected.
+ * A client created with an acknowledged sequence of zero or more acknowledges its messages like a client of the protocol v2,
+ * the tests move its acknowledged sequence by hand. The frames may be sent by several broadcasting threads at once.
+ */
+class TestClient implements ClientConnection {
+
+    private String nickName;
+    private OutboundQueue<Frame> outboundQueue = new OutboundQueue<Frame>(1024, OverflowPolicy.DROP_OLDEST);
+    private List<Frame> received = Collections.synchronizedList(new ArrayList<Frame>());
+    private ChatRoom room;
+    private long ackedSequence;
+    private int disconnects = 0;
+
+    private Closeable connection = new Closeable() {
+        public void close() {
+        }
+    };
+
+    /**
+     * Creates a new test client.
+     * @param nickName the nick name of the client
+     * @param ackedSequence the sequence number of the last acknowledged message, or -1 for a client which does not acknowledge
+     */
+    TestClient(String nickName, long ackedSequence) {
+
+        this.nickName = nickName;
+        this.ackedSequence = ackedSequence;
+
+    }
+
+    public void send(Frame frame) {
+
+        this.received.add(frame);
+
+    }
+
+    public Closeable getConnection() {
+        return connection;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public ChatRoom getRoom() {
+        return room;
+    }
+
+    public void setRoom(ChatRoom room) {
+        this.room = room;
+    }
+
+    public OutboundQueue<Frame> getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public WireProtocol getProtocol() {
+        return WireProtocol.V2;
+    }
+
+    public long getLastReadNanos() {
+        return System.nanoTime();
+    }
+
+    public void acknowledge(long sequence) {
+        this.ackedSequence = sequence;
+    }
+
+    public long getAckedSequence() {
+        return ackedSequence;
+    }
+
+    public void disconnect() {
+        this.disconnects++;
+    }
+
+    List<Frame> getReceived() {
+        return received;
+    }
+
+    int getDisconnects() {
+        return disconnects;
+    }
+
+}
@@ -0,0 +1,50 @@
+package net.hub.chat.limits;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The tests of the separate budgets of the chat messages, the commands and the control frames of a connection.
+ */
+class MessageRateLimiterTest {
+
+    private static int acquired(MessageRateLimiter limiter, MessageKind kind, int attempts) {
+
+        int acquired = 0;
+
+        for (int i = 0; i < attempts; i++)
+            if (limiter.tryAcquire(kind))
+                acquired++;
+
+        return acquired;
+
+    }
+
+    @Test
+    void controlFramesAreLimitedByTheirOwnBudget() {
+
+        MessageRateLimiter limiter = new MessageRateLimiter(1, 5, 1, 5, 1, 10, RateLimitAction.DROP);
+
+        assertTrue(acquired(limiter, MessageKind.CONTROL, 1000) <= 11);
+        assertTrue(limiter.nanosUntilAvailable(MessageKind.CONTROL) > 0);
+        assertTrue(limiter.tryAcquire(MessageKind.CHAT));
+        assertTrue(limiter.tryAcquire(MessageKind.COMMAND));
+
+    }
+
+    @Test
+    void aBudgetWithoutRateIsUnlimited() {
+
+        MessageRateLimiter limiter = new MessageRateLimiter(1, 1, 0, 0, 0, 0, RateLimitAction.DROP);
+
+        assertEquals(1000, acquired(limiter, MessageKind.CONTROL, 1000));
+        assertEquals(1000, acquired(limiter, MessageKind.COMMAND, 1000));
+        assertTrue(limiter.tryAcquire(MessageKind.CHAT));
+        assertFalse(limiter.tryAcquire(MessageKind.CHAT));
+
+    }
+
+}
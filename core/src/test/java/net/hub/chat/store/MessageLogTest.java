@@ -0,0 +1,59 @@
+package net.hub.chat.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * The tests of the message log, which is closed and opened again so that its last segment goes through the recovery.
+ */
+class MessageLogTest {
+
+    @TempDir
+    File directory;
+
+    private static String repeat(char character, int count) {
+
+        char[] characters = new char[count];
+        Arrays.fill(characters, character);
+        return new String(characters);
+
+    }
+
+    @Test
+    void recoveryKeepsTheRecordsAroundAnOversizedMessage() throws Exception {
+
+        String large = repeat('x', 400 * 1024);
+        String oversized = "x" + repeat('\u00e9', LogSegment.MAX_MESSAGE_BYTES);
+
+        MessageLog log = new MessageLog(this.directory, FsyncPolicy.OS, 0, MessageLog.DEFAULT_SEGMENT_BYTES);
+        log.append("lobby", "first");
+        log.append("lobby", large);
+        log.append("lobby", oversized);
+        log.append("lobby", "last");
+        log.close();
+
+        MessageLog reopened = new MessageLog(this.directory, FsyncPolicy.OS, 0, MessageLog.DEFAULT_SEGMENT_BYTES);
+        List<LogRecord> records = reopened.read(0, 10);
+        reopened.close();
+
+        assertEquals(4, records.size());
+        assertEquals("first", records.get(0).getMessage());
+        assertEquals(large, records.get(1).getMessage());
+        assertEquals("last", records.get(3).getMessage());
+
+        String truncated = records.get(2).getMessage();
+        assertEquals(LogSegment.MAX_MESSAGE_BYTES - 1, truncated.getBytes(StandardCharsets.UTF_8).length);
+        assertFalse(truncated.contains("\uFFFD"));
+        assertEquals(4, reopened.getNextOffset());
+
+    }
+
+}
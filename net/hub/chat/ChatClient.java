@@ -1,30 +1,49 @@
 package net.hub.chat;
 
 import net.hub.chat.ui.ChatClientWindow;
-import sun.awt.windows.ThemeReader;
 
-import javax.naming.InitialContext;
-import javax.swing.*;
-import javax.swing.text.DefaultCaret;
-import java.awt.*;
-import java.awt.event.*;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.Inflater;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
 
 /**
  * The ChatClient class which represents the client that connects to the Chat Server.
  * First it establishes a connection with the chat server and then listens for messages.
  * If the user submits a new message using the user interface then this will be submitted.
+ * In the batched output mode the submitted messages are queued and a writer thread coalesces them
+ * in batches, which are written to the socket with a single flush.
+ * By default the client asks for the binary protocol v2 with compression of the large messages and falls back to the legacy protocol if the server does not answer
+ * the handshake, in which case it connects again with a legacy handshake.
+ * If the connection is lost the client connects again with a jittered exponential backoff. In the protocol v2 it presents
+ * the token of its session and the sequence number of the last chat message it received, so the server puts it back
+ * in its room and replays only the messages it missed.
  */
 public class ChatClient extends Thread {
 
+    private String serverHost;
+    private int serverPort;
+    private ChatClientConfig config;
     private Socket connection;
     private DataOutputStream out;
     private DataInputStream in;
     private String nickName;
     private ChatClientWindow chatClientWindow;
+    private OutboundQueue<Frame> outboundQueue;
+    private FrameCodec codec = new FrameCodec();
+    private Thread writerThread;
+    private Map<Integer, String> nickNames = new HashMap<Integer, String>();
+    private String sessionToken;
+    private boolean resumed = false;
+    private long lastSequence = -1;
+    private int unacknowledged = 0;
 
     /**
      * Creates a new ChatClient who tries to connect to the provided host and port.
@@ -37,47 +56,337 @@ public class ChatClient extends Thread {
      */
     public ChatClient (String serverHost, int serverPort, String nickName, ChatClientWindow chatClientWindow) throws IOException {
 
+        this(serverHost, serverPort, nickName, chatClientWindow, new ChatClientConfig());
+
+    }
+
+    /**
+     * Creates a new ChatClient with the given settings who tries to connect to the provided host and port.
+     * The handshake is completed here, so that the protocol is known before any message is transmitted.
+     * If the batched output mode is configured then the writer thread is started as well.
+     * @param serverHost the host on which the chat server is deployed
+     * @param serverPort the port that the chat server listens
+     * @param chatClientWindow the user interface client window to which this thread is bound
+     * @param config the settings of the client
+     * @throws IOException if the port is in use and can no be bound
+     */
+    public ChatClient (String serverHost, int serverPort, String nickName, ChatClientWindow chatClientWindow, ChatClientConfig config) throws IOException {
+
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.config = config;
         this.nickName = nickName;
         this.chatClientWindow = chatClientWindow;
 
-        this.connection = new Socket(serverHost, serverPort);
-        this.in = new DataInputStream(this.connection.getInputStream());
-        this. out = new DataOutputStream(this.connection.getOutputStream());
-        this.out.writeUTF(this.nickName);
+        if (config.getWriteBatchMaxBytes() > 0)
+            this.outboundQueue = new OutboundQueue<Frame>(config.getOutboundQueueCapacity(), OverflowPolicy.BLOCK);
+
+        open();
+
+    }
+
+    /**
+     * Opens a connection to the server and completes the handshake, resuming the session of the client if it has one.
+     * The new socket, streams and codec replace the ones of the previous connection only once the handshake is complete,
+     * under the same lock the messages are sent with, and the writer of the batched output mode is restarted on the new socket.
+     * @throws IOException if the server can not be reached or the handshake fails
+     */
+    private void open() throws IOException {
+
+        Socket socket = connect();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+        FrameCodec frameCodec = new FrameCodec();
+        boolean sessionResumed = false;
+
+        try {
+
+            if (this.config.getProtocol() == WireProtocol.V2) {
+
+                if (this.sessionToken != null)
+                    output.writeUTF(ProtocolV2.hello(this.nickName, this.config.isCompressionEnabled(), this.sessionToken, this.lastSequence));
+                else
+                    output.writeUTF(ProtocolV2.hello(this.nickName, this.config.isCompressionEnabled()));
+
+                String answer = input.readUTF();
+
+                if (ProtocolV2.isAcknowledgement(answer)) {
+
+                    frameCodec.setProtocol(WireProtocol.V2);
+
+                    if (ProtocolV2.hasOption(answer, ProtocolV2.DEFLATE))
+                        frameCodec.enableCompression(this.config.getCompressionThreshold());
+
+                    this.sessionToken = ProtocolV2.optionValue(answer, ProtocolV2.SESSION);
+                    sessionResumed = ProtocolV2.hasOption(answer, ProtocolV2.RESUMED);
+
+                } else {
+
+                    socket.close();
+                    socket = connect();
+                    input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    output = new DataOutputStream(socket.getOutputStream());
+                    output.writeUTF(this.nickName);
+
+                }
+
+            } else {
+
+                output.writeUTF(this.nickName);
+
+            }
+
+        } catch (IOException ie) {
+
+            socket.close();
+            throw ie;
+
+        }
+
+        synchronized (this) {
+
+            if (this.outboundQueue == null)
+                this.codec.endDeflater();
+
+            this.codec.endInflater();
+            this.connection = socket;
+            this.in = input;
+            this.out = output;
+            this.codec = frameCodec;
+            this.resumed = sessionResumed;
+            this.unacknowledged = 0;
+
+            if (!sessionResumed)
+                this.lastSequence = -1;
+
+            startWriter();
+
+        }
+
+    }
+
+    /**
+     * Opens the socket. With a TLS context the socket is a TLS socket whose handshake is completed here, checking the name
+     * of the host against the certificate of the server. The socket is created for the host and port of the server,
+     * which is the key the context keeps the TLS session under, so the session of the previous connection is resumed.
+     */
+    private Socket connect() throws IOException {
+
+        if (this.config.getSslContext() == null) {
+
+            Socket socket = new Socket(this.serverHost, this.serverPort);
+            socket.setTcpNoDelay(this.config.isTcpNoDelay());
+            return socket;
+
+        }
+
+        SSLSocket socket = (SSLSocket) this.config.getSslContext().getSocketFactory().createSocket(this.serverHost, this.serverPort);
+
+        try {
+
+            socket.setTcpNoDelay(this.config.isTcpNoDelay());
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+            return socket;
+
+        } catch (IOException ie) {
+
+            socket.close();
+            throw ie;
+
+        }
+
+    }
+
+    /**
+     * Starts the writer thread of the batched output mode on the current socket, stopping the writer of the previous one.
+     * The messages still queued are written to the new socket.
+     */
+    private void startWriter() throws IOException {
+
+        if (this.outboundQueue == null)
+            return;
+
+        if (this.writerThread != null)
+            this.writerThread.interrupt();
+
+        final FrameWriter frameWriter = new FrameWriter(this.connection.getOutputStream(), this.outboundQueue, this.config.getWriteBatchWindowMillis(), this.config.getWriteBatchMaxBytes(), this.codec);
+
+        this.writerThread = new Thread(new Runnable() {
+            public void run() {
+                writeMessages(frameWriter);
+            }
+        });
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
 
     }
 
     /**
      * Run method inherited from the Thread class, which described the way the thread will execute.
      * The client blocks and waits for any incoming messages from the server. If any come these are
-     * appended to the user interface text area. This is an never ending loop.
+     * handed to the user interface, which renders them on the event dispatch thread.
+     * If the connection is lost the client connects again, unless reconnecting is turned off, so this is an never ending loop.
      */
     public void run() {
 
-        try {
+        while (true) {
+
+            try {
+
+                readMessages();
+
+            } catch(IOException ie) {
+
+                System.out.println("There was an error while waiting for a message.");
+
+            }
+
+            if (!this.config.isAutoReconnect() || !reconnect())
+                return;
+
+        }
+
+    }
+
+    /**
+     * Reads the messages of the current connection until it fails.
+     * In the protocol v2 the nick names of the chat messages are looked up by their ids, which the server
+     * defines with a nick frame before their first use, and the pings of the server are answered with a pong.
+     * The server reuses the ids of the nick names which left and defines a reused id again, so the nick names
+     * replace each other in the table and it never holds more ids than the server has in use at the same time.
+     * The sequence number of every chat message is kept, so that a resumed session continues after the last one,
+     * and is acknowledged to the server every so many messages and whenever the server pings the client.
+     * @throws IOException if the connection fails
+     */
+    private void readMessages() throws IOException {
+
+        DataInputStream in = this.in;
+
+        if (this.codec.getProtocol() == WireProtocol.V2) {
+
+            Inflater inflater = this.codec.getInflater();
 
             while (true) {
 
-                String message = in.readUTF();
-                this.chatClientWindow.getTextArea().append(message + "\n");
+                Frame frame = ProtocolV2.read(in, inflater);
+
+                if (frame.getType() == FrameType.NICK) {
+
+                    this.nickNames.put(frame.getNickId(), frame.getNickName());
+
+                } else if (frame.getType() == FrameType.CHAT) {
+
+                    this.lastSequence = frame.getSequence();
+                    this.chatClientWindow.display(this.nickNames.get(frame.getNickId()) + " : " + frame.getText());
+
+                    if (this.config.getAckInterval() > 0 && ++this.unacknowledged >= this.config.getAckInterval())
+                        acknowledge();
+
+                } else if (frame.getType() == FrameType.SYSTEM) {
+
+                    this.chatClientWindow.display(frame.getText());
+
+                } else if (frame.getType() == FrameType.PING) {
+
+                    send(Frame.pong());
+
+                    if (this.config.getAckInterval() > 0 && this.unacknowledged > 0)
+                        acknowledge();
+
+                }
+
             }
 
-        } catch(IOException ie) {
+        }
+
+        while (true) {
+
+            String message = in.readUTF();
+            this.chatClientWindow.display(message);
+        }
+
+    }
+
+    /**
+     * Connects to the server again after the connection was lost. The delay before every attempt doubles after
+     * every failed attempt up to the maximum delay, and only its first half is fixed while the second half is random,
+     * so the clients of a server that restarted spread their attempts instead of all connecting at the same moment.
+     * @return true if the client is connected again, false if the thread was interrupted
+     */
+    private boolean reconnect() {
+
+        long delay = Math.max(1, this.config.getReconnectInitialDelayMillis());
+        this.chatClientWindow.display("The connection to the server was lost, reconnecting ...");
 
-            System.out.println("There was an error while waiting for a message.");
+        while (true) {
+
+            try {
+
+                Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                open();
+                this.chatClientWindow.display(this.resumed ? "Reconnected, the session was resumed." : "Reconnected.");
+                return true;
+
+            } catch (InterruptedException ie) {
+
+                return false;
+
+            } catch (IOException ie) {
+
+                delay = Math.min(delay * 2, Math.max(delay, this.config.getReconnectMaxDelayMillis()));
+
+            }
 
         }
+
+    }
+
+    /**
+     * The loop of the writer thread used in the batched output mode.
+     * @param frameWriter the writer which drains the outbound queue to the socket
+     */
+    private void writeMessages(FrameWriter frameWriter) {
+
+        try {
+
+            while (true)
+                frameWriter.writeBatch();
+
+        } catch (InterruptedException ie) {
+
+            return;
+
+        } catch (IOException ie) {
+
+            System.out.println("There was an error while transmitting the queued messages.");
+
+        }
+
     }
 
     /**
      * Method to transmit a message from the client to the server.
+     * In the batched output mode the message is only queued and written later by the writer thread.
+     * In the protocol v2 a message starting with the command prefix is sent as a command frame, without the prefix.
      * @param message the message to transmit
      */
     public void transmit(String message) {
 
         try {
 
-            this.out.writeUTF(message);
+            Frame frame;
+
+            if (this.codec.getProtocol() == WireProtocol.LEGACY)
+                frame = Frame.encode(message);
+            else if (message.startsWith(ChatServer.COMMAND_PREFIX))
+                frame = Frame.command(message.substring(ChatServer.COMMAND_PREFIX.length()));
+            else
+                frame = Frame.chat(0, null, message);
+
+            send(frame);
 
         } catch(IOException ie) {
 
@@ -87,4 +396,30 @@ public class ChatClient extends Thread {
 
     }
 
+    /**
+     * Acknowledges to the server the last chat message received, which acknowledges all the messages before it too.
+     * @throws IOException if the acknowledgement could not be written
+     */
+    private void acknowledge() throws IOException {
+
+        send(Frame.ack(this.lastSequence));
+        this.unacknowledged = 0;
+
+    }
+
+    /**
+     * Sends a frame to the server, either right away or through the outbound queue in the batched output mode.
+     * It is synchronized because the reader thread answers the pings of the server while the user transmits messages.
+     * @param frame the frame to send
+     * @throws IOException if the frame could not be written
+     */
+    private synchronized void send(Frame frame) throws IOException {
+
+        if (this.outboundQueue == null)
+            this.out.write(this.codec.encode(frame));
+        else
+            this.outboundQueue.offer(frame);
+
+    }
+
 }
@@ -0,0 +1,215 @@
+package net.hub.chat;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * A class holding the settings of the chat client. A new instance holds the default settings
+ * and each of them can be changed with the appropriate setter before the chat client is created.
+ * By default the client writes every message directly to the socket and speaks the legacy protocol, like it always did,
+ * so it can join any server. A client which only talks to servers that know the binary protocol v2 opts into it with setProtocol,
+ * and then asks for compression of the messages larger than 1024 bytes. A server without the protocol v2 takes the handshake of such a client
+ * for a nick name, so the other members see it join once before the client falls back to the legacy protocol and joins again.
+ * A client which loses its connection connects again after a delay which doubles with every failed attempt up to the maximum,
+ * with a random part so that the clients of a restarted server do not all come back at once, and resumes its session if it can.
+ * The client acknowledges the chat messages it received every so many messages and whenever the server pings it,
+ * an interval of zero turns the acknowledgements off.
+ * The connection is encrypted with TLS if a TLS context is set, see TlsContexts, and the name of the host is checked against
+ * the certificate of the server. The context keeps the TLS session, so a client which connects again resumes it without a full handshake.
+ * The window of the client renders the received messages at most once per render interval and keeps only the last lines of the chat.
+ */
+public class ChatClientConfig {
+
+    private long writeBatchWindowMillis = 0;
+    private int writeBatchMaxBytes = 0;
+    private int outboundQueueCapacity = 1024;
+    private boolean tcpNoDelay = false;
+    private WireProtocol protocol = WireProtocol.LEGACY;
+    private boolean compressionEnabled = true;
+    private int compressionThreshold = 1024;
+    private boolean autoReconnect = true;
+    private long reconnectInitialDelayMillis = 250;
+    private long reconnectMaxDelayMillis = 30000;
+    private long renderIntervalMillis = 16;
+    private int maxDisplayedLines = 5000;
+    private int ackInterval = 32;
+    private SSLContext sslContext = null;
+
+    /**
+     * Creates a new configuration with the default settings.
+     */
+    public ChatClientConfig() {
+
+    }
+
+    /**
+     * Getters and Setters used for the variables.
+     */
+    public long getWriteBatchWindowMillis() {
+
+        return writeBatchWindowMillis;
+
+    }
+
+    public void setWriteBatchWindowMillis(long writeBatchWindowMillis) {
+
+        this.writeBatchWindowMillis = writeBatchWindowMillis;
+
+    }
+
+    public int getWriteBatchMaxBytes() {
+
+        return writeBatchMaxBytes;
+
+    }
+
+    public void setWriteBatchMaxBytes(int writeBatchMaxBytes) {
+
+        this.writeBatchMaxBytes = writeBatchMaxBytes;
+
+    }
+
+    public int getOutboundQueueCapacity() {
+
+        return outboundQueueCapacity;
+
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+
+        this.outboundQueueCapacity = outboundQueueCapacity;
+
+    }
+
+    public boolean isTcpNoDelay() {
+
+        return tcpNoDelay;
+
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+
+        this.tcpNoDelay = tcpNoDelay;
+
+    }
+
+    public WireProtocol getProtocol() {
+
+        return protocol;
+
+    }
+
+    public void setProtocol(WireProtocol protocol) {
+
+        this.protocol = protocol;
+
+    }
+
+    public boolean isCompressionEnabled() {
+
+        return compressionEnabled;
+
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+
+        this.compressionEnabled = compressionEnabled;
+
+    }
+
+    public int getCompressionThreshold() {
+
+        return compressionThreshold;
+
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+
+        this.compressionThreshold = compressionThreshold;
+
+    }
+
+    public boolean isAutoReconnect() {
+
+        return autoReconnect;
+
+    }
+
+    public void setAutoReconnect(boolean autoReconnect) {
+
+        this.autoReconnect = autoReconnect;
+
+    }
+
+    public long getReconnectInitialDelayMillis() {
+
+        return reconnectInitialDelayMillis;
+
+    }
+
+    public void setReconnectInitialDelayMillis(long reconnectInitialDelayMillis) {
+
+        this.reconnectInitialDelayMillis = reconnectInitialDelayMillis;
+
+    }
+
+    public long getReconnectMaxDelayMillis() {
+
+        return reconnectMaxDelayMillis;
+
+    }
+
+    public void setReconnectMaxDelayMillis(long reconnectMaxDelayMillis) {
+
+        this.reconnectMaxDelayMillis = reconnectMaxDelayMillis;
+
+    }
+
+    public long getRenderIntervalMillis() {
+
+        return renderIntervalMillis;
+
+    }
+
+    public void setRenderIntervalMillis(long renderIntervalMillis) {
+
+        this.renderIntervalMillis = renderIntervalMillis;
+
+    }
+
+    public int getMaxDisplayedLines() {
+
+        return maxDisplayedLines;
+
+    }
+
+    public void setMaxDisplayedLines(int maxDisplayedLines) {
+
+        this.maxDisplayedLines = maxDisplayedLines;
+
+    }
+
+    public int getAckInterval() {
+
+        return ackInterval;
+
+    }
+
+    public void setAckInterval(int ackInterval) {
+
+        this.ackInterval = ackInterval;
+
+    }
+
+    public SSLContext getSslContext() {
+
+        return sslContext;
+
+    }
+
+    public void setSslContext(SSLContext sslContext) {
+
+        this.sslContext = sslContext;
+
+    }
+
+}
@@ -0,0 +1,394 @@
+package net.hub.chat;
+
+import net.hub.chat.metrics.ServerMetrics;
+import net.hub.chat.store.MessageLog;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * The class representing a chat room, which is a shard of the chat server with its own members and its own
+ * broadcast executor. A message for the room is fanned out to the members by the executor of the room,
+ * so a busy room only delays its own messages and the broadcasts of all rooms are spread over the shared pool.
+ * The chat messages of the room are kept in a bounded history and a client who joins first receives a replay
+ * of the most recent ones, or of the ones it missed if it resumes its session. Every chat message is numbered with its
+ * sequence number in the history, which tells a client where to resume from. If the server has a persistent message log the chat messages are queued to it as well,
+ * the log is written by its own thread so the broadcast never waits for the disk. The members are added and removed by the executor as well, so a new member gets
+ * every message exactly once, either from the replay or live.
+ * Rooms other than the permanent lobby are closed as soon as their last member leaves.
+ * The clients which acknowledge the messages they received let the room trim its history: while every member acknowledges,
+ * every so many messages the history is trimmed to the oldest message a member or the parked session of a member which left
+ * still needs, but never below the most recent messages which are replayed to new members. While the room has no member
+ * or a member which does not acknowledge, the history keeps its whole capacity, for the history command and for the
+ * sessions resumed after a gap. A member lagging further behind than the limit is disconnected, once.
+ */
+public class ChatRoom {
+
+    private String name;
+    private boolean permanent;
+    private ClientRegistry members = new ClientRegistry();
+    private SerialExecutor broadcastExecutor;
+    private MessageHistory<Frame> history;
+    private int replayCount;
+    private MessageLog messageLog;
+    private ServerMetrics metrics;
+    private long maxAckLag;
+    private Queue<Pin> pins = new ConcurrentLinkedQueue<Pin>();
+    private Set<ClientConnection> lagEvicted = new HashSet<ClientConnection>();
+    private int appendsSinceTrim = 0;
+    private int memberCount = 0;
+    private boolean closed = false;
+    private volatile long membershipVersion = 0;
+    private volatile ParticipantsRendering participantsRendering;
+
+    private static final int TRIM_INTERVAL = 64;
+
+    /**
+     * Creates a new chat room.
+     * @param name the name of the room
+     * @param permanent if the room stays open when it becomes empty
+     * @param broadcastPool the pool shared by the broadcast executors of all rooms
+     * @param historyCapacity the number of chat messages kept in the history of the room
+     * @param replayCount the number of chat messages replayed to a client who joins
+     * @param messageLog the persistent log of the chat messages or null if they are not persisted
+     * @param metrics the metrics of the server, which record the fan-out of every message
+     * @param maxAckLag the number of unacknowledged messages after which a member is disconnected, zero for no limit
+     */
+    public ChatRoom(String name, boolean permanent, Executor broadcastPool, int historyCapacity, int replayCount, MessageLog messageLog, ServerMetrics metrics, long maxAckLag) {
+
+        this.name = name;
+        this.permanent = permanent;
+        this.broadcastExecutor = new SerialExecutor(broadcastPool);
+        this.history = new MessageHistory<Frame>(historyCapacity);
+        this.replayCount = replayCount;
+        this.messageLog = messageLog;
+        this.metrics = metrics;
+        this.maxAckLag = maxAckLag;
+
+    }
+
+    /**
+     * Adds a client to the members of the room. The recent history is replayed to the client
+     * by the executor of the room right before the client starts receiving the new messages.
+     * @param client the client who joins the room
+     * @return true if the client joined, false if the room has been closed in the meantime
+     */
+    public boolean join(ClientConnection client) {
+
+        return join(client, -1);
+
+    }
+
+    /**
+     * Adds a client to the members of the room, replaying the messages of the history from the given sequence number on,
+     * as far as the history still holds them. A client which missed more messages than the history holds is told so.
+     * @param client the client who joins the room
+     * @param resumeSequence the sequence number of the first message to replay, or -1 to replay the most recent messages
+     * @return true if the client joined, false if the room has been closed in the meantime
+     */
+    public boolean join(final ClientConnection client, final long resumeSequence) {
+
+        synchronized (this) {
+
+            if (this.closed)
+                return false;
+
+            this.memberCount++;
+            client.setRoom(this);
+
+        }
+
+        this.broadcastExecutor.execute(new Runnable() {
+            public void run() {
+                if (resumeSequence < 0) {
+
+                    ChatServer.replay(client, history.snapshot(replayCount));
+
+                } else {
+
+                    List<Frame> missed = history.snapshotSince(resumeSequence);
+                    long lost = (missed.isEmpty() ? history.getHead() : missed.get(0).getSequence()) - resumeSequence;
+
+                    if (lost > 0)
+                        missed.add(0, Frame.system(lost + " messages were missed and are no longer kept."));
+
+                    ChatServer.replay(client, missed);
+
+                }
+
+                if (client.getAckedSequence() >= 0)
+                    client.acknowledge(resumeSequence >= 0 ? resumeSequence - 1 : history.getHead() - 1);
+
+                members.add(client);
+                membershipVersion++;
+            }
+        });
+
+        return true;
+
+    }
+
+    /**
+     * Removes a client from the members of the room. If the room is not permanent and
+     * the client was its last member then the room is closed.
+     * @param client the client who leaves the room
+     * @return true if the room was closed because it became empty else false
+     */
+    public boolean leave(final ClientConnection client) {
+
+        this.broadcastExecutor.execute(new Runnable() {
+            public void run() {
+                members.remove(client);
+                lagEvicted.remove(client);
+                membershipVersion++;
+            }
+        });
+
+        synchronized (this) {
+
+            this.memberCount--;
+
+            if (!this.permanent && this.memberCount == 0) {
+
+                this.closed = true;
+                return true;
+
+            }
+
+            return false;
+
+        }
+
+    }
+
+    /**
+     * Transmits a notice to all members of the room, without keeping it in the history.
+     * @param message the message to be transmitted
+     */
+    public void transmit(String message) {
+
+        transmit(Frame.system(message), false, 0);
+
+    }
+
+    /**
+     * Transmits a message to all members of the room. The message is handed over to the executor of the room
+     * which numbers it and appends it to the history and the message log if requested and queues the same frame for every member,
+     * in the order the messages were transmitted. The frame is encoded once per wire format by the first writer that needs it.
+     * @param frame the message to be transmitted
+     * @param keepInHistory if the message is kept in the history of the room
+     * @param receivedNanos the System.nanoTime() at which the message was received from its sender, or zero for notices,
+     *                      used to measure the latency until the message is queued for every member
+     */
+    public void transmit(final Frame frame, final boolean keepInHistory, final long receivedNanos) {
+
+        this.broadcastExecutor.execute(new Runnable() {
+            public void run() {
+
+                Frame numbered = frame;
+
+                if (keepInHistory) {
+
+                    numbered = frame.withSequence(history.getHead());
+                    history.append(numbered);
+
+                    if (messageLog != null)
+                        messageLog.append(name, frame.getMessage());
+
+                    if (++appendsSinceTrim >= TRIM_INTERVAL) {
+
+                        appendsSinceTrim = 0;
+                        trimHistory();
+
+                    }
+
+                }
+
+                metrics.recordBroadcast(ChatServer.broadcast(members, numbered, frame.getText()), receivedNanos);
+
+            }
+        });
+
+    }
+
+    /**
+     * Trims the history of the messages nobody needs any more and disconnects the members lagging too far behind.
+     * The history is only trimmed when at least one member acknowledges and every member does, since a member which
+     * does not acknowledge may still need any message. The most recent messages, which are replayed to new members,
+     * are always kept. A lagging member is disconnected and counted once, it is skipped until it has left the room.
+     * It runs on the executor of the room, the single writer of the history and of the evicted members.
+     */
+    private void trimHistory() {
+
+        long head = this.history.getHead();
+        long keep = head - this.replayCount;
+        boolean acknowledged = false;
+        boolean unacknowledged = false;
+
+        for (ClientConnection member : this.members) {
+
+            long acked = member.getAckedSequence();
+
+            if (acked < 0) {
+
+                unacknowledged = true;
+                continue;
+
+            }
+
+            if (this.lagEvicted.contains(member))
+                continue;
+
+            if (this.maxAckLag > 0 && head - 1 - acked > this.maxAckLag) {
+
+                this.lagEvicted.add(member);
+                this.metrics.recordLagEviction();
+                member.disconnect();
+                continue;
+
+            }
+
+            acknowledged = true;
+            keep = Math.min(keep, acked + 1);
+
+        }
+
+        long now = System.nanoTime();
+        Iterator<Pin> iterator = this.pins.iterator();
+
+        while (iterator.hasNext()) {
+
+            Pin pin = iterator.next();
+
+            if (now - pin.expiresNanos > 0)
+                iterator.remove();
+            else
+                keep = Math.min(keep, pin.sequence);
+
+        }
+
+        if (acknowledged && !unacknowledged)
+            this.history.trim(keep);
+
+    }
+
+    /**
+     * Keeps the messages from the given sequence number on in the history for a while, so that a member which left
+     * with a parked session can resume it and still receive the messages it missed.
+     * @param sequence the sequence number of the first message to keep
+     * @param keepNanos for how long the messages are kept
+     */
+    public void pin(long sequence, long keepNanos) {
+
+        this.pins.add(new Pin(sequence, System.nanoTime() + keepNanos));
+
+    }
+
+    /**
+     * Returns the most recent chat messages of the room. It never blocks the broadcasts of the room.
+     * @param count the maximum number of messages to return
+     * @return the list of the messages, oldest first
+     */
+    public List<Frame> getHistory(int count) {
+
+        return this.history.snapshot(count);
+
+    }
+
+    /**
+     * Returns a consistent snapshot of the members of the room.
+     * @return the list of the members
+     */
+    public List<ClientConnection> getParticipants() {
+
+        return this.members.snapshot();
+
+    }
+
+    /**
+     * Returns the list of the nick names of the members of the room, as shown by the participants command.
+     * The rendering is cached together with the version of the membership it was built from and is only rebuilt
+     * once a member joined or left. The members only change on the executor of the room, which bumps the version after
+     * the change, so a rendering built while the members change is rebuilt the next time.
+     * @return the rendered list of the participants
+     */
+    public String renderParticipants() {
+
+        long version = this.membershipVersion;
+        ParticipantsRendering rendering = this.participantsRendering;
+
+        if (rendering != null && rendering.version == version)
+            return rendering.text;
+
+        StringBuilder builder = new StringBuilder("The following are currently in the chat room ").append(this.name).append(" :\n");
+
+        for (ClientConnection client : this.members.snapshot())
+            builder.append(client.getNickName()).append('\n');
+
+        rendering = new ParticipantsRendering(version, builder.toString());
+        this.participantsRendering = rendering;
+        return rendering.text;
+
+    }
+
+    /**
+     * Methods that are used to return variables of the room.
+     */
+    public String getName() {
+
+        return this.name;
+
+    }
+
+    public synchronized int size() {
+
+        return this.memberCount;
+
+    }
+
+    public long getHead() {
+
+        return this.history.getHead();
+
+    }
+
+    /**
+     * The rendered list of the participants and the version of the membership it was built from.
+     */
+    private static class ParticipantsRendering {
+
+        private long version;
+        private String text;
+
+        private ParticipantsRendering(long version, String text) {
+
+            this.version = version;
+            this.text = text;
+
+        }
+
+    }
+
+    /**
+     * The messages a parked session still needs.
+     */
+    private static class Pin {
+
+        private long sequence;
+        private long expiresNanos;
+
+        private Pin(long sequence, long expiresNanos) {
+
+            this.sequence = sequence;
+            this.expiresNanos = expiresNanos;
+
+        }
+
+    }
+
+}
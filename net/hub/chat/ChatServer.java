@@ -1,24 +1,84 @@
 package net.hub.chat;
 
-import java.io.DataOutputStream;
+import net.hub.chat.cluster.ClusterBus;
+import net.hub.chat.commands.CommandRegistry;
+import net.hub.chat.limits.AdmissionController;
+import net.hub.chat.limits.MessageKind;
+import net.hub.chat.limits.MessageRateLimiter;
+import net.hub.chat.logging.Logger;
+import net.hub.chat.metrics.ChatServerStats;
+import net.hub.chat.metrics.ServerMetrics;
+import net.hub.chat.nio.NioServerEngine;
+import net.hub.chat.store.MessageLog;
+import net.hub.chat.timer.IdleMonitor;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 
 /**
  * The class implementing the Chat Server functionality. The chat server will listen to a given port for new connections.
  * When a new request for connection is received from a client a new thread will be created and assigned to this connection.
  * Methods for transmitting messages, removing disconnected clients and providing advanced features are implemented.
+ * The chat server hosts many independent chat rooms. Every client starts in the lobby and can move between rooms,
+ * the messages of a client are only transmitted to the members of its current room.
+ * The server keeps metrics of its connections, messages and latencies, exposed through JMX and the stats command.
+ * Clients speak either the legacy writeUTF protocol or the binary protocol v2, which is negotiated in the handshake.
+ * For the v2 clients the nick names are interned to ids, so a chat message carries a small id instead of the nick name,
+ * and the large frames are compressed if the client asks for it.
+ * Several servers can form a cluster which shares the same logical rooms, see ClusterBus.
+ * Every nick name is used by a single connected client, the server keeps an index of the clients by nick name
+ * which is claimed at the end of the handshake and released when the client is invalidated, so a client is found without a scan.
+ * Every accepted connection goes through the admission control of the server before it gets a thread or a queue.
+ * The constructors listen for connections on the calling thread until the process exits, while start() returns a server
+ * listening on a thread of its own, which can be stopped with close().
  */
 
-public class ChatServer {
+public class ChatServer implements Closeable {
 
-    private int connectionPort = 6667;
+    public static final int DEFAULT_PORT = 6667;
+    public static final String LOBBY = "lobby";
+    public static final String COMMAND_PREFIX = "$\\";
+
+    private static final Logger LOG = Logger.getLogger(ChatServer.class);
+
+    private ChatServerConfig config;
     private ServerSocket serverSocket;
-    private List<ConnectionThread> connectedClients = new ArrayList<ConnectionThread>();
+    private NioServerEngine nioEngine;
+    private ObjectName statsName;
+    private volatile boolean closed = false;
+    private ClientRegistry connectedClients = new ClientRegistry();
+    private ExecutorService broadcastPool;
+    private ConcurrentHashMap<String, ChatRoom> rooms = new ConcurrentHashMap<String, ChatRoom>();
+    private ConcurrentHashMap<String, ClientConnection> clientsByNickName = new ConcurrentHashMap<String, ClientConnection>();
+    private AtomicLong evictedClients = new AtomicLong();
+    private AtomicLong droppedMessages = new AtomicLong();
+    private ConcurrentHashMap<String, Integer> nickIds = new ConcurrentHashMap<String, Integer>();
+    private AtomicInteger nextNickId = new AtomicInteger(1);
+    private ConcurrentLinkedQueue<Integer> freeNickIds = new ConcurrentLinkedQueue<Integer>();
+    private MessageLog messageLog;
+    private CommandRegistry commandRegistry;
+    private ServerMetrics metrics = new ServerMetrics();
+    private ChatServerStats stats;
+    private ClusterBus cluster;
+    private AdmissionController admission;
+    private IdleMonitor idleMonitor;
+    private SessionRegistry sessions;
 
     /**
      * Creates a new ChatServer who listens for connections on the default port, 6667.
@@ -26,8 +86,7 @@ public class ChatServer {
      */
     public ChatServer() throws IOException {
 
-        this.serverSocket = new ServerSocket(this.connectionPort);
-        listenForConnections();
+        this(new ChatServerConfig());
 
     }
 
@@ -38,110 +97,959 @@ public class ChatServer {
      */
     public ChatServer(int port) throws IOException {
 
-        this.connectionPort = port;
-        this.serverSocket = new ServerSocket(this.connectionPort);
-        listenForConnections();
+        this(new ChatServerConfig(port, ServerMode.THREAD_PER_CONNECTION));
+
+    }
+
+    /**
+     * Creates a new ChatServer who listens for connections on the provided port using the given server engine.
+     * All engines speak the same protocols so any client can connect to any of them.
+     * @param port the port which will be used by the server.
+     * @param serverMode the engine that will serve the connected clients
+     * @throws IOException if the port is in use or invalid and can no be bound
+     */
+    public ChatServer(int port, ServerMode serverMode) throws IOException {
+
+        this(new ChatServerConfig(port, serverMode));
+
+    }
+
+    /**
+     * Creates a new ChatServer with the given configuration.
+     * @param config the settings of the server
+     * @throws IOException if the port is in use or invalid and can no be bound
+     */
+    public ChatServer(ChatServerConfig config) throws IOException {
+
+        this(config, true);
+
+    }
+
+    /**
+     * Creates a new ChatServer with the given configuration, which binds its port and listens for connections if asked to.
+     * @param config the settings of the server
+     * @param listen if the connections are accepted on the calling thread, else the server only binds its port
+     * @throws IOException if the port is in use or invalid and can no be bound
+     */
+    private ChatServer(ChatServerConfig config, boolean listen) throws IOException {
+
+        this.config = config;
+        this.commandRegistry = config.getCommandRegistry();
+        Logger.setLevel(config.getLogLevel());
+
+        if (this.config.getServerMode() == ServerMode.VIRTUAL_THREADS && !VirtualThreads.isSupported()) {
+
+            LOG.warn("Virtual threads are not supported by this JVM, falling back to platform threads.");
+            this.config.setServerMode(ServerMode.THREAD_PER_CONNECTION);
+
+        }
+
+        this.broadcastPool = Executors.newFixedThreadPool(this.config.getBroadcastThreads(), new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "ChatRoom-broadcast");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        openMessageLog();
+        this.rooms.put(LOBBY, newRoom(LOBBY, true));
+        this.admission = new AdmissionController(this);
+
+        if (this.config.getSessionTimeoutMillis() > 0)
+            this.sessions = new SessionRegistry(this.config.getSessionTimeoutMillis());
+
+        startIdleMonitor();
+        configureTls();
+        registerStats();
+        startCluster();
+        bind();
+
+        if (listen)
+            acceptConnections();
+
+    }
+
+    /**
+     * Creates a new ChatServer with the given configuration and accepts its connections on a daemon thread of its own.
+     * The port is bound when this method returns, so the clients can connect right away.
+     * @param config the settings of the server
+     * @return the running server, which is stopped with close()
+     * @throws IOException if the port is in use or invalid and can no be bound
+     */
+    public static ChatServer start(ChatServerConfig config) throws IOException {
+
+        final ChatServer server = new ChatServer(config, false);
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    server.acceptConnections();
+                } catch (IOException ie) {
+                    LOG.error("There was an error while accepting connections at port : {}", server.getConfig().getPort());
+                }
+            }
+        }, "ChatServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
 
     }
 
     /**
-     * The chat server listens for new requests for connection from clients.
-     * This method has a repeating loop which blocks on the ServerSocket accept() method.
-     * Whenever a new request for connection comes a new thread is created and assigned to this connection.
+     * Stops the server. The listening socket is closed, every client is disconnected and the threads of the server are stopped.
+     * The persistent message log is left to its shutdown hook, which writes the messages still queued for the disk.
+     */
+    public void close() {
+
+        if (this.closed)
+            return;
+
+        this.closed = true;
+
+        try {
+
+            if (this.serverSocket != null)
+                this.serverSocket.close();
+
+            if (this.cluster != null)
+                this.cluster.close();
+
+        } catch (IOException ie) {
+
+            LOG.warn("There was an error while closing the server at port : {}", this.config.getPort());
+
+        }
+
+        for (ClientConnection client : connectedClients.snapshot())
+            client.disconnect();
+
+        if (this.nioEngine != null)
+            this.nioEngine.close();
+
+        if (this.idleMonitor != null)
+            this.idleMonitor.stop();
+
+        this.broadcastPool.shutdown();
+
+        try {
+
+            if (this.statsName != null)
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.statsName);
+
+        } catch (JMException je) {
+
+            LOG.debug("There was an error while unregistering the statistics MBean : {}", je);
+
+        }
+
+        LOG.info("Chat Server stopped at port : {}", this.config.getPort());
+
+    }
+
+    /**
+     * Opens the persistent message log if a directory is configured for it. The log is closed by a shutdown hook
+     * so that the messages still queued for the disk are written before the server exits.
+     * @throws IOException if the log can not be opened or recovered
+     */
+    private void openMessageLog() throws IOException {
+
+        if (this.config.getMessageLogDirectory() == null)
+            return;
+
+        this.messageLog = new MessageLog(this.config.getMessageLogDirectory(), this.config.getFsyncPolicy(),
+                this.config.getFsyncIntervalMillis(), this.config.getLogSegmentBytes());
+        LOG.info("Message log opened at {} with next offset : {}", this.config.getMessageLogDirectory(), this.messageLog.getNextOffset());
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                try {
+                    messageLog.close();
+                } catch (IOException ie) {
+                    LOG.error("There was an error while closing the message log : {}", ie);
+                }
+            }
+        }, "MessageLog-shutdown"));
+
+    }
+
+    /**
+     * Starts the idle monitor of the server if an idle timeout is configured, so that the clients which went away
+     * without closing their connection are found and invalidated.
+     */
+    private void startIdleMonitor() {
+
+        if (this.config.getIdleTimeoutMillis() <= 0)
+            return;
+
+        this.idleMonitor = new IdleMonitor(this);
+        this.idleMonitor.start();
+
+    }
+
+    /**
+     * Sizes the TLS session cache of the server if a TLS context is configured. The cached sessions, and in TLS 1.3 the tickets
+     * handed to the clients, let a client which connects again skip the certificate and key exchange of a full handshake.
+     */
+    private void configureTls() {
+
+        SSLContext sslContext = this.config.getSslContext();
+
+        if (sslContext == null)
+            return;
+
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+        sessionContext.setSessionCacheSize(this.config.getTlsSessionCacheSize());
+        sessionContext.setSessionTimeout(this.config.getTlsSessionTimeoutSeconds());
+        LOG.info("TLS enabled with protocol : {}", sslContext.getProtocol());
+
+    }
+
+    /**
+     * Starts the cluster bus of the server if a cluster port is configured, so that the rooms are shared with the peers.
+     * @throws IOException if the cluster port can not be bound
+     */
+    private void startCluster() throws IOException {
+
+        if (this.config.getClusterPort() <= 0)
+            return;
+
+        String nodeName = this.config.getNodeName() != null ? this.config.getNodeName() : "node-" + this.config.getPort();
+        this.cluster = new ClusterBus(this, nodeName, this.config.getClusterBindAddress(), this.config.getClusterPort(), this.config.getClusterSecret(),
+                this.config.getClusterPeers(), this.config.getClusterQueueCapacity(), this.config.getClusterReconnectMillis());
+        this.cluster.start();
+
+    }
+
+    /**
+     * Creates the stats view of the server and registers it with the platform MBean server, so that the metrics
+     * can be watched with any JMX console. A failure to register only costs the JMX view, the stats command still works.
+     */
+    private void registerStats() {
+
+        this.stats = new ChatServerStats(this);
+
+        try {
+
+            ObjectName name = new ObjectName("net.hub.chat:type=ChatServer,port=" + this.config.getPort());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.stats, name);
+            this.statsName = name;
+
+        } catch (JMException je) {
+
+            LOG.warn("There was an error while registering the statistics MBean : {}", je);
+
+        }
+
+    }
+
+    /**
+     * Binds the port of the server, with the NioServerEngine in the NIO mode, else with a server socket,
+     * which accepts TLS sockets if a TLS context is configured.
+     * @throws IOException if the port is in use or invalid and can no be bound
+     */
+    private void bind() throws IOException {
+
+        if (this.config.getServerMode() == ServerMode.NIO) {
+
+            this.nioEngine = new NioServerEngine(this, this.config.getPort(), this.config.getReactorThreads());
+            return;
+
+        }
+
+        if (this.config.getSslContext() != null)
+            this.serverSocket = this.config.getSslContext().getServerSocketFactory().createServerSocket(this.config.getPort());
+        else
+            this.serverSocket = new ServerSocket(this.config.getPort());
+
+    }
+
+    /**
+     * The chat server listens for new requests for connection from clients, until it is closed.
+     * In the NIO mode the listening is delegated to the NioServerEngine.
+     * Else this method has a repeating loop which blocks on the ServerSocket accept() method.
+     * Whenever a new request for connection comes and is admitted a new thread is created and assigned to this connection,
+     * together with a writer thread which drains the outbound queue of the connection. The loop waits before accepting
+     * while the server is saturated, so the number of threads is bounded by the maximum number of connections.
+     * Depending on the server mode these are either platform or virtual threads.
+     * With a TLS context the server socket accepts TLS sockets, whose handshake takes place on the connection thread
+     * with the first read, within the handshake timeout.
      * @throws IOException if an error occurs while waiting
      */
-    private void listenForConnections() throws IOException {
+    private void acceptConnections() throws IOException {
 
-        System.out.println("Chat Server listening at port : " + this.connectionPort);
+        if (this.nioEngine != null) {
 
-        while (true) {
+            this.nioEngine.listen();
+            return;
+
+        }
+
+        LOG.info("Chat Server listening at port : {}", this.config.getPort());
 
-            Socket clientConnection = serverSocket.accept();
-            System.out.println("Received connection from " + clientConnection);
-            this.connectedClients.add(new ConnectionThread(this, clientConnection));
+        while (!this.closed) {
+
+            admission.awaitCapacity();
+            Socket clientConnection;
+
+            try {
+
+                clientConnection = serverSocket.accept();
+
+            } catch (IOException ie) {
+
+                if (this.closed)
+                    return;
+
+                throw ie;
+
+            }
+
+            if (!admission.admit(clientConnection))
+                continue;
+
+            LOG.info("Received connection from {}", clientConnection);
+            ConnectionThread connectionThread = new ConnectionThread(this, clientConnection);
+            registerClient(connectionThread);
+            newThread(connectionThread.getWriter()).start();
+            newThread(connectionThread).start();
 
         }
 
     }
 
+    /**
+     * Creates a new unstarted thread of the type used by the server mode.
+     * @param task the task the thread will execute
+     * @return the new thread
+     */
+    private Thread newThread(Runnable task) {
+
+        if (this.config.getServerMode() == ServerMode.VIRTUAL_THREADS)
+            return VirtualThreads.newThread(task);
+
+        return new Thread(task);
+
+    }
+
+    /**
+     * Method that adds a newly accepted connection to the registry of the connected clients.
+     * It is used by all server engines as soon as a connection is accepted.
+     * @param client the client to register
+     */
+    public void registerClient(ClientConnection client) {
+
+        connectedClients.add(client);
+        metrics.recordConnectionAccepted();
+
+    }
+
     /**
      * Method that invalidates a connection for the Chat Server after the client has closed it.
-     * The synchronize keyword is used to verify that no other thread is trying to access and change
-     * the structure of the List that holds the active connections.
-     * First the client is removed from the list and then the socket is closed.
-     * Finally all clients are notified that the given connection has been closed.
+     * The client registry is safe for concurrent use so no lock is needed here.
+     * First the client is removed from the registry and then the socket is closed.
+     * Finally the client releases its nick name, leaves its room, is no longer watched for idleness and the members of the room are notified that the given connection has been closed.
+     * When the session of a client which acknowledges its messages is parked, its room keeps the messages it has not acknowledged until the session expires.
+     * The idle monitor calls this method too for the clients that stopped answering.
+     * If the client had already been invalidated then only the socket is closed.
      * @param client the client to invalidate
      */
-    public void invalidate(ConnectionThread client) {
+    public void invalidate(ClientConnection client) {
 
-        synchronized(connectedClients) {
+        boolean removed = connectedClients.remove( client );
 
-            connectedClients.remove( client );
+        try {
 
-            try {
+            client.getConnection().close();
 
-                client.getConnection().close();
-                transmit(client.getNickName() + " has left the chat room!");
-                System.out.println("Client disconnected --- connection : " +  client.getConnection());
+            if (removed) {
 
-            } catch(IOException ie) {
+                admission.release();
+
+                if (client.getNickName() != null && clientsByNickName.remove(client.getNickName(), client))
+                    releaseNickId(client.getNickName());
+
+                ChatRoom room = client.getRoom();
+                boolean announce = sessions == null || sessions.park(client, room == null ? null : room.getName());
+
+                if (sessions != null && announce && room != null && client.getAckedSequence() >= 0)
+                    room.pin(client.getAckedSequence() + 1, TimeUnit.MILLISECONDS.toNanos(config.getSessionTimeoutMillis()));
+
+                if (idleMonitor != null)
+                    idleMonitor.unwatch(client);
 
-                System.out.println("There was an error while closing the connection : " +  client.getConnection());
+                metrics.recordConnectionClosed();
+                droppedMessages.addAndGet(client.getOutboundQueue().getDroppedMessages());
+                leaveRoom(client, announce);
+                LOG.info("Client disconnected --- connection : {}", client.getConnection());
 
             }
 
+        } catch(IOException ie) {
+
+            LOG.warn("There was an error while closing the connection : {}", client.getConnection());
+
+        }
+
+    }
+
+    /**
+     * Method that evicts a slow client whose outbound queue overflowed under the DISCONNECT policy.
+     * The connection is closed asynchronously, it is invalidated later by its own thread
+     * so that it is safe to call this method while a broadcast is iterating over the clients.
+     * @param client the client to evict
+     */
+    public void evict(ClientConnection client) {
+
+        evictedClients.incrementAndGet();
+        LOG.warn("Evicting slow client : {} after {} dropped messages", client, client.getOutboundQueue().getDroppedMessages());
+        client.disconnect();
+
+    }
+
+    /**
+     * Method that negotiates the protocol of a new connection from the first message of its client.
+     * A client of the protocol v2 gets the protocol and, if it asks for it and the server allows it, compression.
+     * If the server keeps sessions the client resumes the session it asks for, if the server still has it, or gets a new one.
+     * @param hello the first message of the client
+     * @param client the client
+     * @param codec the protocol state of the connection
+     * @return the answer to send to the client before any other message or null for a legacy client
+     */
+    public String negotiate(String hello, ClientConnection client, FrameCodec codec) {
+
+        if (!ProtocolV2.isHello(hello))
+            return null;
+
+        codec.setProtocol(WireProtocol.V2);
+        String answer = ProtocolV2.HELLO_ACK;
+
+        if (config.isCompressionEnabled() && ProtocolV2.hasOption(hello, ProtocolV2.DEFLATE)) {
+
+            codec.enableCompression(config.getCompressionThreshold());
+            answer += ";" + ProtocolV2.DEFLATE;
+
+        }
+
+        if (sessions == null)
+            return answer;
+
+        SessionRegistry.Session session = resumeSession(hello, client);
+
+        if (session != null)
+            return answer + ";" + ProtocolV2.SESSION + "=" + session.getToken() + ";" + ProtocolV2.RESUMED;
+
+        session = sessions.open(client, ProtocolV2.nickNameOf(hello));
+        return answer + ";" + ProtocolV2.SESSION + "=" + session.getToken();
+
+    }
+
+    /**
+     * Method that claims the nick name of a client at the end of its handshake, right before the client is welcomed.
+     * A nick name can only be used by one connected client, except that a client which resumed its session
+     * takes the nick name over from its previous connection, which is being closed. The nick name of a parked session
+     * is released with its connection, so if another client claimed it in the meantime the resumed session is refused as well.
+     * A client whose nick name is in use must be told so with nickNameInUse() and closed without being welcomed.
+     * @param client the client
+     * @param nickName the nick name the client asked for
+     * @return true if the nick name is now used by the client, false if another client uses it
+     */
+    public boolean claimNickName(ClientConnection client, String nickName) {
+
+        SessionRegistry.Session session = sessions == null ? null : sessions.get(client);
+
+        ClientConnection owner = clientsByNickName.putIfAbsent(nickName, client);
+
+        if (owner == null || owner == client)
+            return true;
+
+        if (session == null || !session.isResumed() || session.getPreviousClient() == null)
+            return false;
+
+        return clientsByNickName.replace(nickName, session.getPreviousClient(), client);
+
+    }
+
+    /**
+     * Method that returns the message a client whose nick name is in use is closed with.
+     * @param nickName the nick name
+     * @return the message
+     */
+    public static String nickNameInUse(String nickName) {
+
+        return "The nick name " + nickName + " is already in use, please connect with another one.";
+
+    }
+
+    /**
+     * Method that returns the connected client that uses the given nick name.
+     * @param nickName the nick name
+     * @return the client or null if no connected client uses it
+     */
+    public ClientConnection getClient(String nickName) {
+
+        return clientsByNickName.get(nickName);
+
+    }
+
+    /**
+     * Method that transmits a private message to the client that uses the given nick name, found in the index of the nick names.
+     * The message goes to that client alone, whatever its room, and is not kept in any history.
+     * @param sender the client that sends the message
+     * @param nickName the nick name of the recipient
+     * @param text the text of the message
+     * @return true if the message was queued for the recipient, false if no connected client uses the nick name
+     */
+    public boolean transmitPrivately(ClientConnection sender, String nickName, String text) {
+
+        ClientConnection recipient = clientsByNickName.get(nickName);
+
+        if (recipient == null)
+            return false;
+
+        transmitBackToClient("[private] " + sender.getNickName() + " : " + text, recipient);
+        return true;
+
+    }
+
+    /**
+     * Method that resumes the session a client asks for in its hello.
+     * @param hello the first message of the client
+     * @param client the client
+     * @return the resumed session or null if the client asks for none or the server no longer has it
+     */
+    private SessionRegistry.Session resumeSession(String hello, ClientConnection client) {
+
+        String resume = ProtocolV2.optionValue(hello, ProtocolV2.RESUME);
+        int separator = resume == null ? -1 : resume.lastIndexOf(':');
+
+        if (separator < 0)
+            return null;
+
+        try {
+
+            long sequence = Long.parseLong(resume.substring(separator + 1));
+            return sessions.resume(client, ProtocolV2.nickNameOf(hello), resume.substring(0, separator), sequence);
+
+        } catch (NumberFormatException ne) {
+
+            LOG.debug("Malformed resume option : {} from client : {}", resume, client);
+            return null;
+
         }
+
     }
 
     /**
-     * Method that handles all messages transmitted from the clients to the server.
+     * Method that handles all messages transmitted from the legacy clients to the server.
      * Based on the content it will decide if the message should be handled as an advanced feature command or
-     * as a simple message to be transmitted to all clients.
+     * as a simple message to be transmitted to all members of the room of the client.
+     * Only the prefix is checked for simple messages, the parsing of the command is left to the command registry.
      * @param message the message received
      * @param client the client thread that received the message
      */
-    public void handleMessage(String message, ConnectionThread client) {
+    public void handleMessage(String message, ClientConnection client) {
 
-        System.out.println("Received message : " + message + " from client : " + client);
+        long receivedNanos = System.nanoTime();
+        LOG.debug("Received message : {} from client : {}", message, client);
 
-        if (message.startsWith("$\\")) {
+        if (message.startsWith(COMMAND_PREFIX))
+            handleCommand(message, COMMAND_PREFIX.length(), client, receivedNanos);
+        else
+            handleChat(message, client, receivedNanos);
 
-            message = advancedFeatures((message.replace("$\\", "")).trim());
-            transmitBackToClient(message, client);
+    }
 
-        } else {
+    /**
+     * Method that handles all frames transmitted from the clients of the protocol v2 to the server.
+     * The type of the frame tells a command from a simple message, so the text is never checked for the command prefix.
+     * A ping of the client is answered with a pong, while a pong only shows that the client is alive, which its connection has already noted.
+     * An acknowledgement records the sequence number of the last chat message of its room the client received, see acknowledge.
+     * @param frame the frame received
+     * @param client the client thread that received the frame
+     */
+    public void handleFrame(Frame frame, ClientConnection client) {
+
+        long receivedNanos = System.nanoTime();
+        LOG.debug("Received frame : {} {} from client : {}", frame.getType(), frame.getText(), client);
+
+        if (frame.getType() == FrameType.CHAT)
+            handleChat(frame.getText(), client, receivedNanos);
+        else if (frame.getType() == FrameType.COMMAND)
+            handleCommand(frame.getText(), 0, client, receivedNanos);
+        else if (frame.getType() == FrameType.PING)
+            sendPong(client);
+        else if (frame.getType() == FrameType.ACK)
+            acknowledge(client, frame.getSequence());
+
+    }
+
+    /**
+     * Method that records the acknowledgement sent by a client, once it is checked against the room of the client.
+     * The acknowledgements are cumulative, so one that does not go beyond the last is a stale or repeated one and is ignored,
+     * and a client can not have received a message that was not transmitted yet, so one beyond the head of the room is clamped to its last message.
+     * Otherwise a bogus acknowledgement would let the room trim the messages the client still needs, or hide how far behind the client is.
+     * An acknowledgement of a client which is between rooms is ignored too, the room it joins resets its acknowledgement anyway.
+     * @param client the client that sent the acknowledgement
+     * @param sequence the sequence number the client acknowledged
+     */
+    static void acknowledge(ClientConnection client, long sequence) {
+
+        ChatRoom room = client.getRoom();
+
+        if (room == null)
+            return;
 
-            transmit(client.getNickName() + " : " + message);
+        long acknowledged = Math.min(sequence, room.getHead() - 1);
+
+        if (acknowledged > client.getAckedSequence())
+            client.acknowledge(acknowledged);
+
+    }
+
+    /**
+     * Method that answers the ping of a client.
+     * @param client the client that sent the ping
+     */
+    private void sendPong(ClientConnection client) {
+
+        try {
+
+            client.send(Frame.pong());
+
+        } catch(IOException ie) {
+
+            LOG.debug("There was an error while answering the ping of : {}", client.getConnection());
+
+        }
+
+    }
+
+    /**
+     * Method that executes a command and transmits its reply back to the client.
+     * @param message the message holding the command
+     * @param start the index of the command in the message, after the command prefix if there is one
+     * @param client the client that sent the command
+     * @param receivedNanos the System.nanoTime() at which the command was received
+     */
+    private void handleCommand(String message, int start, ClientConnection client, long receivedNanos) {
+
+        transmitBackToClient(advancedFeatures(message, start, client), client);
+        metrics.recordCommand(receivedNanos);
+
+    }
+
+    /**
+     * Method that transmits a simple message to all members of the room of the client.
+     * @param text the message
+     * @param client the client that sent the message
+     * @param receivedNanos the System.nanoTime() at which the message was received
+     */
+    private void handleChat(String text, ClientConnection client, long receivedNanos) {
+
+        metrics.recordMessageReceived();
+        ChatRoom room = client.getRoom();
+
+        if (room == null)
+            return;
+
+        room.transmit(Frame.chat(nickIdOf(client.getNickName()), client.getNickName(), text), true, receivedNanos);
+
+        if (cluster != null)
+            cluster.relayChat(room.getName(), client.getNickName(), text);
+
+    }
+
+    /**
+     * Method that transmits a chat message relayed by another node of the cluster to the members of the room on this node.
+     * The message is kept in the history of the room but it is not relayed again.
+     * @param roomName the name of the room
+     * @param nickName the nick name of the sender
+     * @param text the message
+     */
+    public void deliverRelayedChat(String roomName, String nickName, String text) {
+
+        ChatRoom room = rooms.get(roomName);
+
+        if (room != null)
+            room.transmit(Frame.chat(nickIdOf(nickName), nickName, text), true, 0);
+
+    }
+
+    /**
+     * Method that transmits a notice relayed by another node of the cluster to the members of the room on this node.
+     * @param roomName the name of the room
+     * @param notice the notice
+     */
+    public void deliverRelayedNotice(String roomName, String notice) {
+
+        ChatRoom room = rooms.get(roomName);
+
+        if (room != null)
+            room.transmit(notice);
+
+    }
+
+    /**
+     * Method that returns the id of a nick name, assigning a free id to a nick name which has none.
+     * The ids released by nick names no longer in use are handed out again before a new one is created,
+     * so the ids stay dense and never grow beyond the number of nick names in use at the same time.
+     * A reused id means another nick name than before, every chat frame carries the nick name of its id as well
+     * and the connections tell their client again whenever the nick name of an id changed, see FrameCodec.
+     * @param nickName the nick name
+     * @return the id of the nick name, starting from 1
+     */
+    public int nickIdOf(String nickName) {
+
+        Integer id = nickIds.get(nickName);
+
+        if (id == null) {
+
+            Integer created = freeNickIds.poll();
+
+            if (created == null)
+                created = nextNickId.getAndIncrement();
+
+            id = nickIds.putIfAbsent(nickName, created);
+
+            if (id == null)
+                id = created;
+            else
+                freeNickIds.add(created);
 
         }
 
+        return id;
+
     }
 
     /**
-     * Method that transmits a message to all clients connected to the server.
+     * Method that forgets the id of a nick name which is no longer used, unless a client of this node uses it again.
+     * It is called when a local client releases its nick name and when a client of another node of the cluster leaves a room.
+     * The id is only freed if it is still the id of the nick name, so a concurrent release can not free it twice.
+     * Releasing an id that a client claiming the nick name meanwhile still needs is harmless, the frames already sent carry the nick name
+     * along with the id, and the nick name only gets another id the next time it sends a message.
+     * @param nickName the nick name
+     */
+    public void releaseNickId(String nickName) {
+
+        if (clientsByNickName.containsKey(nickName))
+            return;
+
+        Integer id = nickIds.get(nickName);
+
+        if (id != null && nickIds.remove(nickName, id))
+            freeNickIds.add(id);
+
+    }
+
+    /**
+     * Method that creates the message rate limiter of a new connection from the configuration of the server.
+     * Every connection gets its own limiter, which is used by the reader of that connection only.
+     * @return the limiter, or null if no message rate is limited
+     */
+    public MessageRateLimiter newRateLimiter() {
+
+        MessageRateLimiter limiter = new MessageRateLimiter(config.getChatRatePerSecond(), config.getChatBurst(),
+                config.getCommandRatePerSecond(), config.getCommandBurst(),
+                config.getControlRatePerSecond(), config.getControlBurst(), config.getRateLimitAction());
+
+        return limiter.isEnabled() ? limiter : null;
+
+    }
+
+    /**
+     * Method that returns the budget of the message rate limiter an inbound frame of the protocol v2 is charged to.
+     * @param frame the frame read from a client
+     * @return the kind of the frame
+     */
+    public static MessageKind kindOf(Frame frame) {
+
+        if (frame.getType() == FrameType.CHAT)
+            return MessageKind.CHAT;
+        else if (frame.getType() == FrameType.COMMAND)
+            return MessageKind.COMMAND;
+        else
+            return MessageKind.CONTROL;
+
+    }
+
+    /**
+     * Method that moves a client to the given room. The client first leaves its current room and then joins the new one,
+     * which is created if it does not exist. The recent history of the new room is replayed to the client
+     * and the members of both rooms are notified.
+     * If the room is closed by its last member while the client is joining then the room is created again.
+     * @param client the client that joins the room
+     * @param roomName the name of the room
+     * @return the room the client joined
+     */
+    public ChatRoom joinRoom(ClientConnection client, String roomName) {
+
+        return joinRoom(client, roomName, -1);
+
+    }
+
+    /**
+     * Method that moves a client to the given room, replaying the messages of the room from the given sequence number on
+     * instead of the recent history, which is how a client that resumes its session gets the messages it missed.
+     * @param client the client that joins the room
+     * @param roomName the name of the room
+     * @param resumeSequence the sequence number of the first message to replay, or -1 to replay the recent history
+     * @return the room the client joined
+     */
+    private ChatRoom joinRoom(ClientConnection client, String roomName, long resumeSequence) {
+
+        leaveRoom(client, true);
+
+        while (true) {
+
+            ChatRoom room = rooms.get(roomName);
+
+            if (room == null) {
+
+                ChatRoom created = newRoom(roomName, false);
+                room = rooms.putIfAbsent(roomName, created);
+
+                if (room == null)
+                    room = created;
+
+            }
+
+            if (room.join(client, resumeSequence)) {
+
+                room.transmit(client.getNickName() + " has entered the chat room!");
+
+                if (cluster != null)
+                    cluster.relayJoin(roomName, client.getNickName());
+
+                return room;
+
+            }
+
+            rooms.remove(roomName, room);
+
+        }
+
+    }
+
+    /**
+     * Method that creates a new room with the history settings of the server.
+     * @param roomName the name of the room
+     * @param permanent if the room stays open when it becomes empty
+     * @return the new room
+     */
+    private ChatRoom newRoom(String roomName, boolean permanent) {
+
+        return new ChatRoom(roomName, permanent, broadcastPool, config.getHistoryCapacity(), config.getHistoryReplayCount(), messageLog, metrics, config.getMaxAckLag());
+
+    }
+
+    /**
+     * Method that removes a client from its current room and notifies the remaining members and the cluster.
+     * A room that becomes empty is closed and removed from the server.
+     * A client whose session was taken over by its new connection leaves quietly, since it is still in the room.
+     * @param client the client that leaves its room
+     * @param announce if the members and the cluster are notified
+     */
+    private void leaveRoom(ClientConnection client, boolean announce) {
+
+        ChatRoom room = client.getRoom();
+
+        if (room == null)
+            return;
+
+        client.setRoom(null);
+
+        if (room.leave(client))
+            rooms.remove(room.getName(), room);
+        else if (announce)
+            room.transmit(client.getNickName() + " has left the chat room!");
+
+        if (cluster != null && announce)
+            cluster.relayLeave(room.getName(), client.getNickName());
+
+    }
+
+    /**
+     * Method that transmits a message to all clients connected to the server, regardless of their room.
      * @param message the message to be transmitted
      */
     public void transmit(String message) {
 
-        synchronized(connectedClients) {
+        Frame frame = encode(message);
 
-            System.out.println("Transmitting to all clients : " + message);
+        if (frame != null)
+            metrics.recordBroadcast(broadcast(connectedClients, frame, message), 0);
 
-            for (ConnectionThread client : connectedClients) {
+    }
 
-                DataOutputStream out = client.getOut();
+    /**
+     * Method that encodes a message to a frame which can be sent to any number of clients.
+     * @param message the message to be encoded
+     * @return the frame holding the message or null if the message could not be encoded
+     */
+    static Frame encode(String message) {
 
-                try {
+        try {
+
+            return Frame.encode(message);
 
-                    out.writeUTF(message);
+        } catch(IOException ie) {
 
-                } catch(IOException ie) {
+            LOG.error("There was an error while encoding the message : {}", message);
+            return null;
 
-                    System.out.println("There was an error while transmitting the message : " +  message);
+        }
 
-                }
+    }
+
+    /**
+     * Method that transmits an encoded message to the given clients.
+     * The message is encoded only once and the same frame is handed over to every client.
+     * The iteration over the clients takes no lock, so clients may join or leave while the broadcast runs.
+     * @param clients the clients who are supposed to receive the message
+     * @param frame the encoded message
+     * @param message the message, used for logging
+     * @return the number of clients the message was queued for
+     */
+    static int broadcast(Iterable<ClientConnection> clients, Frame frame, String message) {
+
+        LOG.debug("Transmitting to all clients : {}", message);
+        int delivered = 0;
+
+        for (ClientConnection client : clients) {
+
+            try {
+
+                client.send(frame);
+                delivered++;
+
+            } catch(IOException ie) {
+
+                LOG.debug("There was an error while transmitting the message : {}", message);
 
             }
+
+        }
+
+        return delivered;
+
+    }
+
+    /**
+     * Method that replays already encoded messages, for example the history of a room, to a single client.
+     * @param client the client who is supposed to receive the messages
+     * @param frames the encoded messages
+     */
+    static void replay(ClientConnection client, List<Frame> frames) {
+
+        try {
+
+            for (Frame frame : frames)
+                client.send(frame);
+
+        } catch(IOException ie) {
+
+            LOG.debug("There was an error while replaying the history to the client : {}", client);
+
         }
 
     }
@@ -151,104 +1059,270 @@ public class ChatServer {
      * @param message the message to be transmitted
      * @param client the client who is supposed to receive the message
      */
-    public void transmitBackToClient(String message, ConnectionThread client) {
+    public void transmitBackToClient(String message, ClientConnection client) {
 
-        System.out.println("Transmitting message : " + message + " to client : " + client.getConnection());
-        DataOutputStream out = client.getOut();
+        LOG.debug("Transmitting message : {} to client : {}", message, client.getConnection());
 
         try {
 
-            out.writeUTF(message);
+            client.send(Frame.encode(message));
 
         } catch(IOException ie) {
 
-            System.out.println("There was an error while transmitting the message : " +  message);
+            LOG.debug("There was an error while transmitting the message : {}", message);
 
         }
 
     }
 
     /**
-     * Method that transmits a default welcome message to a client.
+     * Method that transmits a default welcome message to a client, which then joins the lobby and is watched by the idle monitor.
+     * A client which resumed its session is not welcomed again, it goes back to its room and only receives the messages it missed.
      * @param client the client who is supposed to receive the message
      */
-    public void welcomeClient(ConnectionThread client) {
+    public void welcomeClient(ClientConnection client) {
+
+        SessionRegistry.Session session = sessions == null ? null : sessions.get(client);
 
-        System.out.println("Transmitting welcome message to client : " + client.getConnection());
-        String message = "Welcome to HUB Chat Server!\n";
-        message += "Connected with name " + client.getNickName() +"\n";
-        message += "Try using the string '$\\ help' to get instructions on how to use advanced features\n\n";
-        transmitBackToClient(message, client);
-        transmit(client.getNickName() + " has entered the chat room!");
+        if (session != null && session.isResumed()) {
+
+            LOG.debug("Resuming the session of client : {}", client.getConnection());
+            String roomName = session.getRoomName();
+            joinRoom(client, roomName == null ? LOBBY : roomName, session.getResumeSequence() + 1);
+
+        } else {
+
+            LOG.debug("Transmitting welcome message to client : {}", client.getConnection());
+            String message = "Welcome to HUB Chat Server!\n";
+            message += "Connected with name " + client.getNickName() +"\n";
+            message += "Try using the string '$\\ help' to get instructions on how to use advanced features\n\n";
+            transmitBackToClient(message, client);
+            joinRoom(client, LOBBY);
+
+        }
+
+        if (idleMonitor != null)
+            idleMonitor.watch(client);
 
     }
 
     /**
-     * Method that handles the advanced features command. Based on the use of the string for advanced commands ($\) and
-     * the command that follows it the appropriate response is returned. If no command matches then an
+     * Method that handles the advanced features command. The command that follows the string for advanced commands ($\)
+     * is looked up in the command registry of the server and executed. If no command matches then an
      * error message is returned.
-     * @param command the command that was sent to the server
+     * @param message the message holding the command
+     * @param start the index of the command in the message
+     * @param client the client that sent the command
      * @return the string to return to the client
      */
-    private String advancedFeatures(String command) {
+    private String advancedFeatures(String message, int start, ClientConnection client) {
 
-        if ( command.startsWith("help") ) {
+        String reply = commandRegistry.dispatch(this, client, message, start);
 
-            String helpMessage = "You can use the following advanced commands\n";
-            helpMessage += "$\\ reverse <message> : to get your message back reversed\n";
-            helpMessage += "$\\ capitalize <message> : to get your message back in capital letters\n";
-            helpMessage += "$\\ participants : to get the list of participants in the chat room\n";
-            helpMessage += "$\\ date : to get the current date\n";
-            helpMessage += "$\\ time : to get the current time\n";
-            return helpMessage;
+        if (reply == null)
+            return "Oops, unrecognized command!";
+
+        return reply;
 
-        } else if ( command.startsWith("reverse") ) {
+    }
 
-            return new StringBuffer(command.replace("reverse ","")).reverse().toString();
+    /**
+     * Method that returns the number of messages dropped because of full outbound queues,
+     * both for the connected clients and for the ones that have already left.
+     * @return the number of dropped messages
+     */
+    public long getDroppedMessages() {
 
-        } else  if ( command.startsWith("capitalize") ) {
+        long dropped = droppedMessages.get();
 
-            return command.replace("capitalize ","").toUpperCase();
+        for (ClientConnection client : connectedClients)
+            dropped += client.getOutboundQueue().getDroppedMessages();
 
-        } else if (  "participants".equals(command) ) {
+        return dropped;
 
-            return createParticipantsList();
+    }
 
-        } else if ( "date".equals(command) ) {
+    /**
+     * Getter methods for the internal variables.
+     */
+    public long getEvictedClients() {
+        return evictedClients.get();
+    }
 
-            DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-            Date date = new Date();
-            return "Current date : " + dateFormat.format(date);
+    public ClientRegistry getConnectedClients() {
+        return connectedClients;
+    }
 
-        } else if ( "time".equals(command) ) {
+    public int getOpenRoomCount() {
+        return rooms.size();
+    }
 
-            DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
-            Date date = new Date();
-            return "Current time : " +  dateFormat.format(date);
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
 
-        } else {
+    public ChatServerStats getStats() {
+        return stats;
+    }
 
-            return "Oops, unrecognized command!";
+    public CommandRegistry getCommandRegistry() {
+        return commandRegistry;
+    }
 
-        }
+    public MessageLog getMessageLog() {
+        return messageLog;
+    }
 
+    public ChatServerConfig getConfig() {
+        return config;
+    }
+
+    public ClusterBus getCluster() {
+        return cluster;
+    }
+
+    public AdmissionController getAdmission() {
+        return admission;
+    }
+
+    public IdleMonitor getIdleMonitor() {
+        return idleMonitor;
+    }
+
+    public SessionRegistry getSessions() {
+        return sessions;
     }
 
     /**
-     * Method that returns a string with the nick names of all participants in the chat room.
+     * Method that returns a string with the nick names of all participants in the given chat room.
+     * The local members come from the rendering cached by the room, which is only rebuilt when its members change.
+     * In a cluster the members of the room on the other nodes follow, each with the name of its node.
+     * @param room the room whose participants are listed
      * @return the string with the participants info
      */
-    public String createParticipantsList() {
+    public String createParticipantsList(ChatRoom room) {
 
-        String participants = "The following are currently in the chat room :\n";
+        String participants = room.renderParticipants();
 
-        for (ConnectionThread client : connectedClients) {
+        if (cluster == null)
+            return participants;
+
+        StringBuilder builder = new StringBuilder(participants);
+
+        for (String member : cluster.getRemoteMembers(room.getName()))
+            builder.append(member).append('\n');
+
+        return builder.toString();
+
+    }
+
+    /**
+     * Method that returns how far behind a client is in acknowledging the chat messages of its room.
+     * @param client the client
+     * @return the number of messages of its room the client has not acknowledged, or -1 if it does not acknowledge messages
+     */
+    public long getAckLag(ClientConnection client) {
 
-            participants+=client.getNickName()+"\n";
+        ChatRoom room = client.getRoom();
+        long acked = client.getAckedSequence();
+
+        if (room == null || acked < 0)
+            return -1;
+
+        return Math.max(0, room.getHead() - 1 - acked);
+
+    }
+
+    /**
+     * Method that returns a string with the clients which are furthest behind in acknowledging the messages of their rooms.
+     * @param count the maximum number of clients listed
+     * @return the string with the lagging clients
+     */
+    public String createLagList(int count) {
+
+        final Map<ClientConnection, Long> lags = new HashMap<ClientConnection, Long>();
+
+        for (ClientConnection client : connectedClients) {
+
+            long lag = getAckLag(client);
+
+            if (lag > 0)
+                lags.put(client, lag);
 
         }
 
-        return participants;
+        List<ClientConnection> lagging = new ArrayList<ClientConnection>(lags.keySet());
+        lagging.sort(new Comparator<ClientConnection>() {
+            public int compare(ClientConnection first, ClientConnection second) {
+                return Long.compare(lags.get(second), lags.get(first));
+            }
+        });
+
+        if (lagging.isEmpty())
+            return "No client is behind in acknowledging its messages\n";
+
+        StringBuilder list = new StringBuilder("The following clients are furthest behind :\n");
+
+        for (ClientConnection client : lagging.subList(0, Math.min(count, lagging.size())))
+            list.append(client.getNickName()).append(" : ").append(lags.get(client)).append(" messages behind\n");
+
+        return list.toString();
+
+    }
+
+    /**
+     * Method that returns the nick names of the members of every open room, by room name.
+     * @return the members of the rooms
+     */
+    public Map<String, List<String>> getRoomMembers() {
+
+        Map<String, List<String>> members = new HashMap<String, List<String>>();
+
+        for (ChatRoom room : rooms.values()) {
+
+            List<String> nickNames = new ArrayList<String>();
+
+            for (ClientConnection client : room.getParticipants())
+                nickNames.add(client.getNickName());
+
+            members.put(room.getName(), nickNames);
+
+        }
+
+        return members;
+
+    }
+
+    /**
+     * Method that returns a string with the names of all open chat rooms and the number of their members.
+     * @return the string with the rooms info
+     */
+    public String createRoomsList() {
+
+        StringBuilder roomsList = new StringBuilder("The following chat rooms are open :\n");
+
+        for (ChatRoom room : rooms.values())
+            roomsList.append(room.getName()).append(" (").append(room.size()).append(")\n");
+
+        return roomsList.toString();
+
+    }
+
+    /**
+     * Method that returns a string with the most recent messages of the given chat room.
+     * @param room the room whose history is listed
+     * @param count the maximum number of messages
+     * @return the string with the history info
+     */
+    public String createHistoryList(ChatRoom room, int count) {
+
+        List<Frame> frames = room.getHistory(count);
+        StringBuilder history = new StringBuilder("The last " + frames.size() + " messages of the chat room " + room.getName() + " :\n");
+
+        for (Frame frame : frames)
+            history.append(frame.getMessage()).append("\n");
+
+        return history.toString();
 
     }
 
@@ -0,0 +1,674 @@
+package net.hub.chat;
+
+import net.hub.chat.commands.CommandRegistry;
+import net.hub.chat.limits.RateLimitAction;
+import net.hub.chat.logging.LogLevel;
+import net.hub.chat.store.FsyncPolicy;
+import net.hub.chat.store.MessageLog;
+
+import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class holding the settings of the chat server. A new instance holds the default settings
+ * and each of them can be changed with the appropriate setter before the chat server is created.
+ * The advanced commands are held by a command registry, so custom commands are registered here before the server starts.
+ * The chat messages are only written to a persistent message log if a directory is set for it.
+ * Compression is offered to the clients of the protocol v2 and applies only to the frames larger than the threshold.
+ * The server only joins a cluster if a cluster port is set, its peers are the cluster ports of the other nodes as host:port
+ * and its node name defaults to node-&lt;port&gt;. The cluster port is bound to the loopback address unless another bind address
+ * is set, since the links are not encrypted, and if a cluster secret is set a peer is only linked if it presents the same secret.
+ * The admission limits apply to every engine, a limit of zero turns it off. The connections from the loopback address
+ * are not rate limited unless asked for, so that the load generator and the examples can open connections quickly.
+ * Every connection has its own budgets of chat messages, commands and control frames, a rate of zero turns the budget off.
+ * The control frames of the protocol v2 are the pings, pongs and acknowledgements. A client acknowledges every so many messages it receives,
+ * so the default control budget is large enough for a client which acknowledges every 32 messages of a room delivering thousands per second.
+ * The clients of the protocol v2 are pinged once they have sent nothing for the heartbeat interval and are disconnected
+ * once they have sent nothing, not even the answer to the ping, for the idle timeout. An idle timeout of zero turns both off.
+ * The session of a client of the protocol v2 can be resumed within the session timeout after its connection is lost,
+ * a timeout of zero turns the sessions off.
+ * A client which acknowledges the messages it received more than the maximum acknowledgement lag behind the head of its room
+ * is disconnected, a lag of zero turns the limit off.
+ * The connections of every engine are encrypted with TLS if a TLS context is set, see TlsContexts. The TLS sessions are
+ * kept in the cache of the context for the session timeout, so a client which connects again resumes its session
+ * instead of doing a full handshake, with TLS 1.3 through a session ticket the server does not need to keep.
+ */
+public class ChatServerConfig {
+
+    private int port = ChatServer.DEFAULT_PORT;
+    private ServerMode serverMode = ServerMode.THREAD_PER_CONNECTION;
+    private int reactorThreads = Runtime.getRuntime().availableProcessors();
+    private int broadcastThreads = Runtime.getRuntime().availableProcessors();
+    private int outboundQueueCapacity = 1024;
+    private int historyCapacity = 256;
+    private int historyReplayCount = 20;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long writeBatchWindowMillis = 0;
+    private int writeBatchMaxBytes = 8192;
+    private boolean tcpNoDelay = false;
+    private File messageLogDirectory = null;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+    private long fsyncIntervalMillis = 1000;
+    private long logSegmentBytes = MessageLog.DEFAULT_SEGMENT_BYTES;
+    private CommandRegistry commandRegistry = CommandRegistry.withBuiltinCommands();
+    private LogLevel logLevel = LogLevel.INFO;
+    private boolean compressionEnabled = true;
+    private int compressionThreshold = 1024;
+    private int clusterPort = 0;
+    private String clusterBindAddress = "127.0.0.1";
+    private String clusterSecret = null;
+    private List<String> clusterPeers = new ArrayList<String>();
+    private String nodeName = null;
+    private int clusterQueueCapacity = 65536;
+    private long clusterReconnectMillis = 1000;
+    private int maxConnections = 10000;
+    private double connectionRatePerIp = 20;
+    private int connectionBurstPerIp = 40;
+    private boolean limitLoopbackConnections = false;
+    private long handshakeTimeoutMillis = 10000;
+    private long acceptPauseQueuedMessages = 1000000;
+    private double chatRatePerSecond = 20;
+    private int chatBurst = 40;
+    private double commandRatePerSecond = 5;
+    private int commandBurst = 10;
+    private double controlRatePerSecond = 200;
+    private int controlBurst = 400;
+    private RateLimitAction rateLimitAction = RateLimitAction.THROTTLE;
+    private long heartbeatIntervalMillis = 30000;
+    private long idleTimeoutMillis = 90000;
+    private long timerTickMillis = 100;
+    private long sessionTimeoutMillis = 120000;
+    private long maxAckLag = 0;
+    private SSLContext sslContext = null;
+    private int tlsSessionCacheSize = 20000;
+    private int tlsSessionTimeoutSeconds = 3600;
+
+    /**
+     * Creates a new configuration with the default settings.
+     */
+    public ChatServerConfig() {
+
+    }
+
+    /**
+     * Creates a new configuration with the given port and server mode and the default values for everything else.
+     * @param port the port which will be used by the server
+     * @param serverMode the engine that will serve the connected clients
+     */
+    public ChatServerConfig(int port, ServerMode serverMode) {
+
+        this.port = port;
+        this.serverMode = serverMode;
+
+    }
+
+    /**
+     * Getters and Setters used for the variables.
+     */
+    public int getPort() {
+
+        return port;
+
+    }
+
+    public void setPort(int port) {
+
+        this.port = port;
+
+    }
+
+    public ServerMode getServerMode() {
+
+        return serverMode;
+
+    }
+
+    public void setServerMode(ServerMode serverMode) {
+
+        this.serverMode = serverMode;
+
+    }
+
+    public int getReactorThreads() {
+
+        return reactorThreads;
+
+    }
+
+    public void setReactorThreads(int reactorThreads) {
+
+        this.reactorThreads = reactorThreads;
+
+    }
+
+    public int getBroadcastThreads() {
+
+        return broadcastThreads;
+
+    }
+
+    public void setBroadcastThreads(int broadcastThreads) {
+
+        this.broadcastThreads = broadcastThreads;
+
+    }
+
+    public int getOutboundQueueCapacity() {
+
+        return outboundQueueCapacity;
+
+    }
+
+    public void setOutboundQueueCapacity(int outboundQueueCapacity) {
+
+        this.outboundQueueCapacity = outboundQueueCapacity;
+
+    }
+
+    public int getHistoryCapacity() {
+
+        return historyCapacity;
+
+    }
+
+    public void setHistoryCapacity(int historyCapacity) {
+
+        this.historyCapacity = historyCapacity;
+
+    }
+
+    public int getHistoryReplayCount() {
+
+        return historyReplayCount;
+
+    }
+
+    public void setHistoryReplayCount(int historyReplayCount) {
+
+        this.historyReplayCount = historyReplayCount;
+
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+
+        return overflowPolicy;
+
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+
+        this.overflowPolicy = overflowPolicy;
+
+    }
+
+    public long getWriteBatchWindowMillis() {
+
+        return writeBatchWindowMillis;
+
+    }
+
+    public void setWriteBatchWindowMillis(long writeBatchWindowMillis) {
+
+        this.writeBatchWindowMillis = writeBatchWindowMillis;
+
+    }
+
+    public int getWriteBatchMaxBytes() {
+
+        return writeBatchMaxBytes;
+
+    }
+
+    public void setWriteBatchMaxBytes(int writeBatchMaxBytes) {
+
+        this.writeBatchMaxBytes = writeBatchMaxBytes;
+
+    }
+
+    public boolean isTcpNoDelay() {
+
+        return tcpNoDelay;
+
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+
+        this.tcpNoDelay = tcpNoDelay;
+
+    }
+
+    public File getMessageLogDirectory() {
+
+        return messageLogDirectory;
+
+    }
+
+    public void setMessageLogDirectory(File messageLogDirectory) {
+
+        this.messageLogDirectory = messageLogDirectory;
+
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+
+        return fsyncPolicy;
+
+    }
+
+    public void setFsyncPolicy(FsyncPolicy fsyncPolicy) {
+
+        this.fsyncPolicy = fsyncPolicy;
+
+    }
+
+    public long getFsyncIntervalMillis() {
+
+        return fsyncIntervalMillis;
+
+    }
+
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+
+    }
+
+    public long getLogSegmentBytes() {
+
+        return logSegmentBytes;
+
+    }
+
+    public void setLogSegmentBytes(long logSegmentBytes) {
+
+        this.logSegmentBytes = logSegmentBytes;
+
+    }
+
+    public CommandRegistry getCommandRegistry() {
+
+        return commandRegistry;
+
+    }
+
+    public void setCommandRegistry(CommandRegistry commandRegistry) {
+
+        this.commandRegistry = commandRegistry;
+
+    }
+
+    public LogLevel getLogLevel() {
+
+        return logLevel;
+
+    }
+
+    public void setLogLevel(LogLevel logLevel) {
+
+        this.logLevel = logLevel;
+
+    }
+
+    public boolean isCompressionEnabled() {
+
+        return compressionEnabled;
+
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+
+        this.compressionEnabled = compressionEnabled;
+
+    }
+
+    public int getCompressionThreshold() {
+
+        return compressionThreshold;
+
+    }
+
+    public void setCompressionThreshold(int compressionThreshold) {
+
+        this.compressionThreshold = compressionThreshold;
+
+    }
+
+    public int getClusterPort() {
+
+        return clusterPort;
+
+    }
+
+    public void setClusterPort(int clusterPort) {
+
+        this.clusterPort = clusterPort;
+
+    }
+
+    public String getClusterBindAddress() {
+
+        return clusterBindAddress;
+
+    }
+
+    public void setClusterBindAddress(String clusterBindAddress) {
+
+        this.clusterBindAddress = clusterBindAddress;
+
+    }
+
+    public String getClusterSecret() {
+
+        return clusterSecret;
+
+    }
+
+    public void setClusterSecret(String clusterSecret) {
+
+        this.clusterSecret = clusterSecret;
+
+    }
+
+    public List<String> getClusterPeers() {
+
+        return clusterPeers;
+
+    }
+
+    public void setClusterPeers(List<String> clusterPeers) {
+
+        this.clusterPeers = clusterPeers;
+
+    }
+
+    public String getNodeName() {
+
+        return nodeName;
+
+    }
+
+    public void setNodeName(String nodeName) {
+
+        this.nodeName = nodeName;
+
+    }
+
+    public int getClusterQueueCapacity() {
+
+        return clusterQueueCapacity;
+
+    }
+
+    public void setClusterQueueCapacity(int clusterQueueCapacity) {
+
+        this.clusterQueueCapacity = clusterQueueCapacity;
+
+    }
+
+    public long getClusterReconnectMillis() {
+
+        return clusterReconnectMillis;
+
+    }
+
+    public void setClusterReconnectMillis(long clusterReconnectMillis) {
+
+        this.clusterReconnectMillis = clusterReconnectMillis;
+
+    }
+
+    public int getMaxConnections() {
+
+        return maxConnections;
+
+    }
+
+    public void setMaxConnections(int maxConnections) {
+
+        this.maxConnections = maxConnections;
+
+    }
+
+    public double getConnectionRatePerIp() {
+
+        return connectionRatePerIp;
+
+    }
+
+    public void setConnectionRatePerIp(double connectionRatePerIp) {
+
+        this.connectionRatePerIp = connectionRatePerIp;
+
+    }
+
+    public int getConnectionBurstPerIp() {
+
+        return connectionBurstPerIp;
+
+    }
+
+    public void setConnectionBurstPerIp(int connectionBurstPerIp) {
+
+        this.connectionBurstPerIp = connectionBurstPerIp;
+
+    }
+
+    public boolean isLimitLoopbackConnections() {
+
+        return limitLoopbackConnections;
+
+    }
+
+    public void setLimitLoopbackConnections(boolean limitLoopbackConnections) {
+
+        this.limitLoopbackConnections = limitLoopbackConnections;
+
+    }
+
+    public long getHandshakeTimeoutMillis() {
+
+        return handshakeTimeoutMillis;
+
+    }
+
+    public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+
+    }
+
+    public long getAcceptPauseQueuedMessages() {
+
+        return acceptPauseQueuedMessages;
+
+    }
+
+    public void setAcceptPauseQueuedMessages(long acceptPauseQueuedMessages) {
+
+        this.acceptPauseQueuedMessages = acceptPauseQueuedMessages;
+
+    }
+
+    public double getChatRatePerSecond() {
+
+        return chatRatePerSecond;
+
+    }
+
+    public void setChatRatePerSecond(double chatRatePerSecond) {
+
+        this.chatRatePerSecond = chatRatePerSecond;
+
+    }
+
+    public int getChatBurst() {
+
+        return chatBurst;
+
+    }
+
+    public void setChatBurst(int chatBurst) {
+
+        this.chatBurst = chatBurst;
+
+    }
+
+    public double getCommandRatePerSecond() {
+
+        return commandRatePerSecond;
+
+    }
+
+    public void setCommandRatePerSecond(double commandRatePerSecond) {
+
+        this.commandRatePerSecond = commandRatePerSecond;
+
+    }
+
+    public int getCommandBurst() {
+
+        return commandBurst;
+
+    }
+
+    public void setCommandBurst(int commandBurst) {
+
+        this.commandBurst = commandBurst;
+
+    }
+
+    public double getControlRatePerSecond() {
+
+        return controlRatePerSecond;
+
+    }
+
+    public void setControlRatePerSecond(double controlRatePerSecond) {
+
+        this.controlRatePerSecond = controlRatePerSecond;
+
+    }
+
+    public int getControlBurst() {
+
+        return controlBurst;
+
+    }
+
+    public void setControlBurst(int controlBurst) {
+
+        this.controlBurst = controlBurst;
+
+    }
+
+    public RateLimitAction getRateLimitAction() {
+
+        return rateLimitAction;
+
+    }
+
+    public void setRateLimitAction(RateLimitAction rateLimitAction) {
+
+        this.rateLimitAction = rateLimitAction;
+
+    }
+
+    public long getHeartbeatIntervalMillis() {
+
+        return heartbeatIntervalMillis;
+
+    }
+
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) {
+
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+
+    }
+
+    public long getIdleTimeoutMillis() {
+
+        return idleTimeoutMillis;
+
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+    }
+
+    public long getTimerTickMillis() {
+
+        return timerTickMillis;
+
+    }
+
+    public void setTimerTickMillis(long timerTickMillis) {
+
+        this.timerTickMillis = timerTickMillis;
+
+    }
+
+    public long getSessionTimeoutMillis() {
+
+        return sessionTimeoutMillis;
+
+    }
+
+    public void setSessionTimeoutMillis(long sessionTimeoutMillis) {
+
+        this.sessionTimeoutMillis = sessionTimeoutMillis;
+
+    }
+
+    public long getMaxAckLag() {
+
+        return maxAckLag;
+
+    }
+
+    public void setMaxAckLag(long maxAckLag) {
+
+        this.maxAckLag = maxAckLag;
+
+    }
+
+    public SSLContext getSslContext() {
+
+        return sslContext;
+
+    }
+
+    public void setSslContext(SSLContext sslContext) {
+
+        this.sslContext = sslContext;
+
+    }
+
+    public int getTlsSessionCacheSize() {
+
+        return tlsSessionCacheSize;
+
+    }
+
+    public void setTlsSessionCacheSize(int tlsSessionCacheSize) {
+
+        this.tlsSessionCacheSize = tlsSessionCacheSize;
+
+    }
+
+    public int getTlsSessionTimeoutSeconds() {
+
+        return tlsSessionTimeoutSeconds;
+
+    }
+
+    public void setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+
+        this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+
+    }
+
+}
@@ -0,0 +1,81 @@
+package net.hub.chat;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The interface that represents a single client connected to the chat server, regardless of the server engine used.
+ * The thread per connection engine is implemented by the ConnectionThread class and the selector based engine
+ * by the NioConnection class. The chat server only talks to its clients through this interface.
+ */
+public interface ClientConnection {
+
+    /**
+     * Returns the underlying connection of the client, which is either a Socket or a SocketChannel.
+     * @return the underlying connection
+     */
+    Closeable getConnection();
+
+    /**
+     * Returns the nick name the client sent when the connection was first established.
+     * @return the nick name of the client or null if it has not been received yet
+     */
+    String getNickName();
+
+    /**
+     * Returns the chat room the client is currently in.
+     * @return the room of the client or null if the client has not joined a room yet
+     */
+    ChatRoom getRoom();
+
+    /**
+     * Sets the chat room the client is currently in. It is called by the room when the client joins it.
+     * @param room the room of the client
+     */
+    void setRoom(ChatRoom room);
+
+    /**
+     * Sends an already encoded message to the client. The same frame may be sent to many clients so it is never changed.
+     * The frame is put in the outbound queue of the client and written later by the writer of the connection.
+     * @param frame the encoded message to send
+     * @throws IOException if the message could not be queued
+     */
+    void send(Frame frame) throws IOException;
+
+    /**
+     * Returns the queue holding the messages waiting to be written to the client.
+     * @return the outbound queue of the client
+     */
+    OutboundQueue<?> getOutboundQueue();
+
+    /**
+     * Returns the protocol the client agreed on in its handshake.
+     * @return the protocol of the client, LEGACY until the handshake is complete
+     */
+    WireProtocol getProtocol();
+
+    /**
+     * Returns when the last bytes were read from the client, which tells the idle monitor if the client is still alive.
+     * @return the System.nanoTime() of the last read, or of the creation of the connection if nothing was read yet
+     */
+    long getLastReadNanos();
+
+    /**
+     * Records the cumulative acknowledgement of a client, which has received every chat message of its room up to the given one.
+     * The acknowledgements sent by the client are checked against its room by the chat server before they are recorded here.
+     * @param sequence the sequence number of the last chat message received
+     */
+    void acknowledge(long sequence);
+
+    /**
+     * Returns the sequence number of the last chat message of its room the client acknowledged.
+     * @return the acknowledged sequence number, or -1 if the client does not send acknowledgements
+     */
+    long getAckedSequence();
+
+    /**
+     * Closes the connection asynchronously. The client is invalidated afterwards by the thread serving the connection.
+     */
+    void disconnect();
+
+}
@@ -0,0 +1,163 @@
+package net.hub.chat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The registry holding the clients connected to the chat server.
+ * The clients are kept in a concurrent hash set keyed by the connection, so registration and removal are O(1)
+ * and the broadcast can iterate over the clients without taking any lock and without ever getting a
+ * ConcurrentModificationException, while clients keep joining and leaving.
+ * For the cases that need a consistent view, like the list of participants, a snapshot is provided.
+ * The snapshot is cached and only rebuilt after the membership has changed. To build it the registry uses a
+ * StampedLock the other way around than usual : registrations and removals share the read lock, since the hash set
+ * is safe for concurrent updates, and the snapshot takes the write lock for the short time it copies the set.
+ */
+public class ClientRegistry implements Iterable<ClientConnection> {
+
+    private ConcurrentHashMap<ClientConnection, Boolean> clients = new ConcurrentHashMap<ClientConnection, Boolean>();
+    private StampedLock membershipLock = new StampedLock();
+    private AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<ClientConnection>emptyList());
+
+    /**
+     * Adds a client to the registry.
+     * @param client the client to add
+     * @return true if the client was added, false if it was already registered
+     */
+    public boolean add(ClientConnection client) {
+
+        long stamp = this.membershipLock.readLock();
+
+        try {
+
+            if (this.clients.putIfAbsent(client, Boolean.TRUE) != null)
+                return false;
+
+            this.version.incrementAndGet();
+            return true;
+
+        } finally {
+
+            this.membershipLock.unlockRead(stamp);
+
+        }
+
+    }
+
+    /**
+     * Removes a client from the registry.
+     * @param client the client to remove
+     * @return true if the client was removed, false if it was not registered
+     */
+    public boolean remove(ClientConnection client) {
+
+        long stamp = this.membershipLock.readLock();
+
+        try {
+
+            if (this.clients.remove(client) == null)
+                return false;
+
+            this.version.incrementAndGet();
+            return true;
+
+        } finally {
+
+            this.membershipLock.unlockRead(stamp);
+
+        }
+
+    }
+
+    /**
+     * Returns a lock free iterator over the registered clients, used for broadcasting.
+     * The iterator reflects the clients registered at or since its creation and never throws a ConcurrentModificationException.
+     * @return an iterator over the clients
+     */
+    public Iterator<ClientConnection> iterator() {
+
+        return this.clients.keySet().iterator();
+
+    }
+
+    /**
+     * Returns a consistent, unmodifiable snapshot of the registered clients.
+     * The snapshot is cached until the next registration or removal.
+     * @return the list of the registered clients
+     */
+    public List<ClientConnection> snapshot() {
+
+        Snapshot cached = this.snapshot;
+
+        if (cached.version == this.version.get())
+            return cached.clients;
+
+        long stamp = this.membershipLock.writeLock();
+
+        try {
+
+            long currentVersion = this.version.get();
+            cached = this.snapshot;
+
+            if (cached.version != currentVersion) {
+
+                cached = new Snapshot(currentVersion, Collections.unmodifiableList(new ArrayList<ClientConnection>(this.clients.keySet())));
+                this.snapshot = cached;
+
+            }
+
+            return cached.clients;
+
+        } finally {
+
+            this.membershipLock.unlockWrite(stamp);
+
+        }
+
+    }
+
+    /**
+     * Check to see if a client is registered.
+     * @param client the client to check
+     * @return true if the client is registered else false
+     */
+    public boolean contains(ClientConnection client) {
+
+        return this.clients.containsKey(client);
+
+    }
+
+    /**
+     * Returns the number of registered clients.
+     * @return the number of clients
+     */
+    public int size() {
+
+        return this.clients.size();
+
+    }
+
+    /**
+     * A snapshot of the clients together with the version of the registry it was taken at.
+     */
+    private static class Snapshot {
+
+        private final long version;
+        private final List<ClientConnection> clients;
+
+        private Snapshot(long version, List<ClientConnection> clients) {
+
+            this.version = version;
+            this.clients = clients;
+
+        }
+
+    }
+
+}
@@ -1,84 +1,350 @@
 package net.hub.chat;
 
+import net.hub.chat.limits.MessageKind;
+import net.hub.chat.limits.MessageRateLimiter;
+import net.hub.chat.limits.RateLimitAction;
+import net.hub.chat.logging.Logger;
+import net.hub.chat.metrics.ServerMetrics;
+
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The class that represents the thread assigned to each connection established from a client to the server.
  * Ths thread listens from messages from the clients and then requests from the chat server to handle them.
+ * The class itself is a Runnable, the chat server decides if it runs on a platform or a virtual thread.
+ * Messages for the client are not written by the sender but put in a bounded outbound queue,
+ * which is drained by a separate writer so that a slow client can only slow down itself.
+ * The writer coalesces the queued messages in batches which are written to the socket with a single flush.
+ * The connection speaks the legacy protocol unless the client asks for the protocol v2 in its first message.
+ * Every message read is checked against the message rate limits of the client before it is handed to the chat server.
  */
 
-public class ConnectionThread extends Thread {
+public class ConnectionThread implements Runnable, ClientConnection {
+
+    private static final Logger LOG = Logger.getLogger(ConnectionThread.class);
 
     private ChatServer chatServer;
     private Socket connection;
     private DataOutputStream out;
-    private String nickName;
+    private volatile String nickName;
+    private OutboundQueue<Frame> outboundQueue;
+    private FrameCodec codec = new FrameCodec();
+    private FrameWriter frameWriter;
+    private MessageRateLimiter rateLimiter;
+    private volatile Thread writerThread;
+    private volatile ChatRoom room;
+    private volatile boolean closed = false;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile long ackedSequence = -1;
 
     /**
      * Creates a new tread that represents and handles each connection to the server.
+     * The thread is not started here, it is started by the chat server with the thread type of its server mode.
      */
     public ConnectionThread(ChatServer chatServer, Socket connection) {
 
+        ChatServerConfig config = chatServer.getConfig();
         this.chatServer = chatServer;
         this.connection = connection;
+        this.outboundQueue = new OutboundQueue<Frame>(config.getOutboundQueueCapacity(), config.getOverflowPolicy());
+        this.rateLimiter = chatServer.newRateLimiter();
 
         try {
 
+            this.connection.setTcpNoDelay(config.isTcpNoDelay());
             this.out = new DataOutputStream( connection.getOutputStream() );
+            this.frameWriter = new FrameWriter(connection.getOutputStream(), this.outboundQueue, config.getWriteBatchWindowMillis(), config.getWriteBatchMaxBytes(), this.codec);
 
         } catch (IOException e) {
 
-            System.out.println("There was an error while getting the data stream.");
+            LOG.error("There was an error while getting the data stream of {}", this.connection);
 
         }
 
-        start();
-
     }
 
     /**
-     * Run method inherited from the Thread class, which described the way the thread will execute.
-     * When the connection is first established the nick name of the connected client is retrieved.
+     * Run method inherited from the Runnable interface, which described the way the thread will execute.
+     * When the connection is first established the nick name of the connected client is retrieved,
+     * together with the protocol the client asks for, which is acknowledged before any other message.
+     * A client whose nick name is used by another client is told so and closed.
      * Following thant the connected client receives a welcome message from the chat server.
      * Then the thread blocks while waiting from messages from the client. If a message arrives this
      * is handled by the chat server. If there is an error while the thread is blocked or reading the data
-     * then the given thread is considered dead and it is requested from the chat server to invalidate it.
+     * then the given thread is considered dead, the writer is stopped and it is requested from the chat server to invalidate it.
      */
     public void run() {
 
         try {
 
-            DataInputStream in = new DataInputStream( connection.getInputStream() );
-            this.nickName = in.readUTF();
+            DataInputStream in = new DataInputStream( new BufferedInputStream( connection.getInputStream() ) );
+            String hello = readHello(in);
+            String answer = chatServer.negotiate(hello, this, this.codec);
+            String requestedNickName = answer != null ? ProtocolV2.nickNameOf(hello) : hello;
+
+            if (!chatServer.claimNickName(this, requestedNickName)) {
+
+                rejectNickName(answer, requestedNickName);
+                return;
+
+            }
+
+            if (answer != null)
+                this.outboundQueue.offer(Frame.handshake(answer));
+
+            this.nickName = requestedNickName;
             chatServer.welcomeClient(this);
 
+            if (this.codec.getProtocol() == WireProtocol.V2) {
+
+                while (true) {
+
+                    Frame frame = ProtocolV2.read(in, this.codec.getInflater());
+                    this.lastReadNanos = System.nanoTime();
+
+                    if (admit(ChatServer.kindOf(frame)))
+                        chatServer.handleFrame(frame, this);
+
+                }
+
+            }
+
             while (true) {
 
                 String message = in.readUTF();
-                chatServer.handleMessage(message, this);
+                this.lastReadNanos = System.nanoTime();
+
+                if (admit(message.startsWith(ChatServer.COMMAND_PREFIX) ? MessageKind.COMMAND : MessageKind.CHAT))
+                    chatServer.handleMessage(message, this);
 
             }
 
         } catch( EOFException ie ) {
 
-            System.out.println("There was an error while working with the stream.");
+            LOG.debug("There was an error while working with the stream of {}", this.connection);
 
         } catch( IOException ie ) {
 
-            System.out.println("There was an error while working with the stream.");
+            LOG.debug("There was an error while working with the stream of {}", this.connection);
 
         } finally {
 
+            stopWriter();
+            this.codec.endInflater();
             chatServer.invalidate(this);
 
         }
 
     }
 
+    /**
+     * Reads the first message of the client, waiting for it no longer than the handshake timeout of the server.
+     * @param in the stream of the socket
+     * @return the first message
+     * @throws IOException if the client did not send it in time or the stream failed
+     */
+    private String readHello(DataInputStream in) throws IOException {
+
+        long timeout = chatServer.getConfig().getHandshakeTimeoutMillis();
+
+        if (timeout <= 0)
+            return in.readUTF();
+
+        try {
+
+            connection.setSoTimeout((int) Math.min(timeout, Integer.MAX_VALUE));
+            String hello = in.readUTF();
+            connection.setSoTimeout(0);
+            return hello;
+
+        } catch (SocketTimeoutException se) {
+
+            chatServer.getAdmission().recordHandshakeTimeout(this);
+            throw se;
+
+        }
+
+    }
+
+    /**
+     * Tells a client that its nick name is in use, after the answer to its handshake if it asked for the protocol v2.
+     * Nothing has been queued for the writer yet, so the messages are written right here before the connection is closed.
+     * @param answer the answer to the handshake, or null for a legacy client
+     * @param requestedNickName the nick name the client asked for
+     * @throws IOException if the messages could not be written
+     */
+    private void rejectNickName(String answer, String requestedNickName) throws IOException {
+
+        LOG.info("Refusing the nick name in use : {} from {}", requestedNickName, this.connection);
+
+        if (answer != null)
+            this.out.write(this.codec.encode(Frame.handshake(answer)));
+
+        byte[] rejection = this.codec.encode(Frame.system(ChatServer.nickNameInUse(requestedNickName)));
+
+        if (rejection != null)
+            this.out.write(rejection);
+
+        this.out.flush();
+
+    }
+
+    /**
+     * Check to see if a message is within the rate limits of the client, else applies the configured action.
+     * A throttled client is not read from until its budget has a token, so its flood backs up in its own socket buffers.
+     * The wait ends early if the socket was closed meanwhile, for example by the idle monitor or by an eviction.
+     * @param kind the kind of the message
+     * @return true if the message must be handled, false if it is dropped
+     * @throws IOException if the client must be disconnected for its message rate
+     */
+    private boolean admit(MessageKind kind) throws IOException {
+
+        if (this.rateLimiter == null || this.rateLimiter.tryAcquire(kind))
+            return true;
+
+        RateLimitAction action = this.rateLimiter.getAction();
+
+        if (action == RateLimitAction.THROTTLE) {
+
+            this.chatServer.getMetrics().recordRateLimitThrottle();
+
+            do {
+
+                LockSupport.parkNanos(this.rateLimiter.nanosUntilAvailable(kind));
+
+                if (this.connection.isClosed())
+                    throw new IOException("The connection is closed : " + this.connection);
+
+            } while (!this.rateLimiter.tryAcquire(kind));
+
+            return true;
+
+        } else if (action == RateLimitAction.DROP) {
+
+            this.chatServer.getMetrics().recordRateLimitDrop();
+            return false;
+
+        } else {
+
+            this.chatServer.getMetrics().recordRateLimitDisconnect();
+            LOG.info("Disconnecting client over its message rate : {}", this.connection);
+            throw new IOException("Message rate exceeded : " + this.connection);
+
+        }
+
+    }
+
+    /**
+     * Returns the task which drains the outbound queue and writes the messages to the socket.
+     * It is started by the chat server with the same thread type as the connection thread itself.
+     * @return the writer task of the connection
+     */
+    public Runnable getWriter() {
+
+        return new Runnable() {
+            public void run() {
+                writeMessages();
+            }
+        };
+
+    }
+
+    /**
+     * The loop of the writer which blocks until a message is queued and then writes it to the socket
+     * together with any other messages gathered in the same batch. A batch which took long to write is recorded as a write stall.
+     * If the write fails the connection is closed, which in turn wakes up and terminates the reading thread.
+     */
+    private void writeMessages() {
+
+        this.writerThread = Thread.currentThread();
+
+        try {
+
+            while (!this.closed) {
+
+                this.frameWriter.writeBatch();
+                long writeNanos = this.frameWriter.getLastWriteNanos();
+
+                if (writeNanos >= ServerMetrics.WRITE_STALL_THRESHOLD_NANOS)
+                    this.chatServer.getMetrics().recordWriteStall(writeNanos);
+
+            }
+
+        } catch (InterruptedException ie) {
+
+            return;
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while transmitting to the client : {}", this.connection);
+            disconnect();
+
+        } finally {
+
+            this.codec.endDeflater();
+
+        }
+
+    }
+
+    /**
+     * Closes the outbound queue and wakes up the writer so that it terminates.
+     */
+    private void stopWriter() {
+
+        this.closed = true;
+        this.outboundQueue.close();
+        Thread writer = this.writerThread;
+
+        if (writer != null)
+            writer.interrupt();
+
+    }
+
+    /**
+     * Sends an encoded message to the connected client by putting it in the outbound queue.
+     * If the queue overflows under the DISCONNECT policy then the client is evicted by the chat server.
+     * Messages sent before the handshake is complete are dropped, so the answer to the handshake is always the first message.
+     * @param frame the encoded message to send
+     * @throws IOException if the connection is already closed
+     */
+    public void send(Frame frame) throws IOException {
+
+        if (this.closed)
+            throw new IOException("The connection is closed : " + this.connection);
+
+        if (this.nickName == null)
+            return;
+
+        if (!this.outboundQueue.offer(frame))
+            this.chatServer.evict(this);
+
+    }
+
+    /**
+     * Closes the socket, which makes the blocked reading thread fail and invalidate the connection.
+     */
+    public void disconnect() {
+
+        try {
+
+            this.connection.close();
+
+        } catch (IOException ie) {
+
+            LOG.warn("There was an error while closing the connection : {}", this.connection);
+
+        }
+
+    }
+
     /**
      * Getter methods for the internal variables.
      */
@@ -94,4 +360,36 @@ public class ConnectionThread extends Thread {
         return nickName;
     }
 
+    public ChatRoom getRoom() {
+        return room;
+    }
+
+    public void setRoom(ChatRoom room) {
+        this.room = room;
+    }
+
+    public OutboundQueue<Frame> getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public WireProtocol getProtocol() {
+        return codec.getProtocol();
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    public void acknowledge(long sequence) {
+        this.ackedSequence = sequence;
+    }
+
+    public long getAckedSequence() {
+        return ackedSequence;
+    }
+
+    public String toString() {
+        return "ConnectionThread[" + connection + "]";
+    }
+
 }
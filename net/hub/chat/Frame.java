@@ -0,0 +1,428 @@
+package net.hub.chat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * An immutable message, which is serialized lazily to the wire formats of the protocols that need it and keeps the bytes.
+ * In the LEGACY format a frame is an unsigned 16 bit length followed by the modified UTF-8 bytes of the message,
+ * exactly the bytes DataOutputStream.writeUTF() would produce, and a chat message is sent as "nick : text".
+ * In the V2 format a frame is a varint length, a type tag and a binary payload, see ProtocolV2.
+ * A broadcast creates the frame once and the same frame is handed to every client, so every format is encoded
+ * at most once per message however many clients receive it, and so is its compressed V2 form.
+ * The blocking writers write the byte array as is and the NIO connections write a view of it.
+ */
+public final class Frame {
+
+    private final FrameType type;
+    private final long number;
+    private final long sequence;
+    private final String nickName;
+    private final String text;
+    private volatile byte[] legacyBytes;
+    private volatile byte[] compactBytes;
+    private volatile byte[] deflatedBytes;
+
+    private static final Frame PING = new Frame(FrameType.PING, 0, 0, null, "");
+    private static final Frame PONG = new Frame(FrameType.PONG, 0, 0, null, "");
+
+    /**
+     * Creates a new frame. The number is the nick name id of chat and nick frames, the sequence is the sequence number
+     * of a chat message in the history of its room and the sequence number acknowledged by an ack frame.
+     */
+    private Frame(FrameType type, long number, long sequence, String nickName, String text) {
+
+        this.type = type;
+        this.number = number;
+        this.sequence = sequence;
+        this.nickName = nickName;
+        this.text = text;
+
+    }
+
+    /**
+     * Encodes a message to a new system frame, serializing it to the legacy format right away.
+     * @param message the message to encode
+     * @return the frame holding the encoded message
+     * @throws UTFDataFormatException if the encoded message is longer than 65535 bytes
+     */
+    public static Frame encode(String message) throws UTFDataFormatException {
+
+        Frame frame = new Frame(FrameType.SYSTEM, 0, 0, null, message);
+        frame.legacyBytes = encodeUTF(message);
+
+        if (frame.legacyBytes == null)
+            throw new UTFDataFormatException("The encoded message is too long : " + message.length() + " characters");
+
+        return frame;
+
+    }
+
+    /**
+     * Creates a system frame, a message of the server such as a notice or the reply to a command.
+     * @param text the message
+     * @return the frame
+     */
+    public static Frame system(String text) {
+
+        return new Frame(FrameType.SYSTEM, 0, 0, null, text);
+
+    }
+
+    /**
+     * Creates a chat frame, a message a client sent to its room.
+     * @param nickId the id of the nick name of the sender, zero if it has none
+     * @param nickName the nick name of the sender, null for the frames sent by the clients
+     * @param text the message
+     * @return the frame
+     */
+    public static Frame chat(int nickId, String nickName, String text) {
+
+        return new Frame(FrameType.CHAT, nickId, 0, nickName, text);
+
+    }
+
+    /**
+     * Creates a chat frame with its sequence number in the history of its room, as it is decoded by a client.
+     * @param nickId the id of the nick name of the sender
+     * @param sequence the sequence number of the message
+     * @param text the message
+     * @return the frame
+     */
+    public static Frame chat(int nickId, long sequence, String text) {
+
+        return new Frame(FrameType.CHAT, nickId, sequence, null, text);
+
+    }
+
+    /**
+     * Returns a copy of the frame with the given sequence number. The room of a chat message numbers it
+     * when the message is appended to its history, right before it is broadcast.
+     * @param sequence the sequence number of the message
+     * @return the numbered frame
+     */
+    public Frame withSequence(long sequence) {
+
+        return new Frame(this.type, this.number, sequence, this.nickName, this.text);
+
+    }
+
+    /**
+     * Creates a command frame.
+     * @param command the command with its arguments, without the command prefix
+     * @return the frame
+     */
+    public static Frame command(String command) {
+
+        return new Frame(FrameType.COMMAND, 0, 0, null, command);
+
+    }
+
+    /**
+     * Creates a nick frame, which tells a client the nick name of an id.
+     * @param nickId the id of the nick name
+     * @param nickName the nick name
+     * @return the frame
+     */
+    public static Frame nick(int nickId, String nickName) {
+
+        return new Frame(FrameType.NICK, nickId, 0, nickName, nickName);
+
+    }
+
+    /**
+     * Creates an ack frame.
+     * @param sequence the sequence number acknowledged
+     * @return the frame
+     */
+    public static Frame ack(long sequence) {
+
+        return new Frame(FrameType.ACK, 0, sequence, null, "");
+
+    }
+
+    /**
+     * Returns the ping frame. It is the same frame every time, so its bytes are only encoded once.
+     * @return the frame
+     */
+    public static Frame ping() {
+
+        return PING;
+
+    }
+
+    /**
+     * Returns the pong frame, the answer to a ping. It is the same frame every time, so its bytes are only encoded once.
+     * @return the frame
+     */
+    public static Frame pong() {
+
+        return PONG;
+
+    }
+
+    /**
+     * Creates a handshake frame, which is always sent in the legacy format.
+     * @param text the handshake string
+     * @return the frame
+     */
+    public static Frame handshake(String text) {
+
+        return new Frame(FrameType.HANDSHAKE, 0, 0, null, text);
+
+    }
+
+    /**
+     * Returns the bytes of the frame in the given format, encoding them on first use.
+     * The returned array must not be changed.
+     * @param protocol the wire format
+     * @return the encoded frame, or null if the frame can not be sent in the format,
+     *         which only happens to legacy frames longer than 65535 bytes
+     */
+    public byte[] bytes(WireProtocol protocol) {
+
+        if (protocol == WireProtocol.V2 && this.type != FrameType.HANDSHAKE) {
+
+            byte[] bytes = this.compactBytes;
+
+            if (bytes == null)
+                this.compactBytes = bytes = encodeCompact();
+
+            return bytes;
+
+        }
+
+        byte[] bytes = this.legacyBytes;
+
+        if (bytes == null)
+            this.legacyBytes = bytes = encodeUTF(getMessage());
+
+        return bytes;
+
+    }
+
+    /**
+     * Returns the bytes of the frame in the V2 format as a DEFLATE frame, compressing them on first use
+     * with the deflater of the connection that needs them first. The returned array must not be changed.
+     * @param deflater the deflater of the connection
+     * @return the compressed frame or the uncompressed frame if compressing does not make it smaller
+     */
+    public byte[] deflatedBytes(Deflater deflater) {
+
+        byte[] bytes = this.deflatedBytes;
+
+        if (bytes == null)
+            this.deflatedBytes = bytes = ProtocolV2.deflate(bytes(WireProtocol.V2), deflater);
+
+        return bytes;
+
+    }
+
+    /**
+     * Encodes the frame to the V2 format.
+     */
+    private byte[] encodeCompact() {
+
+        byte[] payload = this.text.getBytes(StandardCharsets.UTF_8);
+        boolean numbered = this.type == FrameType.CHAT || this.type == FrameType.NICK;
+        boolean sequenced = this.type == FrameType.CHAT || this.type == FrameType.ACK;
+        int length = 1 + payload.length + (numbered ? ProtocolV2.varintSize(this.number) : 0) + (sequenced ? ProtocolV2.varintSize(this.sequence) : 0);
+
+        byte[] bytes = new byte[ProtocolV2.varintSize(length) + length];
+        int position = ProtocolV2.writeVarint(length, bytes, 0);
+        bytes[position++] = (byte) this.type.getTag();
+
+        if (numbered)
+            position = ProtocolV2.writeVarint(this.number, bytes, position);
+
+        if (sequenced)
+            position = ProtocolV2.writeVarint(this.sequence, bytes, position);
+
+        System.arraycopy(payload, 0, bytes, position, payload.length);
+        return bytes;
+
+    }
+
+    /**
+     * Encodes a string to the writeUTF framing.
+     * @return the encoded string or null if it is longer than 65535 bytes
+     */
+    private static byte[] encodeUTF(String message) {
+
+        int length = message.length();
+        int utfLength = 0;
+
+        for (int i = 0; i < length; i++) {
+
+            char c = message.charAt(i);
+
+            if (c >= 0x0001 && c <= 0x007F)
+                utfLength++;
+            else if (c > 0x07FF)
+                utfLength += 3;
+            else
+                utfLength += 2;
+
+        }
+
+        if (utfLength > 65535)
+            return null;
+
+        byte[] bytes = new byte[utfLength + 2];
+        int position = 0;
+        bytes[position++] = (byte) (utfLength >>> 8);
+        bytes[position++] = (byte) utfLength;
+
+        for (int i = 0; i < length; i++) {
+
+            char c = message.charAt(i);
+
+            if (c >= 0x0001 && c <= 0x007F) {
+
+                bytes[position++] = (byte) c;
+
+            } else if (c > 0x07FF) {
+
+                bytes[position++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+                bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+
+            } else {
+
+                bytes[position++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+                bytes[position++] = (byte) (0x80 | (c & 0x3F));
+
+            }
+
+        }
+
+        return bytes;
+
+    }
+
+    /**
+     * Writes the frame in the legacy format to the given stream with a single raw write.
+     * @param out the stream to write to
+     * @throws IOException if the frame could not be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+
+        writeTo(out, WireProtocol.LEGACY);
+
+    }
+
+    /**
+     * Writes the frame in the given format to the given stream with a single raw write.
+     * @param out the stream to write to
+     * @param protocol the wire format
+     * @throws IOException if the frame could not be written or is too long for the format
+     */
+    public void writeTo(OutputStream out, WireProtocol protocol) throws IOException {
+
+        byte[] bytes = bytes(protocol);
+
+        if (bytes == null)
+            throw new UTFDataFormatException("The frame is too long for the " + protocol + " protocol");
+
+        out.write(bytes);
+
+    }
+
+    /**
+     * Returns a new read-only buffer holding the frame in the legacy format, ready to be written to a channel.
+     * @return a read-only buffer holding the frame
+     */
+    public ByteBuffer asBuffer() {
+
+        return asBuffer(WireProtocol.LEGACY);
+
+    }
+
+    /**
+     * Returns a new read-only buffer holding the frame in the given format, ready to be written to a channel.
+     * @param protocol the wire format
+     * @return a read-only buffer holding the frame or null if the frame is too long for the format
+     */
+    public ByteBuffer asBuffer(WireProtocol protocol) {
+
+        byte[] bytes = bytes(protocol);
+        return bytes == null ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+
+    }
+
+    /**
+     * Returns the message of the frame as a legacy client displays it.
+     * @return the message of the frame
+     */
+    public String decode() {
+
+        return getMessage();
+
+    }
+
+    /**
+     * Returns the size of the frame in bytes in the legacy format, including the length prefix.
+     * @return the size of the frame
+     */
+    public int size() {
+
+        return size(WireProtocol.LEGACY);
+
+    }
+
+    /**
+     * Returns the size of the frame in bytes in the given format, including the length prefix.
+     * @param protocol the wire format
+     * @return the size of the frame or zero if the frame is too long for the format
+     */
+    public int size(WireProtocol protocol) {
+
+        byte[] bytes = bytes(protocol);
+        return bytes == null ? 0 : bytes.length;
+
+    }
+
+    /**
+     * Returns the message of the frame as it is sent in the legacy format, where a chat message
+     * is prefixed by the nick name of its sender and a command by the command prefix.
+     * @return the legacy message
+     */
+    public String getMessage() {
+
+        if (this.type == FrameType.CHAT && this.nickName != null)
+            return this.nickName + " : " + this.text;
+        else if (this.type == FrameType.COMMAND)
+            return ChatServer.COMMAND_PREFIX + " " + this.text;
+
+        return this.text;
+
+    }
+
+    /**
+     * Getters used for the variables of the frame.
+     */
+    public FrameType getType() {
+        return type;
+    }
+
+    public int getNickId() {
+        return (int) number;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+}
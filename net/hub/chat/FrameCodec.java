@@ -0,0 +1,122 @@
+package net.hub.chat;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The state of the protocol of a single connection: the wire format agreed in the handshake and,
+ * for the V2 format, the nick names of the ids the client already knows and the compressors of the connection.
+ * A chat frame carries the id of the nick name of its sender instead of the nick name, so before the first chat
+ * frame of a sender the writer sends the nick frame which tells the client the nick name of the id.
+ * The server hands out again the ids of the nick names no longer in use, so the ids stay dense and the nick names
+ * the client knows are kept in an array indexed by the id. When an id arrives with another nick name than the one the client knows,
+ * the id was reused and the client is told its new nick name.
+ * If compression is negotiated then the frames larger than the threshold are sent deflated. The deflater is only
+ * used by the writer of the connection and the inflater only by its reader, both are created once and reset for every frame.
+ */
+public class FrameCodec {
+
+    private volatile WireProtocol protocol = WireProtocol.LEGACY;
+    private String[] knownNickNames = new String[16];
+    private volatile int compressionThreshold = -1;
+    private volatile Deflater deflater;
+    private volatile Inflater inflater;
+
+    /**
+     * Turns compression on for the frames of the V2 format.
+     * @param threshold the size in bytes above which a frame is compressed
+     */
+    public void enableCompression(int threshold) {
+
+        this.deflater = new Deflater(Deflater.BEST_SPEED);
+        this.inflater = new Inflater();
+        this.compressionThreshold = threshold;
+
+    }
+
+    /**
+     * Returns the bytes of a frame in the wire format of the connection, compressed if compression is enabled
+     * and the frame is larger than the threshold.
+     * @param frame the frame to encode
+     * @return the encoded frame or null if the frame can not be sent in the wire format
+     */
+    public byte[] encode(Frame frame) {
+
+        byte[] bytes = frame.bytes(this.protocol);
+        Deflater deflater = this.deflater;
+
+        if (bytes == null || deflater == null || this.protocol != WireProtocol.V2 || frame.getType() == FrameType.HANDSHAKE || bytes.length <= this.compressionThreshold)
+            return bytes;
+
+        return frame.deflatedBytes(deflater);
+
+    }
+
+    /**
+     * Returns the nick frame that has to be written before the given frame, if the frame is a chat frame whose
+     * nick name id is not known to the client yet, or is known with another nick name. The nick name of the id is considered known from then on.
+     * Called by the writer of the connection only.
+     * @param frame the frame about to be written
+     * @return the nick frame to write first or null if none is needed
+     */
+    public Frame definitionFor(Frame frame) {
+
+        int id = frame.getNickId();
+
+        if (this.protocol != WireProtocol.V2 || frame.getType() != FrameType.CHAT || id <= 0)
+            return null;
+
+        if (id >= this.knownNickNames.length)
+            this.knownNickNames = Arrays.copyOf(this.knownNickNames, Math.max(id + 1, this.knownNickNames.length * 2));
+
+        String known = this.knownNickNames[id];
+
+        if (known != null && known.equals(frame.getNickName()))
+            return null;
+
+        this.knownNickNames[id] = frame.getNickName();
+        return Frame.nick(id, frame.getNickName());
+
+    }
+
+    /**
+     * Releases the native memory of the deflater. Called by the writer of the connection when it terminates.
+     */
+    public void endDeflater() {
+
+        if (this.deflater != null)
+            this.deflater.end();
+
+    }
+
+    /**
+     * Releases the native memory of the inflater. Called by the reader of the connection when it terminates.
+     */
+    public void endInflater() {
+
+        if (this.inflater != null)
+            this.inflater.end();
+
+    }
+
+    /**
+     * Getters and Setters used for the variables.
+     */
+    public WireProtocol getProtocol() {
+        return protocol;
+    }
+
+    public void setProtocol(WireProtocol protocol) {
+        this.protocol = protocol;
+    }
+
+    public Inflater getInflater() {
+        return inflater;
+    }
+
+    public boolean isCompressionEnabled() {
+        return deflater != null;
+    }
+
+}
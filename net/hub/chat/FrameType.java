@@ -0,0 +1,54 @@
+package net.hub.chat;
+
+/**
+ * The types of the frames of the binary protocol, each with the tag byte that follows the length of a frame on the wire.
+ * HANDSHAKE frames are only exchanged before the protocol is agreed, so they are always sent in the writeUTF framing.
+ * PING and PONG are the heartbeats, they carry no payload and the answer to a PING is a PONG.
+ */
+public enum FrameType {
+
+    HANDSHAKE(0),
+    CHAT(1),
+    COMMAND(2),
+    SYSTEM(3),
+    ACK(4),
+    NICK(5),
+    DEFLATE(6),
+    PING(7),
+    PONG(8);
+
+    private static final FrameType[] BY_TAG = new FrameType[9];
+
+    static {
+
+        for (FrameType type : values())
+            BY_TAG[type.tag] = type;
+
+    }
+
+    private final int tag;
+
+    FrameType(int tag) {
+
+        this.tag = tag;
+
+    }
+
+    public int getTag() {
+
+        return this.tag;
+
+    }
+
+    /**
+     * Returns the type with the given tag.
+     * @param tag the tag read from the wire
+     * @return the type or null if the tag is unknown
+     */
+    public static FrameType fromTag(int tag) {
+
+        return tag >= 0 && tag < BY_TAG.length ? BY_TAG[tag] : null;
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package net.hub.chat;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A writer that drains an outbound queue of frames to a stream, coalescing the queued frames into batches.
+ * The first frame of a batch is waited for, then every frame that is already queued, or that arrives within
+ * the batch window, is gathered in a buffer until the batch reaches its byte limit. The whole batch is then
+ * written to the socket with a single flush. With a batch window of zero only the frames already queued are
+ * gathered, so an idle connection still sends every message right away.
+ * A byte limit of zero or less turns batching off and every frame is written to the stream on its own.
+ * The frames are written in the wire format of the codec of the connection, compressed if the codec says so,
+ * frames which are too long for the legacy format are skipped.
+ */
+public class FrameWriter {
+
+    private OutboundQueue<Frame> queue;
+    private OutputStream out;
+    private FrameCodec codec;
+    private long batchWindowNanos;
+    private int batchMaxBytes;
+    private long lastWriteNanos;
+
+    /**
+     * Creates a new writer for the given stream and queue.
+     * @param out the stream of the socket
+     * @param queue the queue holding the frames to write
+     * @param batchWindowMillis how long to keep gathering frames after the first frame of a batch
+     * @param batchMaxBytes the maximum size of a batch in bytes, zero or less to write every frame on its own
+     */
+    public FrameWriter(OutputStream out, OutboundQueue<Frame> queue, long batchWindowMillis, int batchMaxBytes) {
+
+        this(out, queue, batchWindowMillis, batchMaxBytes, new FrameCodec());
+
+    }
+
+    /**
+     * Creates a new writer for the given stream and queue which writes in the wire format of the given codec.
+     * @param out the stream of the socket
+     * @param queue the queue holding the frames to write
+     * @param batchWindowMillis how long to keep gathering frames after the first frame of a batch
+     * @param batchMaxBytes the maximum size of a batch in bytes, zero or less to write every frame on its own
+     * @param codec the protocol state of the connection
+     */
+    public FrameWriter(OutputStream out, OutboundQueue<Frame> queue, long batchWindowMillis, int batchMaxBytes, FrameCodec codec) {
+
+        this.queue = queue;
+        this.codec = codec;
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        this.batchMaxBytes = batchMaxBytes;
+        this.out = batchMaxBytes > 0 ? new BufferedOutputStream(out, batchMaxBytes) : out;
+
+    }
+
+    /**
+     * Waits for the next frame and writes it, together with the frames gathered in the same batch.
+     * @throws IOException if the batch could not be written
+     * @throws InterruptedException if the thread is interrupted while waiting for frames
+     */
+    public void writeBatch() throws IOException, InterruptedException {
+
+        Frame frame = this.queue.take();
+        this.lastWriteNanos = 0;
+
+        if (this.batchMaxBytes <= 0) {
+
+            write(frame);
+            return;
+
+        }
+
+        long deadline = System.nanoTime() + this.batchWindowNanos;
+        int batchBytes = 0;
+
+        while (frame != null) {
+
+            batchBytes += write(frame);
+
+            if (batchBytes >= this.batchMaxBytes)
+                break;
+
+            frame = this.queue.poll();
+
+            if (frame == null && this.batchWindowNanos > 0) {
+
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining > 0)
+                    frame = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+
+            }
+
+        }
+
+        long start = System.nanoTime();
+        this.out.flush();
+        this.lastWriteNanos += System.nanoTime() - start;
+
+    }
+
+    /**
+     * Writes a frame to the stream, preceded by the nick frame it needs if any,
+     * adding the time it took to the write time of the batch.
+     * @return the number of bytes written
+     */
+    private int write(Frame frame) throws IOException {
+
+        byte[] bytes = this.codec.encode(frame);
+
+        if (bytes == null)
+            return 0;
+
+        Frame definition = this.codec.definitionFor(frame);
+        long start = System.nanoTime();
+        int written = bytes.length;
+
+        if (definition != null) {
+
+            byte[] definitionBytes = this.codec.encode(definition);
+            this.out.write(definitionBytes);
+            written += definitionBytes.length;
+
+        }
+
+        this.out.write(bytes);
+        this.lastWriteNanos += System.nanoTime() - start;
+        return written;
+
+    }
+
+    /**
+     * Returns the time spent writing the last batch to the stream, without the time spent waiting for frames.
+     * A long write means the socket buffer was full and the writer had to wait for the client to read.
+     * @return the write time of the last batch in nanoseconds
+     */
+    public long getLastWriteNanos() {
+
+        return this.lastWriteNanos;
+
+    }
+
+}
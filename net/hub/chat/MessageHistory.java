@@ -0,0 +1,145 @@
+package net.hub.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded history of the most recent messages of a chat room, kept in a ring buffer which is allocated once.
+ * Appending only stores a reference in the next slot, so it never allocates and the memory used by the history
+ * stays the same no matter how many messages flow through it.
+ * There is a single writer, the broadcast executor of the room, and any number of readers. A reader never blocks
+ * the writer : it copies the slots it wants and then checks the head again to throw away any slot that the writer
+ * may have overwritten in the meantime. Every message gets a sequence number, which is its position in the history
+ * since the room was created. The writer can also trim the oldest messages before they are overwritten, once nobody
+ * needs them any more, so that the memory they hold is released early. A trimmed message is left out of the snapshots.
+ * @param <E> the type of the messages
+ */
+public class MessageHistory<E> {
+
+    private final Object[] slots;
+    private final int capacity;
+    private volatile long head = 0;
+    private volatile long tail = 0;
+
+    /**
+     * Creates a new history for the given number of messages. One extra slot is allocated
+     * for the message the writer may be storing while a reader takes a snapshot.
+     * @param capacity the maximum number of messages kept
+     */
+    public MessageHistory(int capacity) {
+
+        this.capacity = Math.max(1, capacity);
+        this.slots = new Object[this.capacity + 1];
+
+    }
+
+    /**
+     * Appends a message to the history, overwriting the oldest one if the history is full.
+     * Must only be called by the single writer of the history.
+     * @param message the message to append
+     * @return the sequence number of the message
+     */
+    public long append(E message) {
+
+        long sequence = this.head;
+        this.slots[(int) (sequence % this.slots.length)] = message;
+        this.head = sequence + 1;
+        return sequence;
+
+    }
+
+    /**
+     * Releases the messages whose sequence number is lower than the given one.
+     * Must only be called by the single writer of the history.
+     * @param sequence the sequence number of the first message to keep
+     */
+    public void trim(long sequence) {
+
+        long end = Math.min(sequence, this.head);
+        long start = Math.max(this.tail, this.head - this.capacity);
+
+        for (long i = start; i < end; i++)
+            this.slots[(int) (i % this.slots.length)] = null;
+
+        if (end > this.tail)
+            this.tail = end;
+
+    }
+
+    /**
+     * Returns a snapshot of the most recent messages, oldest first.
+     * @param count the maximum number of messages to return
+     * @return the list of the messages
+     */
+    public List<E> snapshot(int count) {
+
+        long end = this.head;
+        return snapshotFrom(Math.max(0, end - count), end);
+
+    }
+
+    /**
+     * Returns a snapshot of the messages whose sequence number is equal or greater than the given one, oldest first.
+     * Messages that are no longer kept in the history are left out.
+     * @param sequence the sequence number of the first message
+     * @return the list of the messages
+     */
+    public List<E> snapshotSince(long sequence) {
+
+        long end = this.head;
+        return snapshotFrom(Math.max(0, Math.min(sequence, end)), end);
+
+    }
+
+    /**
+     * Copies the messages between the given sequence numbers and leaves out the ones the writer may have overwritten.
+     * The start is clamped to the end, so an empty range, or a tail the writer moved past the end read by the caller, gives an empty list.
+     * @param start the sequence number of the first message
+     * @param end the sequence number after the last message, read from the head
+     * @return the list of the messages
+     */
+    @SuppressWarnings("unchecked")
+    private List<E> snapshotFrom(long start, long end) {
+
+        start = Math.min(Math.max(Math.max(start, this.tail), end - this.capacity), end);
+        Object[] copy = new Object[(int) (end - start)];
+
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = this.slots[(int) ((start + i) % this.slots.length)];
+
+        long firstValid = this.head + 1 - this.slots.length;
+        List<E> messages = new ArrayList<E>(copy.length);
+
+        for (int i = 0; i < copy.length; i++) {
+
+            if (start + i >= firstValid && copy[i] != null)
+                messages.add((E) copy[i]);
+
+        }
+
+        return messages;
+
+    }
+
+    /**
+     * Methods that are used to return variables of the history.
+     */
+    public long getHead() {
+
+        return this.head;
+
+    }
+
+    public long getTail() {
+
+        return this.tail;
+
+    }
+
+    public int getCapacity() {
+
+        return this.capacity;
+
+    }
+
+}
@@ -0,0 +1,175 @@
+package net.hub.chat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue holding the messages that are waiting to be written to a single client.
+ * The chat server only puts messages in the queue, the actual writing is done by the writer of the connection,
+ * so a client with a full TCP window can not stall the broadcast to the rest of the clients.
+ * When the queue is full the overflow policy decides if the oldest message is dropped, if the sender
+ * blocks or if the client has to be disconnected. The number of dropped messages is counted.
+ * @param <E> the type of the queued messages
+ */
+public class OutboundQueue<E> {
+
+    private static final long BLOCK_CHECK_MILLIS = 100;
+
+    private ArrayBlockingQueue<E> queue;
+    private OverflowPolicy overflowPolicy;
+    private AtomicLong droppedMessages = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new outbound queue.
+     * @param capacity the maximum number of queued messages
+     * @param overflowPolicy the policy applied when the queue is full
+     */
+    public OutboundQueue(int capacity, OverflowPolicy overflowPolicy) {
+
+        this.queue = new ArrayBlockingQueue<E>(capacity);
+        this.overflowPolicy = overflowPolicy;
+
+    }
+
+    /**
+     * Adds a message to the queue applying the overflow policy if the queue is full.
+     * @param message the message to queue
+     * @return false if the queue overflowed and the client has to be disconnected else true
+     */
+    public boolean offer(E message) {
+
+        return offer(message, true);
+
+    }
+
+    /**
+     * Adds a message to the queue applying the overflow policy if the queue is full.
+     * A caller that must never wait, like the thread which drains the queue, can forbid blocking.
+     * In that case the BLOCK policy behaves like the DISCONNECT policy.
+     * A queue that overflowed under the DISCONNECT policy closes itself, so the client is only evicted once.
+     * @param message the message to queue
+     * @param mayBlock if the caller is allowed to wait for room in the queue
+     * @return false if the queue overflowed and the client has to be disconnected else true
+     */
+    public boolean offer(E message, boolean mayBlock) {
+
+        if (this.closed)
+            return true;
+
+        if (this.overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+
+            while (!this.queue.offer(message)) {
+
+                if (this.queue.poll() != null)
+                    this.droppedMessages.incrementAndGet();
+
+            }
+
+            return true;
+
+        }
+
+        if (this.overflowPolicy == OverflowPolicy.BLOCK && mayBlock) {
+
+            try {
+
+                while (!this.closed) {
+
+                    if (this.queue.offer(message, BLOCK_CHECK_MILLIS, TimeUnit.MILLISECONDS))
+                        return true;
+
+                }
+
+                return true;
+
+            } catch (InterruptedException ie) {
+
+                Thread.currentThread().interrupt();
+
+            }
+
+        }
+
+        if (this.queue.offer(message))
+            return true;
+
+        this.droppedMessages.incrementAndGet();
+        close();
+        return false;
+
+    }
+
+    /**
+     * Removes the oldest message from the queue without waiting.
+     * @return the oldest message or null if the queue is empty
+     */
+    public E poll() {
+
+        return this.queue.poll();
+
+    }
+
+    /**
+     * Removes the oldest message from the queue waiting up to the given time for one to become available.
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return the oldest message or null if the queue is still empty when the time has passed
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+
+        return this.queue.poll(timeout, unit);
+
+    }
+
+    /**
+     * Removes the oldest message from the queue waiting until one is available.
+     * @return the oldest message
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public E take() throws InterruptedException {
+
+        return this.queue.take();
+
+    }
+
+    /**
+     * Closes the queue. Any queued messages are discarded and new messages are ignored.
+     */
+    public void close() {
+
+        this.closed = true;
+        this.queue.clear();
+
+    }
+
+    /**
+     * Methods that are used to return variables of the queue.
+     */
+    public int size() {
+
+        return this.queue.size();
+
+    }
+
+    public boolean isEmpty() {
+
+        return this.queue.isEmpty();
+
+    }
+
+    public long getDroppedMessages() {
+
+        return this.droppedMessages.get();
+
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+
+        return this.overflowPolicy;
+
+    }
+
+}
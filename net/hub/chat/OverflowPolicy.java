@@ -0,0 +1,15 @@
+package net.hub.chat;
+
+/**
+ * The policies that decide what happens when the outbound queue of a client is full.
+ * DROP_OLDEST discards the oldest queued message to make room for the new one.
+ * DISCONNECT evicts the slow client from the chat server.
+ * BLOCK makes the sender wait until the writer of the client has made room in the queue.
+ */
+public enum OverflowPolicy {
+
+    DROP_OLDEST,
+    DISCONNECT,
+    BLOCK
+
+}
@@ -0,0 +1,488 @@
+package net.hub.chat;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The binary protocol, version 2. A client asks for it by sending HELLO_ACK, the options it would like to use each
+ * preceded by a semicolon, a space and its nick name as its first writeUTF string, where a legacy client sends just
+ * its nick name. The server answers with the writeUTF string HELLO_ACK followed by the options it accepted
+ * and from then on both sides use the binary frames, a server which does not know the protocol answers with its
+ * usual welcome message instead so the client can fall back to the legacy format.
+ * The DEFLATE option allows both sides to send any frame larger than their compression threshold
+ * as a DEFLATE frame, holding the varint length of the original frame without its length and the deflated tag and payload.
+ * A server which keeps sessions answers with the SESSION option holding the token of the session of the client, for example
+ * "session=1f0c...". A client which lost its connection asks to resume its session with the RESUME option holding the token
+ * and the sequence number of the last chat message it received, for example "resume=1f0c...:41". If the server still has the
+ * session it answers with the RESUMED option and replays only the messages the client missed, instead of welcoming it again.
+ * A frame is a varint length, a type tag and the payload, the length counting the tag and the payload:
+ * CHAT holds the varint id of the nick name of the sender, the varint sequence number of the message in the history of its room
+ * and the UTF-8 text, COMMAND and SYSTEM the UTF-8 text,
+ * ACK a varint sequence number and NICK the varint id of a nick name and the UTF-8 nick name, PING and PONG nothing.
+ * Either side may send a PING at any time and the other side answers with a PONG, the server pings the clients
+ * which have been silent for a while and disconnects the ones that do not answer.
+ * A client may send an ACK with the sequence number of the last chat message it received, which acknowledges every message
+ * of its room up to it, so the server knows how far behind it is and which messages of the history it no longer needs.
+ * The nick name ids are assigned by the server, which sends the NICK frame of an id to a client before the first
+ * chat message that uses it, so the nick name is not repeated in every message. The clients send their chat
+ * messages with the id 0. The commands are sent without the command prefix.
+ */
+public final class ProtocolV2 {
+
+    public static final String HELLO_ACK = "\u0000HUB/2";
+    public static final String DEFLATE = "deflate";
+    public static final String SESSION = "session";
+    public static final String RESUME = "resume";
+    public static final String RESUMED = "resumed";
+    public static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private ProtocolV2() {
+
+    }
+
+    /**
+     * Check to see if the first string of a connection asks for this protocol.
+     * @param hello the first string sent by the client
+     * @return true if the client asks for the protocol else false
+     */
+    public static boolean isHello(String hello) {
+
+        return hello.startsWith(HELLO_ACK) && hello.length() > HELLO_ACK.length()
+                && (hello.charAt(HELLO_ACK.length()) == ' ' || hello.charAt(HELLO_ACK.length()) == ';');
+
+    }
+
+    /**
+     * Builds the hello of a client.
+     * @param nickName the nick name of the client
+     * @param deflate if the client would like to use compression
+     * @return the first string to send to the server
+     */
+    public static String hello(String nickName, boolean deflate) {
+
+        return HELLO_ACK + (deflate ? ";" + DEFLATE : "") + " " + nickName;
+
+    }
+
+    /**
+     * Builds the hello of a client which resumes its session.
+     * @param nickName the nick name of the client
+     * @param deflate if the client would like to use compression
+     * @param sessionToken the token of the session
+     * @param sequence the sequence number of the last chat message received, or -1 if none was received
+     * @return the first string to send to the server
+     */
+    public static String hello(String nickName, boolean deflate, String sessionToken, long sequence) {
+
+        return HELLO_ACK + (deflate ? ";" + DEFLATE : "") + ";" + RESUME + "=" + sessionToken + ":" + sequence + " " + nickName;
+
+    }
+
+    /**
+     * Returns the nick name sent in a hello.
+     * @param hello the first string sent by the client
+     * @return the nick name
+     */
+    public static String nickNameOf(String hello) {
+
+        return hello.substring(hello.indexOf(' ') + 1);
+
+    }
+
+    /**
+     * Check to see if a string is the answer of a server which accepted the protocol.
+     * @param answer the first string sent by the server
+     * @return true if the server accepted the protocol else false
+     */
+    public static boolean isAcknowledgement(String answer) {
+
+        return answer.equals(HELLO_ACK) || answer.startsWith(HELLO_ACK + ";");
+
+    }
+
+    /**
+     * Check to see if a hello or an answer to it holds an option.
+     * @param handshake the hello of the client or the answer of the server
+     * @param option the option
+     * @return true if the option is present else false
+     */
+    public static boolean hasOption(String handshake, String option) {
+
+        int end = handshake.indexOf(' ');
+        String options = handshake.substring(HELLO_ACK.length(), end < 0 ? handshake.length() : end);
+
+        for (String candidate : options.split(";"))
+            if (candidate.equals(option))
+                return true;
+
+        return false;
+
+    }
+
+    /**
+     * Returns the value of an option of a hello or an answer to it, which is written as name=value.
+     * @param handshake the hello of the client or the answer of the server
+     * @param option the name of the option
+     * @return the value of the option or null if the option is not present
+     */
+    public static String optionValue(String handshake, String option) {
+
+        int end = handshake.indexOf(' ');
+        String options = handshake.substring(HELLO_ACK.length(), end < 0 ? handshake.length() : end);
+
+        for (String candidate : options.split(";"))
+            if (candidate.startsWith(option + "="))
+                return candidate.substring(option.length() + 1);
+
+        return null;
+
+    }
+
+    /**
+     * Returns the number of bytes of a value written as a varint.
+     * @param value the value, which must not be negative
+     * @return the size of the varint
+     */
+    public static int varintSize(long value) {
+
+        int size = 1;
+
+        while ((value >>>= 7) != 0)
+            size++;
+
+        return size;
+
+    }
+
+    /**
+     * Writes a value as a varint, seven bits per byte with the highest bit set on every byte but the last.
+     * @param value the value, which must not be negative
+     * @param bytes the array to write to
+     * @param position the index of the first byte
+     * @return the index after the last byte
+     */
+    public static int writeVarint(long value, byte[] bytes, int position) {
+
+        while ((value & ~0x7FL) != 0) {
+
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+
+        }
+
+        bytes[position++] = (byte) value;
+        return position;
+
+    }
+
+    /**
+     * Reads a varint from a stream.
+     * @param in the stream to read from
+     * @return the value
+     * @throws IOException if the stream ends or the varint is longer than a long
+     */
+    public static long readVarint(DataInputStream in) throws IOException {
+
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0)
+                return value;
+
+        }
+
+        throw new IOException("Malformed varint");
+
+    }
+
+    /**
+     * Reads a varint from a buffer, at its position, without moving the position.
+     * @param buffer the buffer to read from
+     * @param position the index of the first byte
+     * @param limit the index after the last readable byte
+     * @return the value and its size packed as value * 16 + size, or -1 if the buffer ends before the varint does
+     * @throws IOException if the varint is longer than the largest frame allows
+     */
+    static long peekVarint(ByteBuffer buffer, int position, int limit) throws IOException {
+
+        long value = 0;
+
+        for (int size = 1; size <= 4; size++) {
+
+            if (position + size > limit)
+                return -1;
+
+            int b = buffer.get(position + size - 1) & 0xFF;
+            value |= (long) (b & 0x7F) << (7 * (size - 1));
+
+            if ((b & 0x80) == 0)
+                return value * 16 + size;
+
+        }
+
+        throw new IOException("Malformed frame length");
+
+    }
+
+    /**
+     * Reads a whole frame from a stream, blocking until it is available.
+     * @param in the stream to read from
+     * @return the frame
+     * @throws IOException if the stream ends or the frame is malformed or too large
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+
+        return read(in, null);
+
+    }
+
+    /**
+     * Reads a whole frame from a stream, blocking until it is available, inflating it if it is compressed.
+     * @param in the stream to read from
+     * @param inflater the inflater of the connection or null if compression was not negotiated
+     * @return the frame
+     * @throws IOException if the stream ends or the frame is malformed or too large
+     */
+    public static Frame read(DataInputStream in, Inflater inflater) throws IOException {
+
+        long length = readVarint(in);
+
+        if (length < 1 || length > MAX_FRAME_BYTES)
+            throw new IOException("Invalid frame length : " + length);
+
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return decode(bytes, 0, bytes.length, inflater);
+
+    }
+
+    /**
+     * Reads a whole frame from a buffer if it holds one, moving its position after the frame.
+     * @param buffer the buffer to read from, in read mode
+     * @return the frame or null if the buffer does not hold a whole frame yet
+     * @throws IOException if the frame is malformed or too large
+     */
+    public static Frame read(ByteBuffer buffer) throws IOException {
+
+        return read(buffer, null);
+
+    }
+
+    /**
+     * Reads a whole frame from a buffer if it holds one, moving its position after the frame, inflating it if it is compressed.
+     * @param buffer the buffer to read from, in read mode
+     * @param inflater the inflater of the connection or null if compression was not negotiated
+     * @return the frame or null if the buffer does not hold a whole frame yet
+     * @throws IOException if the frame is malformed or too large
+     */
+    public static Frame read(ByteBuffer buffer, Inflater inflater) throws IOException {
+
+        int start = buffer.position();
+        long packed = peekVarint(buffer, start, buffer.limit());
+
+        if (packed < 0)
+            return null;
+
+        long length = packed >>> 4;
+        int headerSize = (int) (packed & 0xF);
+
+        if (length < 1 || length > MAX_FRAME_BYTES)
+            throw new IOException("Invalid frame length : " + length);
+
+        if (buffer.limit() - start - headerSize < length)
+            return null;
+
+        byte[] bytes = new byte[(int) length];
+        buffer.position(start + headerSize);
+        buffer.get(bytes);
+        return decode(bytes, 0, bytes.length, inflater);
+
+    }
+
+    /**
+     * Compresses an encoded frame to a DEFLATE frame.
+     * @param frame the frame in the V2 format
+     * @param deflater the deflater to use, which is reset first
+     * @return the DEFLATE frame, or the given frame if compressing does not make it smaller
+     */
+    static byte[] deflate(byte[] frame, Deflater deflater) {
+
+        int headerSize = 1;
+
+        while ((frame[headerSize - 1] & 0x80) != 0)
+            headerSize++;
+
+        int innerLength = frame.length - headerSize;
+        byte[] compressed = new byte[innerLength];
+        int compressedLength = 0;
+
+        deflater.reset();
+        deflater.setInput(frame, headerSize, innerLength);
+        deflater.finish();
+
+        while (!deflater.finished()) {
+
+            if (compressedLength == compressed.length)
+                return frame;
+
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+
+        }
+
+        int length = 1 + varintSize(innerLength) + compressedLength;
+        byte[] bytes = new byte[varintSize(length) + length];
+
+        if (bytes.length >= frame.length)
+            return frame;
+
+        int position = writeVarint(length, bytes, 0);
+        bytes[position++] = (byte) FrameType.DEFLATE.getTag();
+        position = writeVarint(innerLength, bytes, position);
+        System.arraycopy(compressed, 0, bytes, position, compressedLength);
+        return bytes;
+
+    }
+
+    /**
+     * Inflates the payload of a DEFLATE frame, starting at its varint length, to the tag and payload of the original frame.
+     */
+    private static Frame inflate(byte[] bytes, int position, int end, Inflater inflater) throws IOException {
+
+        if (inflater == null)
+            throw new IOException("Compressed frame on a connection without compression");
+
+        long packed = peekVarint(ByteBuffer.wrap(bytes), position, end);
+
+        if (packed < 0)
+            throw new IOException("Malformed frame payload");
+
+        long innerLength = packed >>> 4;
+        position += (int) (packed & 0xF);
+
+        if (innerLength < 1 || innerLength > MAX_FRAME_BYTES)
+            throw new IOException("Invalid frame length : " + innerLength);
+
+        byte[] inner = new byte[(int) innerLength];
+        int inflated = 0;
+        inflater.reset();
+        inflater.setInput(bytes, position, end - position);
+
+        try {
+
+            while (inflated < inner.length) {
+
+                int count = inflater.inflate(inner, inflated, inner.length - inflated);
+
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated compressed frame");
+
+                inflated += count;
+
+            }
+
+        } catch (DataFormatException de) {
+
+            throw new IOException("Malformed compressed frame", de);
+
+        }
+
+        return decode(inner, 0, inner.length, null);
+
+    }
+
+    /**
+     * Reads a varint from the payload of a frame.
+     * @throws IOException if the varint is longer than the payload or than 64 bits
+     */
+    private static long readVarint(byte[] bytes, int position, int end) throws IOException {
+
+        long value = 0;
+        int shift = 0;
+        int b;
+
+        do {
+
+            if (position >= end || shift > 63)
+                throw new IOException("Malformed frame payload");
+
+            b = bytes[position++] & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+
+        } while ((b & 0x80) != 0);
+
+        return value;
+
+    }
+
+    /**
+     * Returns the index after a varint which has already been read.
+     */
+    private static int skipVarint(byte[] bytes, int position) {
+
+        while ((bytes[position++] & 0x80) != 0);
+
+        return position;
+
+    }
+
+    /**
+     * Decodes the tag and the payload of a frame.
+     */
+    private static Frame decode(byte[] bytes, int start, int end, Inflater inflater) throws IOException {
+
+        FrameType type = FrameType.fromTag(bytes[start] & 0xFF);
+        int position = start + 1;
+
+        if (type == null || type == FrameType.HANDSHAKE)
+            throw new IOException("Unknown frame type : " + (bytes[start] & 0xFF));
+
+        if (type == FrameType.DEFLATE)
+            return inflate(bytes, position, end, inflater);
+
+        long number = 0;
+        long sequence = 0;
+
+        if (type == FrameType.CHAT || type == FrameType.NICK) {
+
+            number = readVarint(bytes, position, end);
+            position = skipVarint(bytes, position);
+
+        }
+
+        if (type == FrameType.CHAT || type == FrameType.ACK) {
+
+            sequence = readVarint(bytes, position, end);
+            position = skipVarint(bytes, position);
+
+        }
+
+        String text = new String(bytes, position, end - position, StandardCharsets.UTF_8);
+
+        if (type == FrameType.CHAT)
+            return Frame.chat((int) number, sequence, text);
+        else if (type == FrameType.COMMAND)
+            return Frame.command(text);
+        else if (type == FrameType.SYSTEM)
+            return Frame.system(text);
+        else if (type == FrameType.ACK)
+            return Frame.ack(sequence);
+        else if (type == FrameType.PING)
+            return Frame.ping();
+        else if (type == FrameType.PONG)
+            return Frame.pong();
+        else
+            return Frame.nick((int) number, text);
+
+    }
+
+}
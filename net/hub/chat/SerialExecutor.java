@@ -0,0 +1,99 @@
+package net.hub.chat;
+
+import net.hub.chat.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor which runs its tasks one at a time and in the order they were submitted, on the threads of a shared pool.
+ * Many serial executors can share the same pool, so the work of independent rooms is spread over all cores
+ * while the messages of every single room keep their order. To be fair to the other executors of the pool
+ * a busy executor gives its thread back after a fixed number of tasks and schedules itself again.
+ */
+public class SerialExecutor implements Executor {
+
+    private static final Logger LOG = Logger.getLogger(SerialExecutor.class);
+
+    private static final int TASKS_PER_TURN = 64;
+
+    private Executor pool;
+    private Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Creates a new serial executor on top of the given pool.
+     * @param pool the pool whose threads run the tasks
+     */
+    public SerialExecutor(Executor pool) {
+
+        this.pool = pool;
+
+    }
+
+    /**
+     * Submits a task which will run after all the tasks submitted before it have completed.
+     * @param task the task to run
+     */
+    public void execute(Runnable task) {
+
+        this.tasks.add(task);
+        schedule();
+
+    }
+
+    /**
+     * Hands the executor to the pool unless it is already scheduled or running.
+     */
+    private void schedule() {
+
+        if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true))
+            this.pool.execute(this.drainTask);
+
+    }
+
+    /**
+     * Runs the queued tasks on a thread of the pool until the queue is empty or the turn is over.
+     * A task that throws does not stop the executor.
+     */
+    private void drain() {
+
+        try {
+
+            for (int i = 0; i < TASKS_PER_TURN; i++) {
+
+                Runnable task = this.tasks.poll();
+
+                if (task == null)
+                    break;
+
+                try {
+
+                    task.run();
+
+                } catch (RuntimeException ex) {
+
+                    LOG.error("There was an error while running a serial task : {}", ex);
+
+                }
+
+            }
+
+        } finally {
+
+            this.scheduled.set(false);
+            schedule();
+
+        }
+
+    }
+
+}
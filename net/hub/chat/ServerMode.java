@@ -0,0 +1,16 @@
+package net.hub.chat;
+
+/**
+ * The different engines the chat server can use to serve its clients.
+ * THREAD_PER_CONNECTION is the original engine where each accepted socket is assigned its own ConnectionThread.
+ * VIRTUAL_THREADS keeps the same blocking ConnectionThread but runs it on a virtual thread, which raises the connection
+ * ceiling without changing the handler code. It falls back to platform threads on a JVM without virtual threads.
+ * NIO uses a small number of reactor threads which multiplex all connections with non-blocking reads and writes.
+ */
+public enum ServerMode {
+
+    THREAD_PER_CONNECTION,
+    VIRTUAL_THREADS,
+    NIO
+
+}
@@ -0,0 +1,244 @@
+package net.hub.chat;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The sessions of the clients of the protocol v2, which let a client that lost its connection come back to its room
+ * and receive only the messages it missed. Every client gets a session with a random token in its handshake.
+ * When the connection is invalidated the session is parked with the room of the client, and a client which presents
+ * the token and the same nick name within the session timeout resumes it. A client which resumes a session that is
+ * still open, because the server has not noticed yet that the old connection is dead, takes it over and the old connection is closed,
+ * its session is not parked then and it leaves its room quietly. The session remembers that previous connection until
+ * the new one is parked, so that the new connection can take the nick name over from it and from no other client.
+ * The parked sessions which expired are swept every so many parked sessions, so the map only holds the recent ones.
+ */
+public class SessionRegistry {
+
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private SecureRandom random = new SecureRandom();
+    private long timeoutNanos;
+    private ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<String, Session>();
+    private ConcurrentHashMap<ClientConnection, Session> openSessions = new ConcurrentHashMap<ClientConnection, Session>();
+    private AtomicInteger parkedSinceSweep = new AtomicInteger();
+    private LongAdder resumed = new LongAdder();
+    private LongAdder expired = new LongAdder();
+
+    /**
+     * Creates a new registry.
+     * @param timeoutMillis how long a parked session can be resumed
+     */
+    public SessionRegistry(long timeoutMillis) {
+
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    }
+
+    /**
+     * Opens a new session for a client which completed its handshake.
+     * @param client the client
+     * @param nickName the nick name of the client
+     * @return the new session
+     */
+    public Session open(ClientConnection client, String nickName) {
+
+        byte[] bytes = new byte[16];
+        this.random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+
+        for (byte b : bytes)
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+        Session session = new Session(token.toString(), nickName);
+        session.client = client;
+        this.sessions.put(session.token, session);
+        this.openSessions.put(client, session);
+        return session;
+
+    }
+
+    /**
+     * Resumes a session for a client which presented its token in its handshake.
+     * @param client the new connection of the client
+     * @param nickName the nick name of the client, which must be the one of the session
+     * @param token the token of the session
+     * @param sequence the sequence number of the last chat message the client received
+     * @return the resumed session or null if there is no such session or it expired
+     */
+    public Session resume(ClientConnection client, String nickName, String token, long sequence) {
+
+        Session session = this.sessions.get(token);
+
+        if (session == null || !session.nickName.equals(nickName))
+            return null;
+
+        ClientConnection previous;
+
+        synchronized (session) {
+
+            if (session.client == null && System.nanoTime() - session.parkedNanos > this.timeoutNanos)
+                return null;
+
+            previous = session.client;
+
+            if (previous != null && previous.getRoom() != null)
+                session.roomName = previous.getRoom().getName();
+
+            session.client = client;
+            session.previousClient = previous;
+            session.resumeSequence = sequence;
+            session.resumed = true;
+
+        }
+
+        if (previous != null)
+            previous.disconnect();
+
+        this.openSessions.put(client, session);
+        this.resumed.increment();
+        return session;
+
+    }
+
+    /**
+     * Returns the open session of a client.
+     * @param client the client
+     * @return the session or null if the client has none
+     */
+    public Session get(ClientConnection client) {
+
+        return this.openSessions.get(client);
+
+    }
+
+    /**
+     * Parks the session of a client whose connection was invalidated, so that it can be resumed for a while.
+     * @param client the client
+     * @param roomName the room the client was in, or null if it was in none
+     * @return false if the session was taken over by a new connection of the client, else true
+     */
+    public boolean park(ClientConnection client, String roomName) {
+
+        Session session = this.openSessions.remove(client);
+
+        if (session == null)
+            return true;
+
+        synchronized (session) {
+
+            if (session.client != client)
+                return false;
+
+            session.client = null;
+            session.previousClient = null;
+            session.roomName = roomName;
+            session.parkedNanos = System.nanoTime();
+
+        }
+
+        if (this.parkedSinceSweep.incrementAndGet() >= SWEEP_INTERVAL) {
+
+            this.parkedSinceSweep.set(0);
+            sweep();
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Forgets the parked sessions whose timeout has passed.
+     */
+    private void sweep() {
+
+        long now = System.nanoTime();
+        Iterator<Session> iterator = this.sessions.values().iterator();
+
+        while (iterator.hasNext()) {
+
+            Session session = iterator.next();
+
+            synchronized (session) {
+
+                if (session.client == null && now - session.parkedNanos > this.timeoutNanos) {
+
+                    iterator.remove();
+                    this.expired.increment();
+
+                }
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Getters for the counters of the registry.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public long getResumedSessions() {
+        return resumed.sum();
+    }
+
+    public long getExpiredSessions() {
+        return expired.sum();
+    }
+
+    /**
+     * The session of a single client. Its state changes when its client resumes it or its connection is invalidated,
+     * which can happen on different threads, so it is guarded by the session itself.
+     */
+    public static class Session {
+
+        private String token;
+        private String nickName;
+        private ClientConnection client;
+        private ClientConnection previousClient;
+        private String roomName;
+        private long parkedNanos;
+        private long resumeSequence = -1;
+        private boolean resumed = false;
+
+        private Session(String token, String nickName) {
+
+            this.token = token;
+            this.nickName = nickName;
+
+        }
+
+        /**
+         * Getter methods for the variables of the session.
+         */
+        public String getToken() {
+            return token;
+        }
+
+        public synchronized String getRoomName() {
+            return roomName;
+        }
+
+        public synchronized long getResumeSequence() {
+            return resumeSequence;
+        }
+
+        public synchronized boolean isResumed() {
+            return resumed;
+        }
+
+        public synchronized ClientConnection getPreviousClient() {
+            return previousClient;
+        }
+
+    }
+
+}
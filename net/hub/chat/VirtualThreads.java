@@ -0,0 +1,73 @@
+package net.hub.chat;
+
+import java.lang.reflect.Method;
+
+/**
+ * A small helper which creates virtual threads when the running JVM supports them.
+ * The methods are looked up by reflection so that the sources still compile and run on JVMs older than 21,
+ * in which case isSupported() returns false and platform threads are created instead.
+ */
+public final class VirtualThreads {
+
+    private static final Object BUILDER;
+    private static final Method UNSTARTED;
+
+    static {
+
+        Object builder = null;
+        Method unstarted = null;
+
+        try {
+
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+
+        } catch (Exception ex) {
+
+            builder = null;
+            unstarted = null;
+
+        }
+
+        BUILDER = builder;
+        UNSTARTED = unstarted;
+
+    }
+
+    private VirtualThreads() {
+
+    }
+
+    /**
+     * Check to see if virtual threads can be created on this JVM.
+     * @return true if virtual threads are supported else false
+     */
+    public static boolean isSupported() {
+
+        return BUILDER != null;
+
+    }
+
+    /**
+     * Creates a new unstarted virtual thread for the given task, or a platform thread if they are not supported.
+     * @param task the task the thread will execute
+     * @return the new thread
+     */
+    public static Thread newThread(Runnable task) {
+
+        if (!isSupported())
+            return new Thread(task);
+
+        try {
+
+            return (Thread) UNSTARTED.invoke(BUILDER, task);
+
+        } catch (Exception ex) {
+
+            return new Thread(task);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,13 @@
+package net.hub.chat;
+
+/**
+ * The wire formats understood by the chat server.
+ * LEGACY is the original format, every message is a writeUTF string and commands are recognised by their prefix.
+ * V2 is the binary format negotiated in the nick name handshake, see ProtocolV2.
+ */
+public enum WireProtocol {
+
+    LEGACY,
+    V2
+
+}
@@ -0,0 +1,431 @@
+package net.hub.chat.cluster;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The bus connecting the nodes of a cluster of chat servers which share the same logical rooms.
+ * Every node listens on its cluster port and opens a link to every peer in its list, so the nodes form a full mesh
+ * of plain TCP links, each of them carrying the records of one node to another and no outside broker is needed.
+ * A chat message received by a node is transmitted to its own clients and relayed once to every peer, which transmits it
+ * to the members of the room on that node. Relayed messages are never relayed again, which is why every node
+ * has to list every other node as a peer.
+ * Every node also tells its peers which clients are in which room, with a snapshot whenever a link is opened
+ * and a record for every join and leave, so the participants of a room can be listed across the cluster.
+ * The members of a node are forgotten as soon as its link is closed. Messages sent while a link is down are not replayed.
+ * The links are neither encrypted nor authenticated by the transport, so the cluster port is bound to the given address only,
+ * the loopback address by default, and when the cluster has a secret every link has to present it in its hello before
+ * any of its records is applied.
+ */
+public class ClusterBus implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(ClusterBus.class);
+
+    private ChatServer chatServer;
+    private String nodeName;
+    private String bindAddress;
+    private int port;
+    private String secret;
+    private ServerSocket serverSocket;
+    private List<PeerLink> peers = new ArrayList<PeerLink>();
+    private List<Thread> threads = new ArrayList<Thread>();
+    private ConcurrentHashMap<String, RemoteNode> remoteNodes = new ConcurrentHashMap<String, RemoteNode>();
+    private AtomicLong receivedRecords = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new bus for the given chat server.
+     * @param chatServer the chat server of this node
+     * @param nodeName the name of this node, unique in the cluster
+     * @param bindAddress the address the cluster port is bound to
+     * @param port the port on which this node accepts the links of its peers
+     * @param secret the secret shared by the nodes of the cluster, or null if the links are not checked
+     * @param peerAddresses the addresses of the cluster ports of the other nodes, as host:port
+     * @param queueCapacity the number of records queued for a peer before the oldest ones are dropped
+     * @param reconnectMillis how long to wait before connecting again to a peer that could not be reached
+     */
+    public ClusterBus(ChatServer chatServer, String nodeName, String bindAddress, int port, String secret, List<String> peerAddresses,
+                      int queueCapacity, long reconnectMillis) {
+
+        this.chatServer = chatServer;
+        this.nodeName = nodeName;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.secret = secret;
+
+        for (String peerAddress : peerAddresses) {
+
+            int separator = peerAddress.lastIndexOf(':');
+            InetSocketAddress address = new InetSocketAddress(peerAddress.substring(0, separator), Integer.parseInt(peerAddress.substring(separator + 1)));
+            this.peers.add(new PeerLink(this, address, queueCapacity, reconnectMillis));
+
+        }
+
+    }
+
+    /**
+     * Binds the cluster port and starts the threads accepting the links of the peers and opening the links to them.
+     * @throws IOException if the cluster port can not be bound
+     */
+    public void start() throws IOException {
+
+        this.serverSocket = new ServerSocket(this.port, 50, InetAddress.getByName(this.bindAddress));
+        LOG.info("Cluster node {} listening at {}", this.nodeName, this.serverSocket.getLocalSocketAddress());
+
+        startThread(new Runnable() {
+            public void run() {
+                acceptLinks();
+            }
+        }, "ClusterBus-accept");
+
+        for (PeerLink peer : this.peers)
+            startThread(peer, "ClusterBus-link-" + peer.getAddress());
+
+    }
+
+    private void startThread(Runnable task, String name) {
+
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        this.threads.add(thread);
+        thread.start();
+
+    }
+
+    /**
+     * Accepts the links of the peers, each of them read by its own thread.
+     */
+    private void acceptLinks() {
+
+        while (!this.closed) {
+
+            try {
+
+                final Socket socket = this.serverSocket.accept();
+                Thread reader = new Thread(new Runnable() {
+                    public void run() {
+                        readLink(socket);
+                    }
+                }, "ClusterBus-reader-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+
+            } catch (IOException ie) {
+
+                if (!this.closed)
+                    LOG.error("There was an error while accepting a cluster link : {}", ie);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Reads the records of a link opened by a peer until the link is closed, then forgets the members of the peer.
+     */
+    private void readLink(Socket socket) {
+
+        RemoteNode node = null;
+
+        try {
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            if (in.readByte() != ClusterRecord.HELLO)
+                throw new IOException("The cluster link did not start with a hello");
+
+            String name = ClusterRecord.readString(in);
+
+            if (!acceptsSecret(ClusterRecord.readString(in)))
+                throw new IOException("The cluster link of " + name + " did not present the secret of the cluster");
+
+            node = new RemoteNode(name);
+            this.remoteNodes.put(node.getName(), node);
+            LOG.info("Cluster node {} linked from {}", node.getName(), socket.getRemoteSocketAddress());
+
+            while (true) {
+
+                readRecord(in, node);
+                this.receivedRecords.incrementAndGet();
+
+            }
+
+        } catch (EOFException ee) {
+
+            LOG.debug("The cluster link was closed : {}", socket);
+
+        } catch (IOException ie) {
+
+            LOG.warn("There was an error while reading the cluster link {} : {}", socket, ie.getMessage());
+
+        } finally {
+
+            if (node != null && this.remoteNodes.remove(node.getName(), node))
+                LOG.info("Cluster node {} left", node.getName());
+
+            try {
+
+                socket.close();
+
+            } catch (IOException ie) {
+
+                LOG.debug("There was an error while closing the cluster link : {}", socket);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Checks the secret presented in the hello of a link against the secret of this node, in constant time.
+     * @param presented the secret of the peer, empty if it has none
+     * @return true if this node has no secret or the peer presented the same one, else false
+     */
+    private boolean acceptsSecret(String presented) {
+
+        if (this.secret == null)
+            return true;
+
+        return MessageDigest.isEqual(this.secret.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+
+    }
+
+    /**
+     * Reads a single record and applies it to this node.
+     */
+    private void readRecord(DataInputStream in, RemoteNode node) throws IOException {
+
+        int type = in.readByte();
+
+        if (type == ClusterRecord.CHAT) {
+
+            String room = ClusterRecord.readString(in);
+            String nickName = ClusterRecord.readString(in);
+            this.chatServer.deliverRelayedChat(room, nickName, ClusterRecord.readString(in));
+
+        } else if (type == ClusterRecord.JOIN) {
+
+            String room = ClusterRecord.readString(in);
+            String nickName = ClusterRecord.readString(in);
+            node.join(room, nickName);
+            this.chatServer.deliverRelayedNotice(room, nickName + " has entered the chat room!");
+
+        } else if (type == ClusterRecord.LEAVE) {
+
+            String room = ClusterRecord.readString(in);
+            String nickName = ClusterRecord.readString(in);
+            node.leave(room, nickName);
+            this.chatServer.deliverRelayedNotice(room, nickName + " has left the chat room!");
+            this.chatServer.releaseNickId(nickName);
+
+        } else if (type == ClusterRecord.SNAPSHOT) {
+
+            Map<String, List<String>> snapshot = new HashMap<String, List<String>>();
+            int rooms = in.readInt();
+
+            for (int i = 0; i < rooms; i++) {
+
+                String room = ClusterRecord.readString(in);
+                int count = in.readInt();
+                List<String> members = new ArrayList<String>();
+
+                for (int j = 0; j < count; j++)
+                    members.add(ClusterRecord.readString(in));
+
+                snapshot.put(room, members);
+
+            }
+
+            node.replace(snapshot);
+
+        } else {
+
+            throw new IOException("Unknown cluster record type : " + type);
+
+        }
+
+    }
+
+    /**
+     * Relays a chat message received by this node to every peer.
+     * @param room the name of the room
+     * @param nickName the nick name of the sender
+     * @param text the message
+     */
+    public void relayChat(String room, String nickName, String text) {
+
+        relay(ClusterRecord.chat(room, nickName, text));
+
+    }
+
+    /**
+     * Tells every peer that a client of this node joined a room.
+     * @param room the name of the room
+     * @param nickName the nick name of the client
+     */
+    public void relayJoin(String room, String nickName) {
+
+        relay(ClusterRecord.join(room, nickName));
+
+    }
+
+    /**
+     * Tells every peer that a client of this node left a room.
+     * @param room the name of the room
+     * @param nickName the nick name of the client
+     */
+    public void relayLeave(String room, String nickName) {
+
+        relay(ClusterRecord.leave(room, nickName));
+
+    }
+
+    private void relay(byte[] record) {
+
+        for (PeerLink peer : this.peers)
+            peer.offer(record);
+
+    }
+
+    /**
+     * Returns the members of a room on the other nodes.
+     * @param room the name of the room
+     * @return the nick names of the members, each followed by the name of its node in brackets
+     */
+    public List<String> getRemoteMembers(String room) {
+
+        List<String> members = new ArrayList<String>();
+
+        for (RemoteNode node : this.remoteNodes.values())
+            for (String nickName : node.getMembers(room))
+                members.add(nickName + " (" + node.getName() + ")");
+
+        return members;
+
+    }
+
+    /**
+     * Returns the members of the rooms of this node, for the snapshot sent when a link is opened.
+     */
+    Map<String, List<String>> localMembers() {
+
+        return this.chatServer.getRoomMembers();
+
+    }
+
+    /**
+     * Returns the number of peers this node currently has an open link to.
+     * @return the number of connected peers
+     */
+    public int getConnectedPeers() {
+
+        int connected = 0;
+
+        for (PeerLink peer : this.peers)
+            if (peer.isConnected())
+                connected++;
+
+        return connected;
+
+    }
+
+    /**
+     * Returns the number of records written to all the peers.
+     * @return the number of relayed records
+     */
+    public long getRelayedRecords() {
+
+        long relayed = 0;
+
+        for (PeerLink peer : this.peers)
+            relayed += peer.getRelayedRecords();
+
+        return relayed;
+
+    }
+
+    /**
+     * Returns the number of batches written to all the peers, each of them with a single flush.
+     * @return the number of batches
+     */
+    public long getRelayBatches() {
+
+        long batches = 0;
+
+        for (PeerLink peer : this.peers)
+            batches += peer.getBatches();
+
+        return batches;
+
+    }
+
+    /**
+     * Returns the number of records dropped because the queue of a peer was full.
+     * @return the number of dropped records
+     */
+    public long getDroppedRecords() {
+
+        long dropped = 0;
+
+        for (PeerLink peer : this.peers)
+            dropped += peer.getDroppedRecords();
+
+        return dropped;
+
+    }
+
+    /**
+     * Closes the cluster port and the links to the peers.
+     * @throws IOException if the cluster port could not be closed
+     */
+    public void close() throws IOException {
+
+        this.closed = true;
+
+        for (PeerLink peer : this.peers)
+            peer.close();
+
+        for (Thread thread : this.threads)
+            thread.interrupt();
+
+        if (this.serverSocket != null)
+            this.serverSocket.close();
+
+    }
+
+    /**
+     * Getter methods for the internal variables.
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    String getSecret() {
+        return secret;
+    }
+
+    public long getReceivedRecords() {
+        return receivedRecords.get();
+    }
+
+}
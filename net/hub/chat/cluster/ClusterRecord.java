@@ -0,0 +1,154 @@
+package net.hub.chat.cluster;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The records exchanged between the nodes of a cluster. Every record is a type byte followed by its fields,
+ * the strings are written as an int length and their UTF-8 bytes so that a chat message of any size can be relayed.
+ * A record is encoded once and the same bytes are queued for every peer.
+ */
+final class ClusterRecord {
+
+    static final int HELLO = 1;
+    static final int SNAPSHOT = 2;
+    static final int JOIN = 3;
+    static final int LEAVE = 4;
+    static final int CHAT = 5;
+
+    private static final int MAX_STRING_BYTES = 1024 * 1024;
+
+    private ClusterRecord() {
+
+    }
+
+    /**
+     * Encodes the first record of a link, which holds the name of the node that opened it and the secret of the cluster,
+     * empty if the cluster has none.
+     */
+    static byte[] hello(String nodeName, String secret) {
+
+        return encode(HELLO, nodeName, secret == null ? "" : secret, null);
+
+    }
+
+    /**
+     * Encodes a client joining a room.
+     */
+    static byte[] join(String room, String nickName) {
+
+        return encode(JOIN, room, nickName, null);
+
+    }
+
+    /**
+     * Encodes a client leaving a room.
+     */
+    static byte[] leave(String room, String nickName) {
+
+        return encode(LEAVE, room, nickName, null);
+
+    }
+
+    /**
+     * Encodes a chat message sent to a room.
+     */
+    static byte[] chat(String room, String nickName, String text) {
+
+        return encode(CHAT, room, nickName, text);
+
+    }
+
+    /**
+     * Encodes the members of all the rooms of a node, by room name.
+     */
+    static byte[] snapshot(Map<String, List<String>> members) {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SNAPSHOT);
+            out.writeInt(members.size());
+
+            for (Map.Entry<String, List<String>> room : members.entrySet()) {
+
+                writeString(out, room.getKey());
+                out.writeInt(room.getValue().size());
+
+                for (String nickName : room.getValue())
+                    writeString(out, nickName);
+
+            }
+
+            return bytes.toByteArray();
+
+        } catch (IOException ie) {
+
+            throw new IllegalStateException(ie);
+
+        }
+
+    }
+
+    /**
+     * Encodes a record with up to three string fields.
+     */
+    private static byte[] encode(int type, String first, String second, String third) {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writeString(out, first);
+
+            if (second != null)
+                writeString(out, second);
+
+            if (third != null)
+                writeString(out, third);
+
+            return bytes.toByteArray();
+
+        } catch (IOException ie) {
+
+            throw new IllegalStateException(ie);
+
+        }
+
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+
+    }
+
+    /**
+     * Reads a string field of a record.
+     * @param in the stream of the link
+     * @return the string
+     * @throws IOException if the stream ends or the string is too long
+     */
+    static String readString(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+
+        if (length < 0 || length > MAX_STRING_BYTES)
+            throw new IOException("Invalid string length : " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+
+    }
+
+}
@@ -0,0 +1,200 @@
+package net.hub.chat.cluster;
+
+import net.hub.chat.OutboundQueue;
+import net.hub.chat.OverflowPolicy;
+import net.hub.chat.logging.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The outbound link from this node to a peer. The records for the peer are put in a bounded queue and a writer
+ * thread drains them to the socket, coalescing every record that is already queued in a batch written with a single flush,
+ * so a burst of relays costs one system call instead of one per record. A slow peer only fills its own queue,
+ * where the oldest records are dropped and counted.
+ * If the peer can not be reached the link keeps trying to connect again. After every connect the link starts over
+ * with its hello and a snapshot of the local members. The records are queued again before the snapshot is taken,
+ * so a join or leave can be both in the snapshot and after it, which the peer ignores, but never in neither.
+ */
+class PeerLink implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(PeerLink.class);
+
+    private static final int BATCH_MAX_BYTES = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private ClusterBus bus;
+    private InetSocketAddress address;
+    private OutboundQueue<byte[]> queue;
+    private long reconnectMillis;
+    private volatile Socket socket;
+    private volatile boolean connected = false;
+    private volatile boolean closed = false;
+    private volatile long relayedRecords = 0;
+    private volatile long batches = 0;
+
+    PeerLink(ClusterBus bus, InetSocketAddress address, int queueCapacity, long reconnectMillis) {
+
+        this.bus = bus;
+        this.address = address;
+        this.queue = new OutboundQueue<byte[]>(queueCapacity, OverflowPolicy.DROP_OLDEST);
+        this.reconnectMillis = reconnectMillis;
+
+    }
+
+    /**
+     * Queues a record for the peer. While the peer is not connected the record is ignored,
+     * the peer learns the current members from the snapshot of the next connect.
+     * @param record the encoded record
+     */
+    void offer(byte[] record) {
+
+        if (this.connected)
+            this.queue.offer(record);
+
+    }
+
+    /**
+     * The loop of the writer, which connects to the peer and writes the queued records until the link fails,
+     * then waits and connects again until the link is closed.
+     */
+    public void run() {
+
+        while (!this.closed) {
+
+            try {
+
+                Socket socket = new Socket();
+                this.socket = socket;
+                socket.connect(this.address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                writeRecords(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BATCH_MAX_BYTES)));
+
+            } catch (IOException ie) {
+
+                if (this.connected)
+                    LOG.warn("Lost the link to the cluster peer : {}", this.address);
+                else
+                    LOG.debug("There was an error while connecting to the cluster peer : {}", this.address);
+
+            } catch (InterruptedException ie) {
+
+                return;
+
+            } finally {
+
+                this.connected = false;
+                closeSocket();
+
+            }
+
+            try {
+
+                if (!this.closed)
+                    Thread.sleep(this.reconnectMillis);
+
+            } catch (InterruptedException ie) {
+
+                return;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Starts the link over with the hello and the snapshot and then writes the queued records in batches.
+     */
+    private void writeRecords(DataOutputStream out) throws IOException, InterruptedException {
+
+        while (this.queue.poll() != null);
+
+        this.connected = true;
+        out.write(ClusterRecord.hello(this.bus.getNodeName(), this.bus.getSecret()));
+        out.write(ClusterRecord.snapshot(this.bus.localMembers()));
+        out.flush();
+        LOG.info("Connected to the cluster peer : {}", this.address);
+
+        while (!this.closed) {
+
+            byte[] record = this.queue.take();
+            int batchBytes = 0;
+            int batchRecords = 0;
+
+            while (record != null) {
+
+                out.write(record);
+                batchBytes += record.length;
+                batchRecords++;
+
+                if (batchBytes >= BATCH_MAX_BYTES)
+                    break;
+
+                record = this.queue.poll();
+
+            }
+
+            out.flush();
+            this.relayedRecords += batchRecords;
+            this.batches++;
+
+        }
+
+    }
+
+    private void closeSocket() {
+
+        Socket socket = this.socket;
+
+        try {
+
+            if (socket != null)
+                socket.close();
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while closing the link to the cluster peer : {}", this.address);
+
+        }
+
+    }
+
+    /**
+     * Closes the link, the writer terminates once it is interrupted by the bus.
+     */
+    void close() {
+
+        this.closed = true;
+        this.queue.close();
+        closeSocket();
+
+    }
+
+    /**
+     * Getter methods for the internal variables.
+     */
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    long getRelayedRecords() {
+        return relayedRecords;
+    }
+
+    long getBatches() {
+        return batches;
+    }
+
+    long getDroppedRecords() {
+        return queue.getDroppedMessages();
+    }
+
+}
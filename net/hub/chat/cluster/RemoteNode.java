@@ -0,0 +1,77 @@
+package net.hub.chat.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The view of the room members of another node of the cluster, as told by the records of its link.
+ * It is updated by the reader of the link and read by the participants command, so every method is synchronized.
+ * The members of a room are kept as a set, so a join that is both in a snapshot and in a record after it is counted once.
+ */
+class RemoteNode {
+
+    private String name;
+    private Map<String, Set<String>> members = new HashMap<String, Set<String>>();
+
+    RemoteNode(String name) {
+
+        this.name = name;
+
+    }
+
+    synchronized void replace(Map<String, List<String>> snapshot) {
+
+        this.members.clear();
+
+        for (Map.Entry<String, List<String>> room : snapshot.entrySet())
+            this.members.put(room.getKey(), new LinkedHashSet<String>(room.getValue()));
+
+    }
+
+    synchronized void join(String room, String nickName) {
+
+        Set<String> roomMembers = this.members.get(room);
+
+        if (roomMembers == null) {
+
+            roomMembers = new LinkedHashSet<String>();
+            this.members.put(room, roomMembers);
+
+        }
+
+        roomMembers.add(nickName);
+
+    }
+
+    synchronized void leave(String room, String nickName) {
+
+        Set<String> roomMembers = this.members.get(room);
+
+        if (roomMembers == null)
+            return;
+
+        roomMembers.remove(nickName);
+
+        if (roomMembers.isEmpty())
+            this.members.remove(room);
+
+    }
+
+    synchronized List<String> getMembers(String room) {
+
+        Set<String> roomMembers = this.members.get(room);
+        return roomMembers == null ? new ArrayList<String>() : new ArrayList<String>(roomMembers);
+
+    }
+
+    String getName() {
+
+        return this.name;
+
+    }
+
+}
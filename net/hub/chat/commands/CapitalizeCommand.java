@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that returns the message of the client in capital letters.
+ */
+public class CapitalizeCommand implements Command {
+
+    public String getName() {
+        return "capitalize";
+    }
+
+    public String getArguments() {
+        return "<message>";
+    }
+
+    public String getDescription() {
+        return "to get your message back in capital letters";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return arguments.toUpperCase();
+
+    }
+
+}
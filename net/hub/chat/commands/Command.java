@@ -0,0 +1,40 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The interface implemented by every advanced feature command of the chat server.
+ * A command is registered in the CommandRegistry of the server configuration under its name and is dispatched
+ * when a client sends the command prefix followed by that name, so new commands are added without editing the chat server.
+ */
+public interface Command {
+
+    /**
+     * Returns the name that the clients type after the command prefix to execute the command.
+     * @return the name of the command, without whitespace
+     */
+    String getName();
+
+    /**
+     * Returns the arguments of the command as they are shown in the help, for example "&lt;message&gt;".
+     * @return the arguments of the command or an empty string if it takes none
+     */
+    String getArguments();
+
+    /**
+     * Returns the description of the command as it is shown in the help.
+     * @return the description of the command
+     */
+    String getDescription();
+
+    /**
+     * Executes the command for the client who sent it.
+     * @param server the chat server the client is connected to
+     * @param client the client who sent the command
+     * @param arguments whatever follows the name of the command, trimmed, or an empty string
+     * @return the reply which is transmitted back to the client
+     */
+    String execute(ChatServer server, ClientConnection client, String arguments);
+
+}
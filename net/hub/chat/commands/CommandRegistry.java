@@ -0,0 +1,209 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The registry of the advanced feature commands of the chat server.
+ * The commands are kept in an open addressing hash table keyed by their names. A received message is dispatched by
+ * hashing its command token in place, so the lookup takes constant time and nothing is copied except for the arguments.
+ * The table is replaced on every registration and read without locking, so commands can be registered at any time
+ * while the connected clients keep sending commands.
+ */
+public class CommandRegistry {
+
+    private volatile Command[] table = new Command[16];
+    private List<Command> commands = new ArrayList<Command>();
+    private String help;
+
+    /**
+     * Creates a new registry holding the built in commands of the chat server.
+     * @return the new registry
+     */
+    public static CommandRegistry withBuiltinCommands() {
+
+        CommandRegistry registry = new CommandRegistry();
+        registry.register(new HelpCommand());
+        registry.register(new ReverseCommand());
+        registry.register(new CapitalizeCommand());
+        registry.register(new ParticipantsCommand());
+        registry.register(new JoinCommand());
+        registry.register(new LeaveCommand());
+        registry.register(new RoomsCommand());
+        registry.register(new HistoryCommand());
+        registry.register(new StatsCommand());
+        registry.register(new LagCommand());
+        registry.register(new MsgCommand());
+        registry.register(new DateTimeCommand("date", "to get the current date", "Current date : ", "dd/MM/yyyy"));
+        registry.register(new DateTimeCommand("time", "to get the current time", "Current time : ", "HH:mm:ss"));
+        return registry;
+
+    }
+
+    /**
+     * Registers a command, replacing any command already registered with the same name.
+     * @param command the command to register
+     */
+    public synchronized void register(Command command) {
+
+        String name = command.getName();
+
+        for (int i = 0; i < this.commands.size(); i++) {
+
+            if (this.commands.get(i).getName().equals(name)) {
+
+                this.commands.remove(i);
+                break;
+
+            }
+
+        }
+
+        this.commands.add(command);
+
+        int capacity = this.table.length;
+
+        while (capacity < this.commands.size() * 2)
+            capacity *= 2;
+
+        Command[] newTable = new Command[capacity];
+
+        for (Command registered : this.commands) {
+
+            String key = registered.getName();
+            int slot = hash(key, 0, key.length()) & (capacity - 1);
+
+            while (newTable[slot] != null)
+                slot = (slot + 1) & (capacity - 1);
+
+            newTable[slot] = registered;
+
+        }
+
+        this.table = newTable;
+        this.help = null;
+
+    }
+
+    /**
+     * Returns the commands in the order they were registered.
+     * @return the list of the commands
+     */
+    public synchronized List<Command> getCommands() {
+
+        return Collections.unmodifiableList(new ArrayList<Command>(this.commands));
+
+    }
+
+    /**
+     * Finds the command whose name is the given region of a string, without copying the region.
+     * @param text the string holding the name
+     * @param start the index of the first character of the name
+     * @param end the index after the last character of the name
+     * @return the command or null if no command has this name
+     */
+    public Command find(String text, int start, int end) {
+
+        Command[] table = this.table;
+        int length = end - start;
+        int slot = hash(text, start, end) & (table.length - 1);
+
+        while (table[slot] != null) {
+
+            String name = table[slot].getName();
+
+            if (name.length() == length && text.regionMatches(start, name, 0, length))
+                return table[slot];
+
+            slot = (slot + 1) & (table.length - 1);
+
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Parses the command that starts at the given index of a message and executes it.
+     * The first token is the name of the command and the rest of the message, trimmed, are its arguments.
+     * @param server the chat server the client is connected to
+     * @param client the client who sent the command
+     * @param message the message holding the command
+     * @param start the index right after the command prefix
+     * @return the reply of the command or null if no command matches
+     */
+    public String dispatch(ChatServer server, ClientConnection client, String message, int start) {
+
+        int end = message.length();
+
+        while (end > start && Character.isWhitespace(message.charAt(end - 1)))
+            end--;
+
+        while (start < end && Character.isWhitespace(message.charAt(start)))
+            start++;
+
+        int tokenEnd = start;
+
+        while (tokenEnd < end && !Character.isWhitespace(message.charAt(tokenEnd)))
+            tokenEnd++;
+
+        Command command = find(message, start, tokenEnd);
+
+        if (command == null)
+            return null;
+
+        int argumentsStart = tokenEnd;
+
+        while (argumentsStart < end && Character.isWhitespace(message.charAt(argumentsStart)))
+            argumentsStart++;
+
+        return command.execute(server, client, argumentsStart == end ? "" : message.substring(argumentsStart, end));
+
+    }
+
+    /**
+     * Returns the help message listing all registered commands. It is built once and kept until a command is registered.
+     * @return the help message
+     */
+    public synchronized String getHelp() {
+
+        if (this.help != null)
+            return this.help;
+
+        StringBuilder builder = new StringBuilder("You can use the following advanced commands\n");
+
+        for (Command command : this.commands) {
+
+            builder.append(ChatServer.COMMAND_PREFIX).append(' ').append(command.getName());
+
+            if (command.getArguments().length() > 0)
+                builder.append(' ').append(command.getArguments());
+
+            builder.append(" : ").append(command.getDescription()).append('\n');
+
+        }
+
+        this.help = builder.toString();
+        return this.help;
+
+    }
+
+    /**
+     * Hashes a region of a string, the same way for the registered names and the received tokens.
+     */
+    private static int hash(String text, int start, int end) {
+
+        int hash = 0;
+
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + text.charAt(i);
+
+        return hash ^ (hash >>> 16);
+
+    }
+
+}
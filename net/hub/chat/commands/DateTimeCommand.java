@@ -0,0 +1,54 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A command that returns the current date or time of the server in the given pattern.
+ * The formatter is created once and, being immutable, is shared by all clients executing the command.
+ */
+public class DateTimeCommand implements Command {
+
+    private final String name;
+    private final String description;
+    private final String label;
+    private final DateTimeFormatter formatter;
+
+    /**
+     * Creates a new date and time command.
+     * @param name the name of the command
+     * @param description the description of the command shown in the help
+     * @param label the text put before the formatted date or time in the reply
+     * @param pattern the DateTimeFormatter pattern of the reply, for example "dd/MM/yyyy"
+     */
+    public DateTimeCommand(String name, String description, String label, String pattern) {
+
+        this.name = name;
+        this.description = description;
+        this.label = label;
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return label + formatter.format(LocalDateTime.now());
+
+    }
+
+}
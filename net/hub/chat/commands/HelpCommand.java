@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that lists all registered commands, with the help built by the registry.
+ */
+public class HelpCommand implements Command {
+
+    public String getName() {
+        return "help";
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return "to get this list of the advanced commands";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return server.getCommandRegistry().getHelp();
+
+    }
+
+}
@@ -0,0 +1,44 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that returns the most recent messages of the chat room of the client.
+ */
+public class HistoryCommand implements Command {
+
+    public String getName() {
+        return "history";
+    }
+
+    public String getArguments() {
+        return "<n>";
+    }
+
+    public String getDescription() {
+        return "to get the last n messages of the chat room";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        int count;
+
+        try {
+
+            count = Integer.parseInt(arguments);
+
+        } catch (NumberFormatException ex) {
+
+            count = 0;
+
+        }
+
+        if (count <= 0)
+            return "Please provide the number of messages, for example " + ChatServer.COMMAND_PREFIX + " history 10";
+
+        return server.createHistoryList(client.getRoom(), count);
+
+    }
+
+}
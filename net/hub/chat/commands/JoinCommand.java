@@ -0,0 +1,32 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that moves the client to another chat room.
+ */
+public class JoinCommand implements Command {
+
+    public String getName() {
+        return "join";
+    }
+
+    public String getArguments() {
+        return "<room>";
+    }
+
+    public String getDescription() {
+        return "to move to another chat room, which is created if it does not exist";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        if ("".equals(arguments))
+            return "Please provide the name of the room to join!";
+
+        return "You are now in the room : " + server.joinRoom(client, arguments).getName();
+
+    }
+
+}
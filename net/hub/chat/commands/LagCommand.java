@@ -0,0 +1,31 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that returns the clients which are furthest behind in acknowledging the messages of their rooms.
+ */
+public class LagCommand implements Command {
+
+    private static final int LISTED_CLIENTS = 10;
+
+    public String getName() {
+        return "lag";
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return "to get the clients which are furthest behind";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return server.createLagList(LISTED_CLIENTS);
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that moves the client back to the lobby.
+ */
+public class LeaveCommand implements Command {
+
+    public String getName() {
+        return "leave";
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return "to go back to the lobby";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return "You are now in the room : " + server.joinRoom(client, ChatServer.LOBBY).getName();
+
+    }
+
+}
@@ -0,0 +1,40 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that sends a private message to a single client, found by its nick name in any room.
+ */
+public class MsgCommand implements Command {
+
+    public String getName() {
+        return "msg";
+    }
+
+    public String getArguments() {
+        return "<nick> <text>";
+    }
+
+    public String getDescription() {
+        return "to send a private message to a client";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        int separator = arguments.indexOf(' ');
+
+        if (separator < 0)
+            return "Please provide the nick name of the recipient and the message!";
+
+        String nickName = arguments.substring(0, separator);
+        String text = arguments.substring(separator + 1).trim();
+
+        if (!server.transmitPrivately(client, nickName, text))
+            return "There is no client with the nick name : " + nickName;
+
+        return "Private message sent to " + nickName;
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that lists the participants of the chat room of the client.
+ */
+public class ParticipantsCommand implements Command {
+
+    public String getName() {
+        return "participants";
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return "to get the list of participants in the chat room";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return server.createParticipantsList(client.getRoom());
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that returns the message of the client reversed.
+ */
+public class ReverseCommand implements Command {
+
+    public String getName() {
+        return "reverse";
+    }
+
+    public String getArguments() {
+        return "<message>";
+    }
+
+    public String getDescription() {
+        return "to get your message back reversed";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return new StringBuilder(arguments).reverse().toString();
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that lists the open chat rooms.
+ */
+public class RoomsCommand implements Command {
+
+    public String getName() {
+        return "rooms";
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return "to get the list of the open chat rooms";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return server.createRoomsList();
+
+    }
+
+}
@@ -0,0 +1,29 @@
+package net.hub.chat.commands;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+
+/**
+ * The command that returns the metrics of the chat server, the same ones which are exposed through JMX.
+ */
+public class StatsCommand implements Command {
+
+    public String getName() {
+        return "stats";
+    }
+
+    public String getArguments() {
+        return "";
+    }
+
+    public String getDescription() {
+        return "to get the statistics of the chat server";
+    }
+
+    public String execute(ChatServer server, ClientConnection client, String arguments) {
+
+        return server.getStats().render();
+
+    }
+
+}
@@ -0,0 +1,115 @@
+package net.hub.chat.examples;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ChatServerConfig;
+import net.hub.chat.ServerMode;
+import net.hub.chat.logging.LogLevel;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An example of a cluster of chat servers on localhost. The given number of nodes are started in the same JVM,
+ * each of them listing the cluster ports of all the others as its peers. A plain socket client connects to every node,
+ * they all chat in the lobby and one of them lists the participants, which shows the members of every node.
+ * Every message a client receives is printed with the name of the client.
+ * Usage : ClusterExample [nodes] [first chat port] [first cluster port]
+ */
+public class ClusterExample {
+
+    public static void main(String [ ] args) throws Exception {
+
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int chatPort = args.length > 1 ? Integer.parseInt(args[1]) : 16800;
+        int clusterPort = args.length > 2 ? Integer.parseInt(args[2]) : 17800;
+
+        for (int i = 0; i < nodes; i++) {
+
+            ChatServerConfig config = new ChatServerConfig(chatPort + i, ServerMode.NIO);
+            config.setLogLevel(LogLevel.WARN);
+            config.setClusterPort(clusterPort + i);
+            List<String> peers = new ArrayList<String>();
+
+            for (int j = 0; j < nodes; j++)
+                if (j != i)
+                    peers.add("localhost:" + (clusterPort + j));
+
+            config.setClusterPeers(peers);
+            startServer(config);
+
+        }
+
+        Thread.sleep(2000);
+        List<DataOutputStream> clients = new ArrayList<DataOutputStream>();
+
+        for (int i = 0; i < nodes; i++) {
+
+            clients.add(connect("localhost", chatPort + i, "client-" + i));
+            Thread.sleep(200);
+
+        }
+
+        for (int i = 0; i < nodes; i++) {
+
+            clients.get(i).writeUTF("hello from node " + i);
+            Thread.sleep(200);
+
+        }
+
+        clients.get(0).writeUTF("$\\ participants");
+        Thread.sleep(500);
+        System.exit(0);
+
+    }
+
+    /**
+     * Connects a client to a node and starts a thread printing every message it receives.
+     * @return the stream used to send messages
+     */
+    private static DataOutputStream connect(String host, int port, final String nickName) throws IOException {
+
+        Socket socket = new Socket(host, port);
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(nickName);
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true)
+                        System.out.println(nickName + " < " + in.readUTF().trim().replace("\n", "\n" + nickName + " < "));
+                } catch (IOException ie) {
+                    System.out.println(nickName + " was disconnected.");
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        return out;
+
+    }
+
+    /**
+     * Starts a node in a daemon thread, since the constructor of the chat server never returns.
+     */
+    private static void startServer(final ChatServerConfig config) {
+
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new ChatServer(config);
+                } catch (IOException e) {
+                    System.out.println("There was an error listening to  port : " + config.getPort());
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+    }
+
+}
@@ -0,0 +1,120 @@
+package net.hub.chat.examples;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ServerMode;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple load test which shows the memory cost of every connection for a given server mode.
+ * The chat server is started in the same JVM and then the given number of sockets are opened against it.
+ * The sockets never send their nick name, so each handler stays blocked in readUTF() exactly like an idle client.
+ * The heap, the resident set size (which includes the thread stacks) and the live thread count are measured before
+ * and after the connections are opened. The client sockets live in the same JVM and are included in the numbers,
+ * but they cost the same in every mode so the difference between the modes is what the server spends.
+ * Usage : ConnectionMemoryExample [THREAD_PER_CONNECTION|VIRTUAL_THREADS|NIO] [connections] [port]
+ */
+public class ConnectionMemoryExample {
+
+    public static void main(String [ ] args) throws Exception {
+
+        final ServerMode mode = args.length > 0 ? ServerMode.valueOf(args[0]) : ServerMode.VIRTUAL_THREADS;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : 16667;
+
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new ChatServer(port, mode);
+                } catch (IOException e) {
+                    System.out.println("There was an error listening to  port : " + port);
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(500);
+
+        long heapBefore = usedHeap();
+        long rssBefore = residentSetSize();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        List<Socket> sockets = new ArrayList<Socket>();
+
+        for (int i = 0; i < connections; i++)
+            sockets.add(new Socket("localhost", port));
+
+        Thread.sleep(2000);
+
+        long heapAfter = usedHeap();
+        long rssAfter = residentSetSize();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        System.out.println("Mode : " + mode + ", connections : " + connections);
+        System.out.println("Platform threads : " + threadsBefore + " -> " + threadsAfter);
+        System.out.println("Heap bytes per connection : " + (heapAfter - heapBefore) / connections);
+
+        if (rssBefore > 0)
+            System.out.println("Resident bytes per connection : " + (rssAfter - rssBefore) / connections);
+
+        System.exit(0);
+
+    }
+
+    /**
+     * Returns the used heap after requesting a garbage collection.
+     * @return the used heap in bytes
+     */
+    private static long usedHeap() throws InterruptedException {
+
+        System.gc();
+        Thread.sleep(200);
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+
+    }
+
+    /**
+     * Returns the resident set size of the process as reported by /proc/self/status on Linux.
+     * @return the resident set size in bytes or -1 if it is not available
+     */
+    private static long residentSetSize() {
+
+        try {
+
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"));
+
+            try {
+
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+
+                    if (line.startsWith("VmRSS:"))
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+
+                }
+
+            } finally {
+
+                reader.close();
+
+            }
+
+        } catch (IOException e) {
+
+            return -1;
+
+        }
+
+        return -1;
+
+    }
+
+}
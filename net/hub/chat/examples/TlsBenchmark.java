@@ -0,0 +1,265 @@
+package net.hub.chat.examples;
+
+import net.hub.chat.ChatClient;
+import net.hub.chat.ChatClientConfig;
+import net.hub.chat.ChatServer;
+import net.hub.chat.ChatServerConfig;
+import net.hub.chat.ProtocolV2;
+import net.hub.chat.ServerMode;
+import net.hub.chat.tls.TlsContexts;
+
+import javax.net.ssl.SSLContext;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * A benchmark of the overhead of TLS against plaintext, for the handshake and for the steady state.
+ * A self-signed test certificate for localhost is created with the keytool of the running JVM, which the server uses
+ * as its key store and the clients as their trust store.
+ * The handshake scenarios connect the given number of times and wait for the answer to the handshake of the protocol v2,
+ * over plaintext, over TLS with a new client context for every connection so that every handshake is a full one,
+ * and over TLS with a shared client context so that the connections resume the TLS session of the first one.
+ * The throughput scenarios are the ones of the WriteBatchingBenchmark in the batched output mode, over plaintext and over TLS,
+ * each run once on a server of its own to warm up the JIT before the measured run, so neither transport pays for the warm-up of the other.
+ * The average connect time, the messages per second and the median and 99th percentile latencies are printed for every scenario.
+ * Usage : TlsBenchmark [THREAD_PER_CONNECTION|VIRTUAL_THREADS|NIO] [connections] [messages] [message size] [port]
+ */
+public class TlsBenchmark {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    public static void main(String [ ] args) throws Exception {
+
+        ServerMode mode = args.length > 0 ? ServerMode.valueOf(args[0]) : ServerMode.NIO;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        int messageSize = args.length > 3 ? Integer.parseInt(args[3]) : 64;
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 16800;
+
+        String keyStore = createKeyStore();
+        SSLContext serverContext = TlsContexts.forServer(keyStore, PASSWORD);
+        SSLContext clientContext = TlsContexts.forClient(keyStore, PASSWORD);
+
+        startServer(newServerConfig(mode, port, messages, null));
+        startServer(newServerConfig(mode, port + 1, messages, serverContext));
+
+        handshakes("plaintext handshake", port, connections, null, null);
+        handshakes("TLS full handshake", port + 1, connections, null, keyStore);
+        handshakes("TLS resumed handshake", port + 1, connections, clientContext, null);
+
+        startServer(newServerConfig(mode, port + 2, messages, null));
+        startServer(newServerConfig(mode, port + 3, messages, serverContext));
+
+        throughput("plaintext (warm-up)", port + 2, messages, messageSize, null);
+        throughput("TLS (warm-up)", port + 3, messages, messageSize, clientContext);
+        throughput("plaintext", port, messages, messageSize, null);
+        throughput("TLS", port + 1, messages, messageSize, clientContext);
+
+        System.exit(0);
+
+    }
+
+    /**
+     * Creates a self-signed certificate for localhost in a temporary PKCS12 key store with the keytool of the running JVM.
+     * @return the path of the key store
+     */
+    private static String createKeyStore() throws IOException, InterruptedException {
+
+        File directory = Files.createTempDirectory("tls-benchmark").toFile();
+        File keyStore = new File(directory, "server.p12");
+        keyStore.deleteOnExit();
+        directory.deleteOnExit();
+
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "san=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.getPath(), "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        process.getInputStream().readAllBytes();
+
+        if (process.waitFor() != 0)
+            throw new IOException("The keytool could not create the test certificate");
+
+        return keyStore.getPath();
+
+    }
+
+    /**
+     * Creates the settings of a benchmark server, with TCP_NODELAY and the batched output mode, without rate limits.
+     * @param sslContext the TLS context of the server, or null for plaintext
+     */
+    private static ChatServerConfig newServerConfig(ServerMode mode, int port, int messages, SSLContext sslContext) {
+
+        ChatServerConfig config = new ChatServerConfig(port, mode);
+        config.setTcpNoDelay(true);
+        config.setWriteBatchMaxBytes(8192);
+        config.setOutboundQueueCapacity(messages);
+        config.setChatRatePerSecond(0);
+        config.setConnectionRatePerIp(0);
+        config.setSslContext(sslContext);
+        return config;
+
+    }
+
+    /**
+     * Runs a single handshake scenario and prints its results.
+     * @param name the name of the scenario
+     * @param port the port of the server
+     * @param connections the number of connections to open one after the other
+     * @param sharedContext the client context shared by the connections, or null
+     * @param trustStore the trust store a new client context is created from for every connection, or null for plaintext
+     *                   when there is no shared context either
+     */
+    private static void handshakes(String name, int port, int connections, SSLContext sharedContext, String trustStore) throws IOException {
+
+        long[] times = new long[connections];
+
+        for (int i = 0; i < connections; i++) {
+
+            SSLContext context = trustStore != null ? TlsContexts.forClient(trustStore, PASSWORD) : sharedContext;
+            long start = System.nanoTime();
+            Socket socket = context != null ? context.getSocketFactory().createSocket() : new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress("localhost", port));
+            new DataOutputStream(socket.getOutputStream()).writeUTF(ProtocolV2.hello("client" + i, false));
+            new DataInputStream(socket.getInputStream()).readUTF();
+            times[i] = System.nanoTime() - start;
+            socket.close();
+
+        }
+
+        Arrays.sort(times);
+        long total = 0;
+
+        for (long time : times)
+            total += time;
+
+        System.out.println(name + " : average " + total / connections / 1000 + " us, p50 " + times[connections / 2] / 1000
+                + " us, p99 " + times[(int) (connections * 0.99)] / 1000 + " us");
+
+    }
+
+    /**
+     * Runs a single throughput scenario and prints its results. A ChatClient transmits the given number of messages as fast
+     * as it can and a second, plain socket client receives the broadcasts, measuring the end to end latency of each message.
+     * The receiver reads through a buffer, like the TLS socket does by itself, so that both transports read it in large chunks.
+     * @param name the name of the scenario
+     * @param port the port of the server
+     * @param messages the number of messages to transmit
+     * @param messageSize the size of every message in characters
+     * @param sslContext the TLS context of both clients, or null for plaintext
+     */
+    private static void throughput(String name, int port, int messages, int messageSize, SSLContext sslContext) throws Exception {
+
+        Socket receiver = sslContext != null ? sslContext.getSocketFactory().createSocket() : new Socket();
+        receiver.setTcpNoDelay(true);
+        receiver.connect(new InetSocketAddress("localhost", port));
+        receiver.setSoTimeout(30000);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(receiver.getInputStream()));
+        new DataOutputStream(receiver.getOutputStream()).writeUTF("receiver");
+        in.readUTF();
+        in.readUTF();
+
+        ChatClientConfig clientConfig = new ChatClientConfig();
+        clientConfig.setWriteBatchMaxBytes(8192);
+        clientConfig.setWriteBatchWindowMillis(1);
+        clientConfig.setTcpNoDelay(true);
+        clientConfig.setSslContext(sslContext);
+        final ChatClient sender = new ChatClient("localhost", port, "sender", null, clientConfig);
+        in.readUTF();
+
+        char[] padding = new char[Math.max(0, messageSize - 20)];
+        Arrays.fill(padding, 'x');
+        final String suffix = " " + new String(padding);
+        final int total = messages;
+
+        Thread senderThread = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < total; i++)
+                    sender.transmit(System.nanoTime() + suffix);
+            }
+        });
+
+        long[] latencies = new long[messages];
+        int received = 0;
+        long start = System.nanoTime();
+        senderThread.start();
+
+        try {
+
+            while (received < messages) {
+
+                String message = in.readUTF();
+
+                if (!message.startsWith("sender : "))
+                    continue;
+
+                int end = message.indexOf(' ', 9);
+                latencies[received++] = System.nanoTime() - Long.parseLong(message.substring(9, end));
+
+            }
+
+        } catch (SocketTimeoutException e) {
+
+            System.out.println("Timed out, only " + received + " messages were received.");
+
+        }
+
+        long elapsed = System.nanoTime() - start;
+        receiver.close();
+
+        if (received == 0)
+            return;
+
+        long[] sorted = Arrays.copyOf(latencies, received);
+        Arrays.sort(sorted);
+
+        System.out.println(name + " : " + (received * 1000000000L / elapsed) + " messages/s, p50 latency "
+                + sorted[received / 2] / 1000 + " us, p99 latency " + sorted[(int) (received * 0.99)] / 1000 + " us");
+
+    }
+
+    /**
+     * Starts a chat server in the background and waits until it accepts connections.
+     * @param config the settings of the server
+     */
+    private static void startServer(final ChatServerConfig config) throws InterruptedException {
+
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new ChatServer(config);
+                } catch (IOException e) {
+                    System.out.println("There was an error listening to  port : " + config.getPort());
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        for (int i = 0; i < 50; i++) {
+
+            try {
+
+                new Socket("localhost", config.getPort()).close();
+                return;
+
+            } catch (IOException e) {
+
+                Thread.sleep(100);
+
+            }
+
+        }
+
+    }
+
+}
@@ -0,0 +1,163 @@
+package net.hub.chat.examples;
+
+import net.hub.chat.ChatClient;
+import net.hub.chat.ChatClientConfig;
+import net.hub.chat.ChatServer;
+import net.hub.chat.ChatServerConfig;
+import net.hub.chat.ServerMode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * A benchmark comparing the unbuffered output path against the batched output mode, with and without TCP_NODELAY.
+ * For every scenario a chat server is started in the same JVM, a ChatClient transmits the given number of messages
+ * as fast as it can and a second, plain socket client receives the broadcasts. Every message carries the time it
+ * was transmitted, so the receiver measures the end to end latency of each message.
+ * The messages per second and the median and 99th percentile latencies are printed for every scenario.
+ * Usage : WriteBatchingBenchmark [THREAD_PER_CONNECTION|VIRTUAL_THREADS|NIO] [messages] [message size] [port]
+ */
+public class WriteBatchingBenchmark {
+
+    public static void main(String [ ] args) throws Exception {
+
+        ServerMode mode = args.length > 0 ? ServerMode.valueOf(args[0]) : ServerMode.NIO;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int messageSize = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 16700;
+
+        run("unbuffered", mode, port, messages, messageSize, 0, 0, false);
+        run("unbuffered, TCP_NODELAY", mode, port + 1, messages, messageSize, 0, 0, true);
+        run("batched", mode, port + 2, messages, messageSize, 8192, 1, false);
+        run("batched, TCP_NODELAY", mode, port + 3, messages, messageSize, 8192, 1, true);
+
+        System.exit(0);
+
+    }
+
+    /**
+     * Runs a single scenario and prints its results.
+     * @param name the name of the scenario
+     * @param mode the server mode
+     * @param port the port of the server
+     * @param messages the number of messages to transmit
+     * @param messageSize the size of every message in characters
+     * @param batchMaxBytes the byte limit of a batch for both the client and the server, zero for the unbuffered path
+     * @param batchWindowMillis the batch window of the client
+     * @param tcpNoDelay if TCP_NODELAY is set on both sides
+     */
+    private static void run(String name, ServerMode mode, int port, int messages, int messageSize, int batchMaxBytes, long batchWindowMillis, boolean tcpNoDelay) throws Exception {
+
+        final ChatServerConfig serverConfig = new ChatServerConfig(port, mode);
+        serverConfig.setWriteBatchMaxBytes(batchMaxBytes);
+        serverConfig.setTcpNoDelay(tcpNoDelay);
+        serverConfig.setOutboundQueueCapacity(messages);
+        serverConfig.setChatRatePerSecond(0);
+        startServer(serverConfig);
+
+        Socket receiver = new Socket("localhost", port);
+        receiver.setTcpNoDelay(tcpNoDelay);
+        receiver.setSoTimeout(30000);
+        DataInputStream in = new DataInputStream(receiver.getInputStream());
+        new DataOutputStream(receiver.getOutputStream()).writeUTF("receiver");
+        in.readUTF();
+        in.readUTF();
+
+        ChatClientConfig clientConfig = new ChatClientConfig();
+        clientConfig.setWriteBatchMaxBytes(batchMaxBytes);
+        clientConfig.setWriteBatchWindowMillis(batchWindowMillis);
+        clientConfig.setTcpNoDelay(tcpNoDelay);
+        final ChatClient sender = new ChatClient("localhost", port, "sender", null, clientConfig);
+        in.readUTF();
+
+        char[] padding = new char[Math.max(0, messageSize - 20)];
+        Arrays.fill(padding, 'x');
+        final String suffix = " " + new String(padding);
+        final int total = messages;
+
+        Thread senderThread = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < total; i++)
+                    sender.transmit(System.nanoTime() + suffix);
+            }
+        });
+
+        long[] latencies = new long[messages];
+        int received = 0;
+        long start = System.nanoTime();
+        senderThread.start();
+
+        try {
+
+            while (received < messages) {
+
+                String message = in.readUTF();
+
+                if (!message.startsWith("sender : "))
+                    continue;
+
+                int end = message.indexOf(' ', 9);
+                latencies[received++] = System.nanoTime() - Long.parseLong(message.substring(9, end));
+
+            }
+
+        } catch (SocketTimeoutException e) {
+
+            System.out.println("Timed out, only " + received + " messages were received.");
+
+        }
+
+        long elapsed = System.nanoTime() - start;
+        receiver.close();
+
+        if (received == 0)
+            return;
+
+        long[] sorted = Arrays.copyOf(latencies, received);
+        Arrays.sort(sorted);
+
+        System.out.println(name + " : " + (received * 1000000000L / elapsed) + " messages/s, p50 latency "
+                + sorted[received / 2] / 1000 + " us, p99 latency " + sorted[(int) (received * 0.99)] / 1000 + " us");
+
+    }
+
+    /**
+     * Starts a chat server in the background and waits until it accepts connections.
+     * @param config the settings of the server
+     */
+    private static void startServer(final ChatServerConfig config) throws InterruptedException {
+
+        Thread server = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new ChatServer(config);
+                } catch (IOException e) {
+                    System.out.println("There was an error listening to  port : " + config.getPort());
+                }
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+
+        for (int i = 0; i < 50; i++) {
+
+            try {
+
+                new Socket("localhost", config.getPort()).close();
+                return;
+
+            } catch (IOException e) {
+
+                Thread.sleep(100);
+
+            }
+
+        }
+
+    }
+
+}
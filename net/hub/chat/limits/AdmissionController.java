@@ -0,0 +1,273 @@
+package net.hub.chat.limits;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+import net.hub.chat.logging.Logger;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The admission control of the chat server, which is asked by the accepting thread of every engine before a connection
+ * gets any thread, buffer or queue. A connection is refused if the server already has the maximum number of connections
+ * or if its address opened connections faster than its token bucket allows, in which case it is told that the server is busy
+ * over plaintext connections and closed.
+ * The buckets of the addresses are forgotten once they are full again, so the map only holds the recently active addresses.
+ * The accepting thread also pauses while the outbound queues of the clients hold more messages than the configured limit,
+ * until they are drained to half of it, so new clients do not add to the load of a server which can not keep up.
+ * The handshake timeouts are enforced by the engines, which report them here. Every decision is counted.
+ */
+public class AdmissionController {
+
+    private static final Logger LOG = Logger.getLogger(AdmissionController.class);
+
+    public static final String BUSY_MESSAGE = "The server is busy, please try again later.";
+
+    private static final long SATURATION_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int SWEEP_INTERVAL = 1024;
+
+    private ChatServer chatServer;
+    private int maxConnections;
+    private double connectionRatePerIp;
+    private int connectionBurstPerIp;
+    private boolean limitLoopback;
+    private long pauseQueuedMessages;
+    private boolean tls;
+    private ConcurrentHashMap<InetAddress, TokenBucket> buckets = new ConcurrentHashMap<InetAddress, TokenBucket>();
+    private AtomicInteger activeConnections = new AtomicInteger();
+    private int admissionsSinceSweep = 0;
+    private boolean paused = false;
+    private long lastSaturationCheckNanos = 0;
+    private LongAdder admitted = new LongAdder();
+    private LongAdder rejectedFull = new LongAdder();
+    private LongAdder rejectedRateLimited = new LongAdder();
+    private LongAdder handshakeTimeouts = new LongAdder();
+    private LongAdder acceptPauses = new LongAdder();
+    private AtomicLong pausedNanos = new AtomicLong();
+
+    /**
+     * Creates a new admission controller with the limits of the configuration of the chat server.
+     * @param chatServer the chat server whose connections are admitted
+     */
+    public AdmissionController(ChatServer chatServer) {
+
+        this.chatServer = chatServer;
+        this.maxConnections = chatServer.getConfig().getMaxConnections();
+        this.connectionRatePerIp = chatServer.getConfig().getConnectionRatePerIp();
+        this.connectionBurstPerIp = chatServer.getConfig().getConnectionBurstPerIp();
+        this.limitLoopback = chatServer.getConfig().isLimitLoopbackConnections();
+        this.pauseQueuedMessages = chatServer.getConfig().getAcceptPauseQueuedMessages();
+        this.tls = chatServer.getConfig().getSslContext() != null;
+
+    }
+
+    /**
+     * Decides if a newly accepted socket is admitted. A refused socket is told that the server is busy, unless the server uses TLS,
+     * and closed.
+     * An admitted connection has to be released when it is invalidated. Called by the accepting thread only.
+     * @param socket the accepted socket, still in blocking mode
+     * @return true if the connection is admitted, false if it was refused and closed
+     */
+    public boolean admit(Socket socket) {
+
+        if (this.maxConnections > 0 && this.activeConnections.get() >= this.maxConnections) {
+
+            this.rejectedFull.increment();
+            refuse(socket, "the maximum number of connections is reached");
+            return false;
+
+        }
+
+        InetAddress address = socket.getInetAddress();
+
+        if (this.connectionRatePerIp > 0 && (this.limitLoopback || !address.isLoopbackAddress())) {
+
+            TokenBucket bucket = this.buckets.get(address);
+
+            if (bucket == null) {
+
+                bucket = new TokenBucket(this.connectionRatePerIp, this.connectionBurstPerIp);
+                this.buckets.put(address, bucket);
+
+            }
+
+            if (++this.admissionsSinceSweep >= SWEEP_INTERVAL)
+                sweep();
+
+            if (!bucket.tryAcquire()) {
+
+                this.rejectedRateLimited.increment();
+                refuse(socket, "the connection rate of " + address + " is exceeded");
+                return false;
+
+            }
+
+        }
+
+        this.activeConnections.incrementAndGet();
+        this.admitted.increment();
+        return true;
+
+    }
+
+    /**
+     * Releases the slot of an admitted connection once it is invalidated.
+     */
+    public void release() {
+
+        this.activeConnections.decrementAndGet();
+
+    }
+
+    /**
+     * Records that a connection was closed because it did not send its nick name in time.
+     * @param client the connection that timed out
+     */
+    public void recordHandshakeTimeout(ClientConnection client) {
+
+        this.handshakeTimeouts.increment();
+        LOG.debug("Closing connection without a handshake : {}", client);
+
+    }
+
+    /**
+     * Blocks the accepting thread while the outbound queues of the server are saturated.
+     * The number of queued messages is summed over the clients at most every 100 milliseconds.
+     */
+    public void awaitCapacity() {
+
+        if (this.pauseQueuedMessages <= 0 || !isSaturated())
+            return;
+
+        long start = System.nanoTime();
+        this.acceptPauses.increment();
+        LOG.warn("Pausing accepting connections while the outbound queues are saturated");
+
+        try {
+
+            while (isSaturated())
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(SATURATION_CHECK_NANOS));
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+        this.pausedNanos.addAndGet(System.nanoTime() - start);
+        LOG.info("Resumed accepting connections");
+
+    }
+
+    /**
+     * Check to see if the outbound queues hold too many messages, with a hysteresis between the limit and half of it.
+     */
+    private boolean isSaturated() {
+
+        long now = System.nanoTime();
+
+        if (now - this.lastSaturationCheckNanos < SATURATION_CHECK_NANOS)
+            return this.paused;
+
+        this.lastSaturationCheckNanos = now;
+        long queued = 0;
+
+        for (ClientConnection client : this.chatServer.getConnectedClients())
+            queued += client.getOutboundQueue().size();
+
+        this.paused = this.paused ? queued > this.pauseQueuedMessages / 2 : queued > this.pauseQueuedMessages;
+        return this.paused;
+
+    }
+
+    /**
+     * Forgets the buckets which are full again.
+     */
+    private void sweep() {
+
+        this.admissionsSinceSweep = 0;
+        Iterator<TokenBucket> iterator = this.buckets.values().iterator();
+
+        while (iterator.hasNext())
+            if (iterator.next().isFull())
+                iterator.remove();
+
+    }
+
+    /**
+     * Tells a refused client that the server is busy and closes its socket. It runs on the accepting thread, so it must not wait
+     * for the client. Over TLS the message would need a whole handshake with the client first, and the NIO engine would send it
+     * in plaintext to a TLS client, so the socket is just closed. Otherwise the message is written with a single write call
+     * to a socket which has never been written to. A socket timeout would not bound that write, it only applies to reads,
+     * but the few bytes of the message always fit in the empty send buffer of a fresh socket, so the write copies them
+     * and returns without waiting for the client to read. The socket does not linger, so closing it does not wait either.
+     */
+    private void refuse(Socket socket, String reason) {
+
+        LOG.debug("Refusing connection from {} : {}", socket, reason);
+
+        try {
+
+            if (!this.tls)
+                new DataOutputStream(socket.getOutputStream()).writeUTF(BUSY_MESSAGE);
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while refusing the connection : {}", socket);
+
+        } finally {
+
+            try {
+
+                socket.close();
+
+            } catch (IOException ie) {
+
+                LOG.debug("There was an error while closing the connection : {}", socket);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Getter methods for the counters.
+     */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+
+    public long getRejectedFull() {
+        return rejectedFull.sum();
+    }
+
+    public long getRejectedRateLimited() {
+        return rejectedRateLimited.sum();
+    }
+
+    public long getHandshakeTimeouts() {
+        return handshakeTimeouts.sum();
+    }
+
+    public long getAcceptPauses() {
+        return acceptPauses.sum();
+    }
+
+    public long getPausedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(pausedNanos.get());
+    }
+
+}
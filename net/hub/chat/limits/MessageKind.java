@@ -0,0 +1,14 @@
+package net.hub.chat.limits;
+
+/**
+ * The kinds of inbound messages, each of which is charged to its own budget of the message rate limiter.
+ * CHAT is a message to the room, COMMAND is a command to the server and CONTROL is any other frame of the protocol v2,
+ * such as a ping, a pong or an acknowledgement, which costs the server little but is still answered or processed.
+ */
+public enum MessageKind {
+
+    CHAT,
+    COMMAND,
+    CONTROL
+
+}
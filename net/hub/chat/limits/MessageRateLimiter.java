@@ -0,0 +1,93 @@
+package net.hub.chat.limits;
+
+/**
+ * The message rate limits of a single connection, with separate token buckets for the chat messages, the commands and the control frames,
+ * so a client flooding a room can still run commands and a client flooding commands can still chat.
+ * The control frames get a budget of their own, so that a flood of pings, each answered with a pong, is limited too,
+ * while the acknowledgements of a busy client do not eat into its chat budget.
+ * The limiter is used by the reader of the connection only, it takes no locks and allocates nothing per message.
+ * A rate of zero or less turns the limit of that kind of message off.
+ */
+public class MessageRateLimiter {
+
+    private TokenBucket chatBucket;
+    private TokenBucket commandBucket;
+    private TokenBucket controlBucket;
+    private RateLimitAction action;
+
+    /**
+     * Creates a new limiter.
+     * @param chatRate the sustained number of chat messages per second
+     * @param chatBurst the number of chat messages allowed in a burst
+     * @param commandRate the sustained number of commands per second
+     * @param commandBurst the number of commands allowed in a burst
+     * @param controlRate the sustained number of control frames per second
+     * @param controlBurst the number of control frames allowed in a burst
+     * @param action what happens to the messages over the limit
+     */
+    public MessageRateLimiter(double chatRate, int chatBurst, double commandRate, int commandBurst, double controlRate, int controlBurst, RateLimitAction action) {
+
+        this.chatBucket = chatRate > 0 ? new TokenBucket(chatRate, Math.max(1, chatBurst)) : null;
+        this.commandBucket = commandRate > 0 ? new TokenBucket(commandRate, Math.max(1, commandBurst)) : null;
+        this.controlBucket = controlRate > 0 ? new TokenBucket(controlRate, Math.max(1, controlBurst)) : null;
+        this.action = action;
+
+    }
+
+    /**
+     * Takes a token for a message if its budget has one.
+     * @param kind the kind of the message
+     * @return true if the message is within its limit, false if the action has to be applied
+     */
+    public boolean tryAcquire(MessageKind kind) {
+
+        TokenBucket bucket = bucketOf(kind);
+        return bucket == null || bucket.tryAcquire();
+
+    }
+
+    /**
+     * Returns how long a throttled reader has to wait until the budget of a message has a token.
+     * @param kind the kind of the message
+     * @return the time to wait in nanoseconds
+     */
+    public long nanosUntilAvailable(MessageKind kind) {
+
+        TokenBucket bucket = bucketOf(kind);
+        return bucket == null ? 0 : bucket.nanosUntilAvailable();
+
+    }
+
+    /**
+     * Returns the budget a kind of message is charged to.
+     * @param kind the kind of the message
+     * @return the bucket, or null if that kind of message is not limited
+     */
+    private TokenBucket bucketOf(MessageKind kind) {
+
+        if (kind == MessageKind.CHAT)
+            return this.chatBucket;
+        else if (kind == MessageKind.COMMAND)
+            return this.commandBucket;
+        else
+            return this.controlBucket;
+
+    }
+
+    /**
+     * Check to see if any limit is configured, so that connections without limits do not need a limiter at all.
+     * @return true if at least one kind of message is limited
+     */
+    public boolean isEnabled() {
+
+        return this.chatBucket != null || this.commandBucket != null || this.controlBucket != null;
+
+    }
+
+    public RateLimitAction getAction() {
+
+        return this.action;
+
+    }
+
+}
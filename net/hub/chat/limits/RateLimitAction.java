@@ -0,0 +1,15 @@
+package net.hub.chat.limits;
+
+/**
+ * What happens to a message of a client that exceeded its message rate.
+ * THROTTLE stops reading from the client until its budget allows the message, so the client is slowed down by TCP flow control.
+ * DROP discards the message and keeps reading.
+ * DISCONNECT closes the connection.
+ */
+public enum RateLimitAction {
+
+    THROTTLE,
+    DROP,
+    DISCONNECT
+
+}
@@ -0,0 +1,75 @@
+package net.hub.chat.limits;
+
+/**
+ * A token bucket which allows a sustained rate of events with bursts of up to its capacity.
+ * The bucket starts full and is refilled lazily from the elapsed time whenever it is used, so an idle bucket costs nothing.
+ * A bucket takes no locks and allocates nothing, it is not thread safe and is meant to be used by a single thread,
+ * like the accepting thread of the server or the reader of a connection.
+ */
+public class TokenBucket {
+
+    private double capacity;
+    private double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Creates a new full bucket.
+     * @param ratePerSecond the number of tokens added every second
+     * @param capacity the maximum number of tokens, which is the largest burst allowed
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+
+    }
+
+    /**
+     * Takes a token from the bucket if there is one.
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    public boolean tryAcquire() {
+
+        refill(System.nanoTime());
+
+        if (this.tokens < 1)
+            return false;
+
+        this.tokens--;
+        return true;
+
+    }
+
+    /**
+     * Check to see if the bucket is full, in which case forgetting it makes no difference.
+     * @return true if the bucket is full else false
+     */
+    public boolean isFull() {
+
+        refill(System.nanoTime());
+        return this.tokens >= this.capacity;
+
+    }
+
+    /**
+     * Returns how long it takes until a token is available.
+     * @return the time until the next token in nanoseconds, zero if there is one already
+     */
+    public long nanosUntilAvailable() {
+
+        refill(System.nanoTime());
+        return this.tokens >= 1 ? 0 : (long) Math.ceil((1 - this.tokens) / this.tokensPerNano);
+
+    }
+
+    private void refill(long now) {
+
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefillNanos) * this.tokensPerNano);
+        this.lastRefillNanos = now;
+
+    }
+
+}
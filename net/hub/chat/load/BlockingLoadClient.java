@@ -0,0 +1,143 @@
+package net.hub.chat.load;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.VirtualThreads;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A simulated client of the load generator which uses a blocking socket, meant to run on a virtual thread.
+ * It connects and sends its handshake, starts a second thread which reads the broadcasts of the server
+ * and then sends its messages at the configured rate until the load generator stops.
+ */
+class BlockingLoadClient implements Runnable {
+
+    private LoadGenerator generator;
+    private LoadGeneratorConfig config;
+    private LoadStats stats;
+    private String nickName;
+    private String room;
+    private Socket socket;
+
+    BlockingLoadClient(LoadGenerator generator, String nickName, String room) {
+
+        this.generator = generator;
+        this.config = generator.getConfig();
+        this.stats = generator.getStats();
+        this.nickName = nickName;
+        this.room = room;
+
+    }
+
+    public void run() {
+
+        try {
+
+            this.socket = new Socket(this.config.getHost(), this.config.getPort());
+            this.socket.setTcpNoDelay(this.config.isTcpNoDelay());
+            this.generator.track(this.socket);
+
+        } catch (IOException ie) {
+
+            this.stats.failed.increment();
+            return;
+
+        }
+
+        try {
+
+            final DataInputStream in = new DataInputStream(this.socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+            out.writeUTF(this.nickName);
+
+            if (this.room != null)
+                out.writeUTF(ChatServer.COMMAND_PREFIX + " join " + this.room);
+
+            out.flush();
+            this.stats.connected.increment();
+
+            VirtualThreads.newThread(new Runnable() {
+                public void run() {
+                    readMessages(in);
+                }
+            }).start();
+
+            sendMessages(out);
+
+        } catch (IOException ie) {
+
+            if (this.generator.isRunning())
+                this.stats.failed.increment();
+
+        }
+
+    }
+
+    /**
+     * Sends a message every send interval, starting at a random point of the first interval.
+     * A client that fell behind skips the missed messages instead of sending a burst.
+     */
+    private void sendMessages(DataOutputStream out) throws IOException {
+
+        if (this.config.getMessageRate() <= 0)
+            return;
+
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / this.config.getMessageRate());
+        long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(interval);
+
+        while (this.generator.isRunning()) {
+
+            long now = System.nanoTime();
+
+            if (now < next) {
+
+                LockSupport.parkNanos(next - now);
+                continue;
+
+            }
+
+            out.writeUTF(LoadStats.message(System.nanoTime(), this.config.getMessageSize()));
+            out.flush();
+            this.stats.sent.increment();
+            next += interval;
+
+            if (next < now)
+                next = now + interval;
+
+        }
+
+    }
+
+    /**
+     * Reads the broadcasts of the server and records the latency of every load message among them.
+     */
+    private void readMessages(DataInputStream in) {
+
+        try {
+
+            while (true) {
+
+                String message = in.readUTF();
+                long sentNanos = LoadStats.timestampOf(message);
+
+                if (sentNanos != LoadStats.NO_TIMESTAMP)
+                    this.stats.recordReceived(System.nanoTime() - sentNanos);
+
+            }
+
+        } catch (IOException ie) {
+
+            return;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,269 @@
+package net.hub.chat.load;
+
+import net.hub.chat.VirtualThreads;
+import net.hub.chat.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A headless load generator for the chat server. It connects the configured number of simulated clients at the
+ * join rate, spreads them over a number of rooms and makes every client send messages of the given size at the given rate.
+ * The clients are driven either by a few NIO selector threads or by virtual threads with blocking sockets.
+ * Every message carries the time it was sent, so the clients that receive it measure the end to end latency.
+ * The throughput and the latency percentiles are printed for every report interval and for the whole run after the warmup.
+ * Usage : LoadGenerator [setting=value ...], for example LoadGenerator port=6667 mode=NIO clients=5000 messageRate=2 rooms=50
+ * The settings are the ones of the LoadGeneratorConfig : host, port, mode, clients, threads, joinRate, messageRate,
+ * messageSize, rooms, duration, warmup, report and tcpNoDelay.
+ */
+public class LoadGenerator {
+
+    private LoadGeneratorConfig config;
+    private LoadStats stats = new LoadStats();
+    private List<NioLoadWorker> workers = new ArrayList<NioLoadWorker>();
+    private Queue<Socket> sockets = new ConcurrentLinkedQueue<Socket>();
+    private volatile boolean running = false;
+
+    /**
+     * Creates a new load generator with the given settings.
+     * @param config the settings of the load run
+     */
+    public LoadGenerator(LoadGeneratorConfig config) {
+
+        this.config = config;
+
+    }
+
+    public static void main(String [ ] args) throws Exception {
+
+        LoadGeneratorConfig config = new LoadGeneratorConfig();
+
+        for (String arg : args) {
+
+            int separator = arg.indexOf('=');
+
+            if (separator < 0) {
+
+                System.out.println("Settings are given as name=value, unexpected argument : " + arg);
+                return;
+
+            }
+
+            config.set(arg.substring(0, separator), arg.substring(separator + 1));
+
+        }
+
+        new LoadGenerator(config).run();
+        System.exit(0);
+
+    }
+
+    /**
+     * Runs the load for the configured duration, printing a report at every report interval and a summary at the end.
+     * @throws IOException if the selectors of the NIO mode can not be opened
+     * @throws InterruptedException if the thread is interrupted while the load runs
+     */
+    public void run() throws IOException, InterruptedException {
+
+        System.out.println("Starting " + this.config.getClients() + " clients in " + this.config.getMode() + " mode against "
+                + this.config.getHost() + ":" + this.config.getPort() + ", " + this.config.getMessageRate() + " messages/s of "
+                + this.config.getMessageSize() + " characters per client in " + Math.max(1, this.config.getRooms()) + " rooms");
+
+        this.running = true;
+        long start = System.nanoTime();
+
+        if (this.config.getMode() == LoadMode.NIO)
+            startWorkers(start);
+        else
+            startBlockingClients(start);
+
+        long reportNanos = TimeUnit.SECONDS.toNanos(this.config.getReportSeconds());
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(this.config.getWarmupSeconds());
+        long end = start + TimeUnit.SECONDS.toNanos(this.config.getDurationSeconds());
+        long sentAtWarmup = 0;
+        long receivedAtWarmup = 0;
+        long lastSent = 0;
+        long lastReceived = 0;
+        long lastReport = start;
+        boolean measuring = false;
+
+        while (lastReport < end) {
+
+            long nextReport = Math.min(lastReport + reportNanos, end);
+
+            if (!measuring && warmupEnd <= nextReport) {
+
+                sleepUntil(warmupEnd);
+                this.stats.startMeasurement();
+                sentAtWarmup = this.stats.sent.sum();
+                receivedAtWarmup = this.stats.received.sum();
+                measuring = true;
+
+            }
+
+            sleepUntil(nextReport);
+            long now = System.nanoTime();
+            long sent = this.stats.sent.sum();
+            long received = this.stats.received.sum();
+            double seconds = (now - lastReport) / 1e9;
+
+            System.out.println(String.format("[%5ds] clients %d connected, %d failed | sent %.0f/s | received %.0f/s | backlogged %d | %s",
+                    TimeUnit.NANOSECONDS.toSeconds(now - start), this.stats.connected.sum(), this.stats.failed.sum(),
+                    (sent - lastSent) / seconds, (received - lastReceived) / seconds, this.stats.backlogged.sum(),
+                    percentiles(this.stats.nextInterval())));
+
+            lastSent = sent;
+            lastReceived = received;
+            lastReport = now;
+
+        }
+
+        stop();
+
+        double measured = Math.max(1, this.config.getDurationSeconds() - this.config.getWarmupSeconds());
+        System.out.println(String.format("Summary after the warmup : sent %.0f/s, received %.0f/s, %s",
+                (this.stats.sent.sum() - sentAtWarmup) / measured, (this.stats.received.sum() - receivedAtWarmup) / measured,
+                percentiles(this.stats.getTotalLatency())));
+
+    }
+
+    /**
+     * Creates the NIO workers and hands the clients to them in turn, each with its own join time.
+     */
+    private void startWorkers(long start) throws IOException {
+
+        int threads = Math.max(1, this.config.getThreads());
+
+        for (int i = 0; i < threads; i++)
+            this.workers.add(new NioLoadWorker("LoadWorker-" + i, this.config, this.stats));
+
+        for (int i = 0; i < this.config.getClients(); i++)
+            this.workers.get(i % threads).addClient(nickName(i), roomOf(i), joinTime(start, i));
+
+        for (NioLoadWorker worker : this.workers)
+            worker.start();
+
+    }
+
+    /**
+     * Starts a thread which starts the blocking clients on virtual threads at their join times.
+     */
+    private void startBlockingClients(final long start) {
+
+        if (!VirtualThreads.isSupported())
+            System.out.println("Virtual threads are not supported by this JVM, falling back to platform threads.");
+
+        Thread launcher = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < config.getClients() && running; i++) {
+                    sleepUntil(joinTime(start, i));
+                    VirtualThreads.newThread(new BlockingLoadClient(LoadGenerator.this, nickName(i), roomOf(i))).start();
+                }
+            }
+        }, "LoadLauncher");
+        launcher.setDaemon(true);
+        launcher.start();
+
+    }
+
+    /**
+     * Stops the clients and closes their connections.
+     */
+    private void stop() throws InterruptedException {
+
+        this.running = false;
+
+        for (NioLoadWorker worker : this.workers) {
+
+            worker.shutdown();
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+
+        }
+
+        Socket socket;
+
+        while ((socket = this.sockets.poll()) != null) {
+
+            try {
+
+                socket.close();
+
+            } catch (IOException ie) {
+
+                System.out.println("There was an error while closing the connection : " + socket);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Keeps a socket of a blocking client so that it is closed when the load generator stops.
+     * @param socket the socket of the client
+     */
+    void track(Socket socket) {
+
+        this.sockets.add(socket);
+
+    }
+
+    private String nickName(int client) {
+
+        return "load-" + client;
+
+    }
+
+    private String roomOf(int client) {
+
+        return this.config.getRooms() > 1 ? "load-room-" + (client % this.config.getRooms()) : null;
+
+    }
+
+    private long joinTime(long start, int client) {
+
+        return this.config.getJoinRate() > 0 ? start + (long) (client * TimeUnit.SECONDS.toNanos(1) / this.config.getJoinRate()) : start;
+
+    }
+
+    private static void sleepUntil(long deadline) {
+
+        long now;
+
+        while ((now = System.nanoTime()) < deadline)
+            LockSupport.parkNanos(deadline - now);
+
+    }
+
+    private static String percentiles(LatencyHistogram latency) {
+
+        if (latency == null || latency.getCount() == 0)
+            return "no latencies";
+
+        return String.format("latency us p50 %d p99 %d p99.9 %d max %d", latency.getPercentile(50) / 1000,
+                latency.getPercentile(99) / 1000, latency.getPercentile(99.9) / 1000, latency.getMax() / 1000);
+
+    }
+
+    /**
+     * Getter methods for the internal variables.
+     */
+    public LoadGeneratorConfig getConfig() {
+        return config;
+    }
+
+    LoadStats getStats() {
+        return stats;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+}
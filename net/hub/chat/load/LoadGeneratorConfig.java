@@ -0,0 +1,223 @@
+package net.hub.chat.load;
+
+import net.hub.chat.ChatServer;
+
+/**
+ * A class holding the settings of the load generator. A new instance holds the default settings
+ * and each of them can be changed with the appropriate setter, or by name from the command line of the LoadGenerator.
+ */
+public class LoadGeneratorConfig {
+
+    private String host = "localhost";
+    private int port = ChatServer.DEFAULT_PORT;
+    private LoadMode mode = LoadMode.NIO;
+    private int clients = 1000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double joinRate = 500;
+    private double messageRate = 1;
+    private int messageSize = 64;
+    private int rooms = 10;
+    private int durationSeconds = 60;
+    private int warmupSeconds = 10;
+    private int reportSeconds = 5;
+    private boolean tcpNoDelay = true;
+
+    /**
+     * Sets a setting by its name, as it is given on the command line, for example messageRate=2.5.
+     * @param name the name of the setting
+     * @param value the value of the setting
+     * @throws IllegalArgumentException if there is no setting with this name or the value is not valid
+     */
+    public void set(String name, String value) {
+
+        if ("host".equals(name))
+            setHost(value);
+        else if ("port".equals(name))
+            setPort(Integer.parseInt(value));
+        else if ("mode".equals(name))
+            setMode(LoadMode.valueOf(value));
+        else if ("clients".equals(name))
+            setClients(Integer.parseInt(value));
+        else if ("threads".equals(name))
+            setThreads(Integer.parseInt(value));
+        else if ("joinRate".equals(name))
+            setJoinRate(Double.parseDouble(value));
+        else if ("messageRate".equals(name))
+            setMessageRate(Double.parseDouble(value));
+        else if ("messageSize".equals(name))
+            setMessageSize(Integer.parseInt(value));
+        else if ("rooms".equals(name))
+            setRooms(Integer.parseInt(value));
+        else if ("duration".equals(name))
+            setDurationSeconds(Integer.parseInt(value));
+        else if ("warmup".equals(name))
+            setWarmupSeconds(Integer.parseInt(value));
+        else if ("report".equals(name))
+            setReportSeconds(Integer.parseInt(value));
+        else if ("tcpNoDelay".equals(name))
+            setTcpNoDelay(Boolean.parseBoolean(value));
+        else
+            throw new IllegalArgumentException("Unknown setting : " + name);
+
+    }
+
+    /**
+     * Getters and Setters used for the variables.
+     */
+    public String getHost() {
+
+        return host;
+
+    }
+
+    public void setHost(String host) {
+
+        this.host = host;
+
+    }
+
+    public int getPort() {
+
+        return port;
+
+    }
+
+    public void setPort(int port) {
+
+        this.port = port;
+
+    }
+
+    public LoadMode getMode() {
+
+        return mode;
+
+    }
+
+    public void setMode(LoadMode mode) {
+
+        this.mode = mode;
+
+    }
+
+    public int getClients() {
+
+        return clients;
+
+    }
+
+    public void setClients(int clients) {
+
+        this.clients = clients;
+
+    }
+
+    public int getThreads() {
+
+        return threads;
+
+    }
+
+    public void setThreads(int threads) {
+
+        this.threads = threads;
+
+    }
+
+    public double getJoinRate() {
+
+        return joinRate;
+
+    }
+
+    public void setJoinRate(double joinRate) {
+
+        this.joinRate = joinRate;
+
+    }
+
+    public double getMessageRate() {
+
+        return messageRate;
+
+    }
+
+    public void setMessageRate(double messageRate) {
+
+        this.messageRate = messageRate;
+
+    }
+
+    public int getMessageSize() {
+
+        return messageSize;
+
+    }
+
+    public void setMessageSize(int messageSize) {
+
+        this.messageSize = messageSize;
+
+    }
+
+    public int getRooms() {
+
+        return rooms;
+
+    }
+
+    public void setRooms(int rooms) {
+
+        this.rooms = rooms;
+
+    }
+
+    public int getDurationSeconds() {
+
+        return durationSeconds;
+
+    }
+
+    public void setDurationSeconds(int durationSeconds) {
+
+        this.durationSeconds = durationSeconds;
+
+    }
+
+    public int getWarmupSeconds() {
+
+        return warmupSeconds;
+
+    }
+
+    public void setWarmupSeconds(int warmupSeconds) {
+
+        this.warmupSeconds = warmupSeconds;
+
+    }
+
+    public int getReportSeconds() {
+
+        return reportSeconds;
+
+    }
+
+    public void setReportSeconds(int reportSeconds) {
+
+        this.reportSeconds = reportSeconds;
+
+    }
+
+    public boolean isTcpNoDelay() {
+
+        return tcpNoDelay;
+
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+
+        this.tcpNoDelay = tcpNoDelay;
+
+    }
+
+}
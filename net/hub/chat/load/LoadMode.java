@@ -0,0 +1,13 @@
+package net.hub.chat.load;
+
+/**
+ * The ways the load generator can drive its simulated clients.
+ * NIO serves all clients from a few selector threads, VIRTUAL_THREADS gives every client a virtual thread for reading
+ * and one for writing, falling back to platform threads on JVMs without virtual threads.
+ */
+public enum LoadMode {
+
+    NIO,
+    VIRTUAL_THREADS
+
+}
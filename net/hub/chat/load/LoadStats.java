@@ -0,0 +1,174 @@
+package net.hub.chat.load;
+
+import net.hub.chat.metrics.LatencyHistogram;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters of a load run, shared by all simulated clients. Every message sent by the load generator carries
+ * the System.nanoTime() at which it was sent, right after a marker, so the clients of the room that receive it
+ * measure its end to end latency. The latencies of the current report interval and, once the warmup is over,
+ * of the whole measurement are recorded in separate histograms.
+ */
+class LoadStats {
+
+    private static final String MARKER = " : L";
+    static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    final LongAdder connected = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder backlogged = new LongAdder();
+    private volatile LatencyHistogram intervalLatency = new LatencyHistogram();
+    private volatile LatencyHistogram totalLatency;
+
+    /**
+     * Records a message received by a simulated client.
+     * @param latencyNanos the time from the moment it was sent
+     */
+    void recordReceived(long latencyNanos) {
+
+        this.received.increment();
+        this.intervalLatency.record(latencyNanos);
+        LatencyHistogram total = this.totalLatency;
+
+        if (total != null)
+            total.record(latencyNanos);
+
+    }
+
+    /**
+     * Starts a new report interval.
+     * @return the latencies of the interval which just ended
+     */
+    LatencyHistogram nextInterval() {
+
+        LatencyHistogram ended = this.intervalLatency;
+        this.intervalLatency = new LatencyHistogram();
+        return ended;
+
+    }
+
+    /**
+     * Starts recording the latencies of the measurement, at the end of the warmup.
+     */
+    void startMeasurement() {
+
+        this.totalLatency = new LatencyHistogram();
+
+    }
+
+    LatencyHistogram getTotalLatency() {
+
+        return this.totalLatency;
+
+    }
+
+    /**
+     * Creates the text of a load message, the send time followed by padding up to the given size.
+     * @param sentNanos the System.nanoTime() at which the message is sent
+     * @param size the size of the message in characters
+     * @return the message
+     */
+    static String message(long sentNanos, int size) {
+
+        StringBuilder message = new StringBuilder(Math.max(size, 24));
+        message.append('L').append(sentNanos).append(' ');
+
+        while (message.length() < size)
+            message.append('x');
+
+        return message.toString();
+
+    }
+
+    /**
+     * Returns the send time of a load message as it is broadcast by the server, "nick : L&lt;nanos&gt; xxx".
+     * @param message the broadcast message
+     * @return the send time or NO_TIMESTAMP if this is not a load message
+     */
+    static long timestampOf(String message) {
+
+        int marker = message.indexOf(MARKER);
+
+        if (marker < 0)
+            return NO_TIMESTAMP;
+
+        return parseLong(message, marker + MARKER.length(), message.length());
+
+    }
+
+    /**
+     * Returns the send time of a load message held in a buffer as modified UTF-8 bytes, without decoding the message.
+     * @param buffer the buffer holding the message
+     * @param start the index of the first byte of the message
+     * @param length the number of bytes of the message
+     * @return the send time or NO_TIMESTAMP if this is not a load message
+     */
+    static long timestampOf(ByteBuffer buffer, int start, int length) {
+
+        int end = start + length;
+
+        for (int i = start; i + MARKER.length() <= end; i++) {
+
+            int m = 0;
+
+            while (m < MARKER.length() && buffer.get(i + m) == MARKER.charAt(m))
+                m++;
+
+            if (m == MARKER.length()) {
+
+                long value = 0;
+                boolean negative = false;
+                int position = i + m;
+
+                if (position < end && buffer.get(position) == '-') {
+
+                    negative = true;
+                    position++;
+
+                }
+
+                int first = position;
+
+                while (position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9')
+                    value = value * 10 + (buffer.get(position++) - '0');
+
+                return position == first ? NO_TIMESTAMP : negative ? -value : value;
+
+            }
+
+        }
+
+        return NO_TIMESTAMP;
+
+    }
+
+    /**
+     * Parses the optionally negative number which starts at the given index of a string.
+     */
+    private static long parseLong(String text, int start, int end) {
+
+        long value = 0;
+        boolean negative = false;
+        int position = start;
+
+        if (position < end && text.charAt(position) == '-') {
+
+            negative = true;
+            position++;
+
+        }
+
+        int first = position;
+
+        while (position < end && text.charAt(position) >= '0' && text.charAt(position) <= '9')
+            value = value * 10 + (text.charAt(position++) - '0');
+
+        return position == first ? NO_TIMESTAMP : negative ? -value : value;
+
+    }
+
+}
@@ -0,0 +1,395 @@
+package net.hub.chat.load;
+
+import net.hub.chat.ChatServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A selector thread of the load generator which drives its share of the simulated clients.
+ * The thread connects its clients at their scheduled join times, sends the messages of every client when they are due,
+ * keeping the clients ordered by their next send time, and reads the broadcasts of the server in between.
+ * The load messages are plain ASCII, so they are framed and parsed directly as bytes without any encoding.
+ * The input buffer of a client only grows to the largest possible frame if a frame does not fit in it.
+ */
+class NioLoadWorker extends Thread {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_FRAME_SIZE = 2 + 65535;
+
+    private LoadGeneratorConfig config;
+    private LoadStats stats;
+    private Selector selector;
+    private List<Client> clients = new ArrayList<Client>();
+    private int nextToConnect = 0;
+    private long sendIntervalNanos;
+    private volatile boolean running = true;
+
+    private PriorityQueue<Client> sendQueue = new PriorityQueue<Client>(64, new Comparator<Client>() {
+        public int compare(Client first, Client second) {
+            return Long.compare(first.nextSendNanos, second.nextSendNanos);
+        }
+    });
+
+    NioLoadWorker(String name, LoadGeneratorConfig config, LoadStats stats) throws IOException {
+
+        super(name);
+        this.config = config;
+        this.stats = stats;
+        this.selector = Selector.open();
+        this.sendIntervalNanos = config.getMessageRate() > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / config.getMessageRate()) : 0;
+        setDaemon(true);
+
+    }
+
+    /**
+     * Adds a client to this worker. The clients must be added in the order of their join times.
+     * @param nickName the nick name of the client
+     * @param room the room the client joins or null to stay in the lobby
+     * @param connectAtNanos the System.nanoTime() at which the client connects
+     */
+    void addClient(String nickName, String room, long connectAtNanos) {
+
+        this.clients.add(new Client(nickName, room, connectAtNanos));
+
+    }
+
+    /**
+     * Stops the worker and closes the connections of its clients.
+     */
+    void shutdown() {
+
+        this.running = false;
+        this.selector.wakeup();
+
+    }
+
+    public void run() {
+
+        try {
+
+            while (this.running) {
+
+                long now = System.nanoTime();
+                connectDue(now);
+                sendDue(now);
+
+                long wait = nextDeadline() - System.nanoTime();
+
+                if (wait <= 0)
+                    this.selector.selectNow();
+                else
+                    this.selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isConnectable())
+                        finishConnect(client);
+                    else if (key.isReadable())
+                        read(client);
+
+                    if (key.isValid() && key.isWritable())
+                        flush(client);
+
+                }
+
+            }
+
+        } catch (IOException ie) {
+
+            System.out.println("There was an error while waiting on the selector of " + getName() + " : " + ie);
+
+        } finally {
+
+            for (Client client : this.clients)
+                close(client);
+
+        }
+
+    }
+
+    /**
+     * Returns the time of the next scheduled connect or send of this worker.
+     */
+    private long nextDeadline() {
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+        if (this.nextToConnect < this.clients.size())
+            deadline = Math.min(deadline, this.clients.get(this.nextToConnect).connectAtNanos);
+
+        if (!this.sendQueue.isEmpty())
+            deadline = Math.min(deadline, this.sendQueue.peek().nextSendNanos);
+
+        return deadline;
+
+    }
+
+    /**
+     * Starts the connections of the clients whose join time has come.
+     */
+    private void connectDue(long now) {
+
+        while (this.nextToConnect < this.clients.size() && this.clients.get(this.nextToConnect).connectAtNanos <= now) {
+
+            Client client = this.clients.get(this.nextToConnect++);
+
+            try {
+
+                client.channel = SocketChannel.open();
+                client.channel.configureBlocking(false);
+                client.channel.setOption(StandardSocketOptions.TCP_NODELAY, this.config.isTcpNoDelay());
+
+                if (client.channel.connect(new InetSocketAddress(this.config.getHost(), this.config.getPort()))) {
+
+                    client.key = client.channel.register(this.selector, SelectionKey.OP_READ, client);
+                    connected(client);
+
+                } else {
+
+                    client.key = client.channel.register(this.selector, SelectionKey.OP_CONNECT, client);
+
+                }
+
+            } catch (IOException ie) {
+
+                failed(client);
+
+            }
+
+        }
+
+    }
+
+    private void finishConnect(Client client) {
+
+        try {
+
+            client.channel.finishConnect();
+            client.key.interestOps(SelectionKey.OP_READ);
+            connected(client);
+
+        } catch (IOException ie) {
+
+            failed(client);
+
+        }
+
+    }
+
+    /**
+     * Sends the handshake of a newly connected client and schedules its first message at a random point
+     * of its send interval, so that the messages of the clients are spread evenly.
+     */
+    private void connected(Client client) {
+
+        this.stats.connected.increment();
+        write(client, client.nickName);
+
+        if (client.room != null)
+            write(client, ChatServer.COMMAND_PREFIX + " join " + client.room);
+
+        flush(client);
+
+        if (this.sendIntervalNanos > 0) {
+
+            client.nextSendNanos = System.nanoTime() + ThreadLocalRandom.current().nextLong(this.sendIntervalNanos);
+            this.sendQueue.add(client);
+
+        }
+
+    }
+
+    /**
+     * Sends the messages which are due. A client that fell behind skips the missed messages instead of sending a burst.
+     */
+    private void sendDue(long now) {
+
+        while (!this.sendQueue.isEmpty() && this.sendQueue.peek().nextSendNanos <= now) {
+
+            Client client = this.sendQueue.poll();
+
+            if (client.closed)
+                continue;
+
+            if (write(client, LoadStats.message(System.nanoTime(), this.config.getMessageSize())))
+                this.stats.sent.increment();
+            else
+                this.stats.backlogged.increment();
+
+            flush(client);
+            client.nextSendNanos += this.sendIntervalNanos;
+
+            if (client.nextSendNanos < now)
+                client.nextSendNanos = now + this.sendIntervalNanos;
+
+            this.sendQueue.add(client);
+
+        }
+
+    }
+
+    /**
+     * Frames an ASCII message into the output buffer of a client.
+     * @return false if the buffer is full because the server does not read fast enough
+     */
+    private boolean write(Client client, String message) {
+
+        byte[] bytes = message.getBytes(StandardCharsets.US_ASCII);
+
+        if (client.out.remaining() < 2 + bytes.length)
+            return false;
+
+        client.out.putShort((short) bytes.length);
+        client.out.put(bytes);
+        return true;
+
+    }
+
+    private void flush(Client client) {
+
+        if (client.closed)
+            return;
+
+        try {
+
+            client.out.flip();
+            client.channel.write(client.out);
+            client.out.compact();
+            client.key.interestOps(client.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+        } catch (IOException ie) {
+
+            close(client);
+
+        }
+
+    }
+
+    /**
+     * Reads the broadcasts of the server and records the latency of every load message among them.
+     */
+    private void read(Client client) {
+
+        try {
+
+            if (client.channel.read(client.in) == -1) {
+
+                close(client);
+                return;
+
+            }
+
+            long now = System.nanoTime();
+            client.in.flip();
+
+            while (client.in.remaining() >= 2) {
+
+                int start = client.in.position();
+                int length = client.in.getShort(start) & 0xFFFF;
+
+                if (client.in.remaining() < 2 + length)
+                    break;
+
+                long sentNanos = LoadStats.timestampOf(client.in, start + 2, length);
+
+                if (sentNanos != LoadStats.NO_TIMESTAMP)
+                    this.stats.recordReceived(now - sentNanos);
+
+                client.in.position(start + 2 + length);
+
+            }
+
+            client.in.compact();
+
+            if (!client.in.hasRemaining() && client.in.capacity() < MAX_FRAME_SIZE) {
+
+                ByteBuffer larger = ByteBuffer.allocate(MAX_FRAME_SIZE);
+                client.in.flip();
+                larger.put(client.in);
+                client.in = larger;
+
+            }
+
+        } catch (IOException ie) {
+
+            close(client);
+
+        }
+
+    }
+
+    private void failed(Client client) {
+
+        this.stats.failed.increment();
+        close(client);
+
+    }
+
+    private void close(Client client) {
+
+        if (client.closed || client.channel == null)
+            return;
+
+        client.closed = true;
+
+        try {
+
+            client.channel.close();
+
+        } catch (IOException ie) {
+
+            System.out.println("There was an error while closing the connection of " + client.nickName);
+
+        }
+
+    }
+
+    /**
+     * A simulated client served by the worker.
+     */
+    private static class Client {
+
+        private String nickName;
+        private String room;
+        private long connectAtNanos;
+        private long nextSendNanos;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean closed = false;
+
+        private Client(String nickName, String room, long connectAtNanos) {
+
+            this.nickName = nickName;
+            this.room = room;
+            this.connectAtNanos = connectAtNanos;
+
+        }
+
+    }
+
+}
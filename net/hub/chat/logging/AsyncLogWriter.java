@@ -0,0 +1,222 @@
+package net.hub.chat.logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The background writer shared by all loggers. The events are put in a preallocated ring buffer by the logging threads,
+ * which claim a sequence with a compare and set and never take a lock, and they are formatted and written to the console
+ * by a single daemon thread, a whole batch with one call. If the buffer is full the event is dropped and counted,
+ * so a slow console can never stall the thread that logs.
+ */
+final class AsyncLogWriter implements Runnable {
+
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final LogEvent[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile long consumed = 0;
+    private volatile boolean sleeping = false;
+    private final Thread thread;
+    private final StringBuilder batch = new StringBuilder(MAX_BATCH_CHARS);
+
+    /**
+     * Creates the writer and starts its thread.
+     * @param capacity the number of events the ring buffer holds, rounded up to a power of two
+     */
+    AsyncLogWriter(int capacity) {
+
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new LogEvent[size];
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++)
+            this.ring[i] = new LogEvent();
+
+        this.thread = new Thread(this, "AsyncLogWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                flush(TimeUnit.SECONDS.toMillis(1));
+            }
+        }, "AsyncLogWriter-shutdown"));
+
+    }
+
+    /**
+     * Puts an event in the ring buffer. Only the fields of a preallocated slot are set, nothing is allocated or formatted.
+     * @return true if the event was queued, false if the buffer was full and it was dropped
+     */
+    boolean publish(LogLevel level, String loggerName, String format, Object argument1, Object argument2, Object argument3) {
+
+        long sequence;
+
+        do {
+
+            sequence = this.claimed.get();
+
+            if (sequence - this.consumed >= this.ring.length) {
+
+                this.droppedEvents.incrementAndGet();
+                return false;
+
+            }
+
+        } while (!this.claimed.compareAndSet(sequence, sequence + 1));
+
+        LogEvent event = this.ring[(int) sequence & this.mask];
+        event.level = level;
+        event.timestamp = System.currentTimeMillis();
+        event.threadName = Thread.currentThread().getName();
+        event.loggerName = loggerName;
+        event.format = format;
+        event.argument1 = argument1;
+        event.argument2 = argument2;
+        event.argument3 = argument3;
+        event.sequence = sequence + 1;
+
+        if (this.sleeping)
+            LockSupport.unpark(this.thread);
+
+        return true;
+
+    }
+
+    /**
+     * The loop of the writer thread. It formats the published events in a batch and writes the batch
+     * when it is full or when no more events are published, then it parks until it is woken up by a producer.
+     */
+    public void run() {
+
+        while (true) {
+
+            try {
+
+                if (writeBatch() == 0) {
+
+                    this.sleeping = true;
+
+                    if (!isPublished(this.consumed))
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+
+                    this.sleeping = false;
+
+                }
+
+            } catch (RuntimeException ex) {
+
+                System.out.println("There was an error while writing the log : " + ex);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Formats and writes the events published so far.
+     * @return the number of events written
+     */
+    private int writeBatch() {
+
+        int written = 0;
+        long next = this.consumed;
+
+        while (isPublished(next)) {
+
+            LogEvent event = this.ring[(int) next & this.mask];
+            format(event);
+            event.clear();
+            this.consumed = ++next;
+            written++;
+
+            if (this.batch.length() >= MAX_BATCH_CHARS)
+                break;
+
+        }
+
+        if (this.batch.length() > 0) {
+
+            PrintStream out = System.out;
+            out.print(this.batch);
+            out.flush();
+            this.batch.setLength(0);
+
+        }
+
+        return written;
+
+    }
+
+    /**
+     * Check to see if the event with the given sequence has been published by its producer.
+     */
+    private boolean isPublished(long sequence) {
+
+        return this.ring[(int) sequence & this.mask].sequence == sequence + 1;
+
+    }
+
+    /**
+     * Appends an event to the batch, replacing every {} of the format with the next argument.
+     */
+    private void format(LogEvent event) {
+
+        TIMESTAMP_FORMAT.formatTo(Instant.ofEpochMilli(event.timestamp), this.batch);
+        this.batch.append(' ').append(event.level).append(" [").append(event.threadName).append("] ")
+                .append(event.loggerName).append(" - ");
+
+        String format = event.format;
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+
+        while ((placeholder = format.indexOf("{}", start)) >= 0 && argument < 3) {
+
+            this.batch.append(format, start, placeholder);
+            this.batch.append(argument == 0 ? event.argument1 : argument == 1 ? event.argument2 : event.argument3);
+            start = placeholder + 2;
+            argument++;
+
+        }
+
+        this.batch.append(format, start, format.length()).append('\n');
+
+    }
+
+    /**
+     * Waits until the events published so far are written or the timeout expires.
+     * @param timeoutMillis the maximum time to wait
+     */
+    void flush(long timeoutMillis) {
+
+        long target = this.claimed.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        while (this.consumed < target && System.currentTimeMillis() < deadline) {
+
+            LockSupport.unpark(this.thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+
+        }
+
+    }
+
+    long getDroppedEvents() {
+
+        return this.droppedEvents.get();
+
+    }
+
+}
@@ -0,0 +1,32 @@
+package net.hub.chat.logging;
+
+/**
+ * A slot of the ring buffer of the log writer. The slots are allocated once and reused,
+ * a producer fills a slot and publishes it by writing its sequence last.
+ */
+final class LogEvent {
+
+    volatile long sequence;
+    LogLevel level;
+    long timestamp;
+    String threadName;
+    String loggerName;
+    String format;
+    Object argument1;
+    Object argument2;
+    Object argument3;
+
+    /**
+     * Drops the references held by the slot once it is written, so that the arguments can be collected.
+     */
+    void clear() {
+
+        this.threadName = null;
+        this.format = null;
+        this.argument1 = null;
+        this.argument2 = null;
+        this.argument3 = null;
+
+    }
+
+}
@@ -0,0 +1,15 @@
+package net.hub.chat.logging;
+
+/**
+ * The levels of the log events, from the most to the least verbose.
+ * A logger set to a level writes the events of that level and of all the levels after it, OFF writes nothing.
+ */
+public enum LogLevel {
+
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+
+}
@@ -0,0 +1,193 @@
+package net.hub.chat.logging;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A named logger of the chat server. The events are handed over to a background writer and formatted there,
+ * so logging costs the calling thread a few field writes and never any console output.
+ * The messages are formats where every {} is replaced by the next argument. There is a method for every number
+ * of arguments up to three instead of varargs, so when a level is disabled a call allocates nothing at all.
+ * The level and the sampling are shared by all loggers. A sample rate of n writes about one out of n events of its level,
+ * it is meant for the verbose levels under load.
+ */
+public final class Logger {
+
+    private static final int RING_CAPACITY = 16 * 1024;
+    private static final AsyncLogWriter WRITER = new AsyncLogWriter(RING_CAPACITY);
+
+    private static volatile int threshold = LogLevel.INFO.ordinal();
+    private static volatile int[] sampleRates = new int[LogLevel.values().length];
+
+    private final String name;
+
+    private Logger(String name) {
+
+        this.name = name;
+
+    }
+
+    /**
+     * Returns a logger named after the given class.
+     * @param type the class that logs
+     * @return the logger
+     */
+    public static Logger getLogger(Class<?> type) {
+
+        return new Logger(type.getSimpleName());
+
+    }
+
+    /**
+     * Sets the level of all loggers.
+     * @param level the least severe level that is written
+     */
+    public static void setLevel(LogLevel level) {
+
+        threshold = level.ordinal();
+
+    }
+
+    public static LogLevel getLevel() {
+
+        return LogLevel.values()[threshold];
+
+    }
+
+    /**
+     * Sets the sampling of a level, a rate of n writes about one out of every n events of that level.
+     * @param level the level to sample
+     * @param rate the sample rate, 1 or less writes every event
+     */
+    public static synchronized void setSampleRate(LogLevel level, int rate) {
+
+        int[] rates = sampleRates.clone();
+        rates[level.ordinal()] = rate;
+        sampleRates = rates;
+
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer of the writer was full.
+     * @return the number of dropped events
+     */
+    public static long getDroppedEvents() {
+
+        return WRITER.getDroppedEvents();
+
+    }
+
+    /**
+     * Waits until the events logged so far are written or the timeout expires.
+     * @param timeoutMillis the maximum time to wait
+     */
+    public static void flush(long timeoutMillis) {
+
+        WRITER.flush(timeoutMillis);
+
+    }
+
+    /**
+     * Check to see if the events of a level are written. It can guard logging calls whose arguments are expensive to compute.
+     * @param level the level to check
+     * @return true if the level is enabled else false
+     */
+    public boolean isEnabled(LogLevel level) {
+
+        return level.ordinal() >= threshold;
+
+    }
+
+    /**
+     * Methods that log an event at the debug level.
+     */
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, null, null, null);
+    }
+
+    public void debug(String format, Object argument) {
+        log(LogLevel.DEBUG, format, argument, null, null);
+    }
+
+    public void debug(String format, Object argument1, Object argument2) {
+        log(LogLevel.DEBUG, format, argument1, argument2, null);
+    }
+
+    public void debug(String format, Object argument1, Object argument2, Object argument3) {
+        log(LogLevel.DEBUG, format, argument1, argument2, argument3);
+    }
+
+    /**
+     * Methods that log an event at the info level.
+     */
+    public void info(String message) {
+        log(LogLevel.INFO, message, null, null, null);
+    }
+
+    public void info(String format, Object argument) {
+        log(LogLevel.INFO, format, argument, null, null);
+    }
+
+    public void info(String format, Object argument1, Object argument2) {
+        log(LogLevel.INFO, format, argument1, argument2, null);
+    }
+
+    public void info(String format, Object argument1, Object argument2, Object argument3) {
+        log(LogLevel.INFO, format, argument1, argument2, argument3);
+    }
+
+    /**
+     * Methods that log an event at the warn level.
+     */
+    public void warn(String message) {
+        log(LogLevel.WARN, message, null, null, null);
+    }
+
+    public void warn(String format, Object argument) {
+        log(LogLevel.WARN, format, argument, null, null);
+    }
+
+    public void warn(String format, Object argument1, Object argument2) {
+        log(LogLevel.WARN, format, argument1, argument2, null);
+    }
+
+    public void warn(String format, Object argument1, Object argument2, Object argument3) {
+        log(LogLevel.WARN, format, argument1, argument2, argument3);
+    }
+
+    /**
+     * Methods that log an event at the error level.
+     */
+    public void error(String message) {
+        log(LogLevel.ERROR, message, null, null, null);
+    }
+
+    public void error(String format, Object argument) {
+        log(LogLevel.ERROR, format, argument, null, null);
+    }
+
+    public void error(String format, Object argument1, Object argument2) {
+        log(LogLevel.ERROR, format, argument1, argument2, null);
+    }
+
+    public void error(String format, Object argument1, Object argument2, Object argument3) {
+        log(LogLevel.ERROR, format, argument1, argument2, argument3);
+    }
+
+    /**
+     * Checks the level and the sampling and hands the event over to the writer.
+     */
+    private void log(LogLevel level, String format, Object argument1, Object argument2, Object argument3) {
+
+        if (level.ordinal() < threshold)
+            return;
+
+        int rate = sampleRates[level.ordinal()];
+
+        if (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0)
+            return;
+
+        WRITER.publish(level, this.name, format, argument1, argument2, argument3);
+
+    }
+
+}
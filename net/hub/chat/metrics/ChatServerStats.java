@@ -0,0 +1,291 @@
+package net.hub.chat.metrics;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+import net.hub.chat.logging.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The view of the metrics of a chat server which is exposed through JMX and the stats command.
+ * It combines the counters and histograms of the ServerMetrics with gauges read from the server on demand,
+ * like the connected clients and the depth of their outbound queues. Nothing is computed until it is asked for.
+ */
+public class ChatServerStats implements ChatServerStatsMXBean {
+
+    private ChatServer chatServer;
+    private ServerMetrics metrics;
+
+    /**
+     * Creates the stats view of the given server.
+     * @param chatServer the server whose metrics are exposed
+     */
+    public ChatServerStats(ChatServer chatServer) {
+
+        this.chatServer = chatServer;
+        this.metrics = chatServer.getMetrics();
+
+    }
+
+    /**
+     * Returns a readable report of all the metrics, as it is returned by the stats command.
+     * @return the report
+     */
+    public String render() {
+
+        StringBuilder stats = new StringBuilder("Chat server statistics :\n");
+        stats.append("connected clients : ").append(getConnectedClients()).append(", open rooms : ").append(getOpenRooms()).append("\n");
+        stats.append("connections accepted : ").append(getConnectionsAccepted()).append(", closed : ").append(getConnectionsClosed()).append("\n");
+        stats.append("messages received : ").append(getMessagesReceived()).append(String.format(" (%.1f/s)", getMessagesPerSecond()))
+                .append(", commands : ").append(getCommandsExecuted()).append("\n");
+        stats.append("broadcasts : ").append(getBroadcasts()).append(", deliveries : ").append(getDeliveries()).append("\n");
+        stats.append("queued messages : ").append(getQueuedMessages()).append(", max queue depth : ").append(getMaxQueueDepth())
+                .append(", dropped : ").append(getDroppedMessages()).append(", evicted clients : ").append(getEvictedClients()).append("\n");
+        stats.append("broadcast latency us : p50 ").append(getBroadcastLatencyP50Micros()).append(", p99 ").append(getBroadcastLatencyP99Micros())
+                .append(", p99.9 ").append(getBroadcastLatencyP999Micros()).append(", max ").append(getBroadcastLatencyMaxMicros()).append("\n");
+        stats.append("command latency us : p99 ").append(getCommandLatencyP99Micros()).append("\n");
+        stats.append("write stalls : ").append(getWriteStalls()).append(", p99 us ").append(getWriteStallP99Micros()).append("\n");
+        stats.append("message log dropped records : ").append(getMessageLogDroppedRecords())
+                .append(", log events dropped : ").append(getLogEventsDropped()).append("\n");
+        stats.append("admission : refused full ").append(getConnectionsRefusedFull()).append(", refused rate limited ").append(getConnectionsRefusedRateLimited())
+                .append(", handshake timeouts ").append(getHandshakeTimeouts()).append(", accept pauses ").append(getAcceptPauses())
+                .append(" (").append(getAcceptPausedMillis()).append(" ms)\n");
+        stats.append("rate limited messages : throttled ").append(getRateLimitThrottles()).append(", dropped ").append(getRateLimitDrops())
+                .append(", disconnects ").append(getRateLimitDisconnects()).append("\n");
+        stats.append("acknowledgements : acking clients ").append(getAckingClients()).append(", max lag ").append(getMaxAckLag())
+                .append(", lag evictions ").append(getLagEvictions()).append("\n");
+
+        if (chatServer.getSessions() != null)
+            stats.append("sessions : kept ").append(getSessions()).append(", resumed ").append(getResumedSessions())
+                    .append(", expired ").append(getExpiredSessions()).append("\n");
+
+        if (chatServer.getIdleMonitor() != null)
+            stats.append("heartbeats : watched clients ").append(getIdleWatchedClients()).append(", pings sent ").append(getPingsSent())
+                    .append(", idle timeouts ").append(getIdleTimeouts()).append("\n");
+
+        if (chatServer.getCluster() != null)
+            stats.append("cluster peers connected : ").append(getClusterPeersConnected()).append(", relayed records : ").append(getClusterRelayedRecords())
+                    .append(" in ").append(getClusterRelayBatches()).append(" batches, received : ").append(getClusterReceivedRecords())
+                    .append(", dropped : ").append(getClusterDroppedRecords()).append("\n");
+
+        return stats.toString();
+
+    }
+
+    public int getConnectedClients() {
+        return chatServer.getConnectedClients().size();
+    }
+
+    public int getOpenRooms() {
+        return chatServer.getOpenRoomCount();
+    }
+
+    public long getConnectionsAccepted() {
+        return metrics.getConnectionsAccepted();
+    }
+
+    public long getConnectionsClosed() {
+        return metrics.getConnectionsClosed();
+    }
+
+    public long getMessagesReceived() {
+        return metrics.getMessagesReceived();
+    }
+
+    public double getMessagesPerSecond() {
+        return metrics.getMessageRate();
+    }
+
+    public long getCommandsExecuted() {
+        return metrics.getCommandsExecuted();
+    }
+
+    public long getBroadcasts() {
+        return metrics.getBroadcasts();
+    }
+
+    public long getDeliveries() {
+        return metrics.getDeliveries();
+    }
+
+    /**
+     * Methods that scan the outbound queues of the connected clients. The scan takes no lock,
+     * so the result is approximate while messages are being transmitted.
+     */
+    public long getQueuedMessages() {
+
+        long queued = 0;
+
+        for (ClientConnection client : chatServer.getConnectedClients())
+            queued += client.getOutboundQueue().size();
+
+        return queued;
+
+    }
+
+    public int getMaxQueueDepth() {
+
+        int max = 0;
+
+        for (ClientConnection client : chatServer.getConnectedClients())
+            max = Math.max(max, client.getOutboundQueue().size());
+
+        return max;
+
+    }
+
+    public int getAckingClients() {
+
+        int acking = 0;
+
+        for (ClientConnection client : chatServer.getConnectedClients()) {
+
+            if (chatServer.getAckLag(client) >= 0)
+                acking++;
+
+        }
+
+        return acking;
+
+    }
+
+    public long getMaxAckLag() {
+
+        long max = 0;
+
+        for (ClientConnection client : chatServer.getConnectedClients())
+            max = Math.max(max, chatServer.getAckLag(client));
+
+        return max;
+
+    }
+
+    public long getLagEvictions() {
+        return chatServer.getMetrics().getLagEvictions();
+    }
+
+    public long getDroppedMessages() {
+        return chatServer.getDroppedMessages();
+    }
+
+    public long getEvictedClients() {
+        return chatServer.getEvictedClients();
+    }
+
+    public long getWriteStalls() {
+        return metrics.getWriteStalls();
+    }
+
+    public long getBroadcastLatencyP50Micros() {
+        return micros(metrics.getBroadcastLatency().getPercentile(50));
+    }
+
+    public long getBroadcastLatencyP99Micros() {
+        return micros(metrics.getBroadcastLatency().getPercentile(99));
+    }
+
+    public long getBroadcastLatencyP999Micros() {
+        return micros(metrics.getBroadcastLatency().getPercentile(99.9));
+    }
+
+    public long getBroadcastLatencyMaxMicros() {
+        return micros(metrics.getBroadcastLatency().getMax());
+    }
+
+    public long getCommandLatencyP99Micros() {
+        return micros(metrics.getCommandLatency().getPercentile(99));
+    }
+
+    public long getWriteStallP99Micros() {
+        return micros(metrics.getWriteStallLatency().getPercentile(99));
+    }
+
+    public long getMessageLogDroppedRecords() {
+        return chatServer.getMessageLog() == null ? 0 : chatServer.getMessageLog().getDroppedRecords();
+    }
+
+    public long getLogEventsDropped() {
+        return Logger.getDroppedEvents();
+    }
+
+    public long getRateLimitThrottles() {
+        return chatServer.getMetrics().getRateLimitThrottles();
+    }
+
+    public long getRateLimitDrops() {
+        return chatServer.getMetrics().getRateLimitDrops();
+    }
+
+    public long getRateLimitDisconnects() {
+        return chatServer.getMetrics().getRateLimitDisconnects();
+    }
+
+    public long getConnectionsRefusedFull() {
+        return chatServer.getAdmission().getRejectedFull();
+    }
+
+    public long getConnectionsRefusedRateLimited() {
+        return chatServer.getAdmission().getRejectedRateLimited();
+    }
+
+    public long getHandshakeTimeouts() {
+        return chatServer.getAdmission().getHandshakeTimeouts();
+    }
+
+    public long getAcceptPauses() {
+        return chatServer.getAdmission().getAcceptPauses();
+    }
+
+    public long getAcceptPausedMillis() {
+        return chatServer.getAdmission().getPausedMillis();
+    }
+
+    public int getSessions() {
+        return chatServer.getSessions() == null ? 0 : chatServer.getSessions().getSessionCount();
+    }
+
+    public long getResumedSessions() {
+        return chatServer.getSessions() == null ? 0 : chatServer.getSessions().getResumedSessions();
+    }
+
+    public long getExpiredSessions() {
+        return chatServer.getSessions() == null ? 0 : chatServer.getSessions().getExpiredSessions();
+    }
+
+    public int getIdleWatchedClients() {
+        return chatServer.getIdleMonitor() == null ? 0 : chatServer.getIdleMonitor().getWatchedClients();
+    }
+
+    public long getPingsSent() {
+        return chatServer.getIdleMonitor() == null ? 0 : chatServer.getIdleMonitor().getPingsSent();
+    }
+
+    public long getIdleTimeouts() {
+        return chatServer.getIdleMonitor() == null ? 0 : chatServer.getIdleMonitor().getIdleTimeouts();
+    }
+
+    public int getClusterPeersConnected() {
+        return chatServer.getCluster() == null ? 0 : chatServer.getCluster().getConnectedPeers();
+    }
+
+    public long getClusterRelayedRecords() {
+        return chatServer.getCluster() == null ? 0 : chatServer.getCluster().getRelayedRecords();
+    }
+
+    public long getClusterRelayBatches() {
+        return chatServer.getCluster() == null ? 0 : chatServer.getCluster().getRelayBatches();
+    }
+
+    public long getClusterReceivedRecords() {
+        return chatServer.getCluster() == null ? 0 : chatServer.getCluster().getReceivedRecords();
+    }
+
+    public long getClusterDroppedRecords() {
+        return chatServer.getCluster() == null ? 0 : chatServer.getCluster().getDroppedRecords();
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
@@ -0,0 +1,97 @@
+package net.hub.chat.metrics;
+
+/**
+ * The management interface of a chat server, registered with the platform MBean server
+ * under the name net.hub.chat:type=ChatServer,port=&lt;port&gt;. The latencies are in microseconds.
+ */
+public interface ChatServerStatsMXBean {
+
+    int getConnectedClients();
+
+    int getOpenRooms();
+
+    long getConnectionsAccepted();
+
+    long getConnectionsClosed();
+
+    long getMessagesReceived();
+
+    double getMessagesPerSecond();
+
+    long getCommandsExecuted();
+
+    long getBroadcasts();
+
+    long getDeliveries();
+
+    long getQueuedMessages();
+
+    int getMaxQueueDepth();
+
+    long getDroppedMessages();
+
+    long getEvictedClients();
+
+    long getWriteStalls();
+
+    long getBroadcastLatencyP50Micros();
+
+    long getBroadcastLatencyP99Micros();
+
+    long getBroadcastLatencyP999Micros();
+
+    long getBroadcastLatencyMaxMicros();
+
+    long getCommandLatencyP99Micros();
+
+    long getWriteStallP99Micros();
+
+    long getMessageLogDroppedRecords();
+
+    long getLogEventsDropped();
+
+    long getRateLimitThrottles();
+
+    long getRateLimitDrops();
+
+    long getRateLimitDisconnects();
+
+    int getAckingClients();
+
+    long getMaxAckLag();
+
+    long getLagEvictions();
+
+    long getConnectionsRefusedFull();
+
+    long getConnectionsRefusedRateLimited();
+
+    long getHandshakeTimeouts();
+
+    long getAcceptPauses();
+
+    long getAcceptPausedMillis();
+
+    int getSessions();
+
+    long getResumedSessions();
+
+    long getExpiredSessions();
+
+    int getIdleWatchedClients();
+
+    long getPingsSent();
+
+    long getIdleTimeouts();
+
+    int getClusterPeersConnected();
+
+    long getClusterRelayedRecords();
+
+    long getClusterRelayBatches();
+
+    long getClusterReceivedRecords();
+
+    long getClusterDroppedRecords();
+
+}
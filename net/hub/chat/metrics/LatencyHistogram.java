@@ -0,0 +1,133 @@
+package net.hub.chat.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of latencies in nanoseconds with buckets of logarithmic size, in the manner of HdrHistogram.
+ * Every power of two is split in 32 linear sub-buckets, so any recorded value is reported within about 3% of its
+ * real value while the whole range of a long fits in less than two thousand counters.
+ * Recording a value increments a single counter without any lock, so it is cheap enough to stay on all the time.
+ * The percentiles are computed from the counters when they are asked for, the recording threads are never stopped.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private LongAdder count = new LongAdder();
+    private LongAdder sum = new LongAdder();
+    private LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0);
+
+    /**
+     * Records a latency.
+     * @param nanos the latency in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(bucketOf(value));
+        this.count.increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded latencies fall.
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency in nanoseconds or zero if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+
+        }
+
+        if (total == 0)
+            return 0;
+
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(100.0, percentile) / 100.0));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+
+            seen += snapshot[i];
+
+            if (seen >= target)
+                return Math.min(highestValueOf(i), getMax());
+
+        }
+
+        return getMax();
+
+    }
+
+    /**
+     * Methods that are used to return the totals of the histogram.
+     */
+    public long getCount() {
+
+        return this.count.sum();
+
+    }
+
+    public long getMax() {
+
+        return this.max.get();
+
+    }
+
+    public double getMean() {
+
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+
+    }
+
+    /**
+     * Returns the bucket of a value. The values below 64 have a bucket each, the larger ones share a bucket
+     * with the values that have the same highest six bits.
+     */
+    static int bucketOf(long value) {
+
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+
+    }
+
+    /**
+     * Returns the highest value that falls in the given bucket.
+     */
+    static long highestValueOf(int bucket) {
+
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+
+        int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return (subBucket << shift) + (1L << shift) - 1;
+
+    }
+
+}
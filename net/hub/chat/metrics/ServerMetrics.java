@@ -0,0 +1,205 @@
+package net.hub.chat.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of a chat server. The counters are striped LongAdders and the histograms take
+ * no locks, so recording costs the connection and broadcast threads only a few uncontended atomic operations.
+ * The gauges which describe the current state of the server, like the connected clients, are not kept here,
+ * they are read from the server itself by the ChatServerStats when they are asked for.
+ */
+public class ServerMetrics {
+
+    public static final long WRITE_STALL_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private LongAdder connectionsAccepted = new LongAdder();
+    private LongAdder connectionsClosed = new LongAdder();
+    private LongAdder messagesReceived = new LongAdder();
+    private LongAdder commandsExecuted = new LongAdder();
+    private LongAdder broadcasts = new LongAdder();
+    private LongAdder deliveries = new LongAdder();
+    private LongAdder writeStalls = new LongAdder();
+    private LongAdder rateLimitThrottles = new LongAdder();
+    private LongAdder rateLimitDrops = new LongAdder();
+    private LongAdder rateLimitDisconnects = new LongAdder();
+    private LongAdder lagEvictions = new LongAdder();
+    private LatencyHistogram broadcastLatency = new LatencyHistogram();
+    private LatencyHistogram commandLatency = new LatencyHistogram();
+    private LatencyHistogram writeStallLatency = new LatencyHistogram();
+    private long rateSampleNanos = System.nanoTime();
+    private long rateSampleMessages = 0;
+    private double messageRate = 0;
+
+    /**
+     * Methods that record the events of the server.
+     */
+    public void recordConnectionAccepted() {
+
+        this.connectionsAccepted.increment();
+
+    }
+
+    public void recordConnectionClosed() {
+
+        this.connectionsClosed.increment();
+
+    }
+
+    public void recordMessageReceived() {
+
+        this.messagesReceived.increment();
+
+    }
+
+    /**
+     * Records a command which has been executed and its reply queued for the client.
+     * @param receivedNanos the System.nanoTime() at which the command was received
+     */
+    public void recordCommand(long receivedNanos) {
+
+        this.commandsExecuted.increment();
+        this.commandLatency.record(System.nanoTime() - receivedNanos);
+
+    }
+
+    /**
+     * Records a message which has been fanned out to the members of a room or to all clients.
+     * @param delivered the number of clients the message was queued for
+     * @param receivedNanos the System.nanoTime() at which the message was received from its sender,
+     *                      or zero for the notices of the server which have no sender
+     */
+    public void recordBroadcast(int delivered, long receivedNanos) {
+
+        this.broadcasts.increment();
+        this.deliveries.add(delivered);
+
+        if (receivedNanos != 0)
+            this.broadcastLatency.record(System.nanoTime() - receivedNanos);
+
+    }
+
+    /**
+     * Records a write to a client which could not complete without waiting for the client to read.
+     * @param nanos how long the write waited
+     */
+    public void recordWriteStall(long nanos) {
+
+        this.writeStalls.increment();
+        this.writeStallLatency.record(nanos);
+
+    }
+
+    /**
+     * Records a message of a client over its rate limit, by the action that was applied to it.
+     */
+    public void recordRateLimitThrottle() {
+
+        this.rateLimitThrottles.increment();
+
+    }
+
+    public void recordRateLimitDrop() {
+
+        this.rateLimitDrops.increment();
+
+    }
+
+    public void recordRateLimitDisconnect() {
+
+        this.rateLimitDisconnects.increment();
+
+    }
+
+    /**
+     * Records a client which was disconnected for lagging too far behind in acknowledging the messages of its room.
+     */
+    public void recordLagEviction() {
+
+        this.lagEvictions.increment();
+
+    }
+
+    /**
+     * Returns the number of chat messages received per second. The rate is measured over the time since
+     * the previous measurement, which is repeated at most once per second.
+     * @return the messages per second
+     */
+    public synchronized double getMessageRate() {
+
+        long now = System.nanoTime();
+        long elapsed = now - this.rateSampleNanos;
+
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+
+            long messages = this.messagesReceived.sum();
+            this.messageRate = (messages - this.rateSampleMessages) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            this.rateSampleMessages = messages;
+            this.rateSampleNanos = now;
+
+        }
+
+        return this.messageRate;
+
+    }
+
+    /**
+     * Methods that are used to return the counters and histograms.
+     */
+    public long getConnectionsAccepted() {
+        return connectionsAccepted.sum();
+    }
+
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    public long getCommandsExecuted() {
+        return commandsExecuted.sum();
+    }
+
+    public long getBroadcasts() {
+        return broadcasts.sum();
+    }
+
+    public long getDeliveries() {
+        return deliveries.sum();
+    }
+
+    public long getWriteStalls() {
+        return writeStalls.sum();
+    }
+
+    public long getRateLimitThrottles() {
+        return rateLimitThrottles.sum();
+    }
+
+    public long getRateLimitDrops() {
+        return rateLimitDrops.sum();
+    }
+
+    public long getRateLimitDisconnects() {
+        return rateLimitDisconnects.sum();
+    }
+
+    public long getLagEvictions() {
+        return lagEvictions.sum();
+    }
+
+    public LatencyHistogram getBroadcastLatency() {
+        return broadcastLatency;
+    }
+
+    public LatencyHistogram getCommandLatency() {
+        return commandLatency;
+    }
+
+    public LatencyHistogram getWriteStallLatency() {
+        return writeStallLatency;
+    }
+
+}
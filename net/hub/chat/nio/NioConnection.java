@@ -0,0 +1,703 @@
+package net.hub.chat.nio;
+
+import net.hub.chat.ChatRoom;
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+import net.hub.chat.Frame;
+import net.hub.chat.FrameCodec;
+import net.hub.chat.OutboundQueue;
+import net.hub.chat.ProtocolV2;
+import net.hub.chat.WireProtocol;
+import net.hub.chat.limits.MessageKind;
+import net.hub.chat.limits.MessageRateLimiter;
+import net.hub.chat.limits.RateLimitAction;
+import net.hub.chat.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The class that represents a client connection served by a reactor of the NioServerEngine.
+ * Incoming bytes are accumulated until a complete frame is available and then the frame is handed over to the chat server.
+ * The frames are writeUTF frames (an unsigned 16 bit length followed by the modified UTF-8 bytes) unless the client
+ * asked for the protocol v2 in its first frame, in which case they are v2 frames from then on.
+ * Outgoing frames are put in a bounded outbound queue and encoded to the protocol of the client by the reactor
+ * thread, which drains the queue whenever the channel can accept more bytes, so a sender is never blocked by a slow client.
+ * If compression is negotiated the reactor thread is both the reader and the writer of the connection, so it uses both compressors of the codec.
+ * A client over its message rate is throttled by no longer reading from its channel until its budget allows the message,
+ * the reactor resumes reading at that time.
+ * If the server has a TLS context the bytes of the channel go through a TlsChannel, which decrypts them into the read buffer
+ * and encrypts the batches of outgoing frames, the frames themselves are the same.
+ * The BLOCK overflow policy can not be honoured when the sender is the reactor that drains the queue,
+ * in that case the slow client is evicted like with the DISCONNECT policy.
+ */
+public class NioConnection implements ClientConnection {
+
+    private static final Logger LOG = Logger.getLogger(NioConnection.class);
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private static final int MAX_FRAME_SIZE = 4 + ProtocolV2.MAX_FRAME_BYTES;
+    private static final int MAX_BATCH_FRAMES = 64;
+
+    private ChatServer chatServer;
+    private NioReactor reactor;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private TlsChannel tls;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private OutboundQueue<Frame> outboundQueue;
+    private FrameCodec codec = new FrameCodec();
+    private ByteBuffer[] writeBatch;
+    private int writeBatchSize = 0;
+    private int writeBatchMaxBytes;
+    private long stallStartNanos = 0;
+    private AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile String nickName;
+    private volatile ChatRoom room;
+    private volatile boolean closed = false;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile long ackedSequence = -1;
+    private long handshakeDeadline;
+    private MessageRateLimiter rateLimiter;
+    private boolean throttled = false;
+    private long resumeDeadline;
+    private String pendingMessage;
+    private Frame pendingFrame;
+
+    private Runnable flushTask = new Runnable() {
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    private Runnable closeTask = new Runnable() {
+        public void run() {
+            close();
+        }
+    };
+
+    /**
+     * Creates a new connection for the given channel which will be served by the given reactor.
+     * @param chatServer the chat server that will handle the messages of the client
+     * @param reactor the reactor that owns this connection
+     * @param channel the non-blocking channel of the client
+     */
+    NioConnection(ChatServer chatServer, NioReactor reactor, SocketChannel channel) {
+
+        this.chatServer = chatServer;
+        this.reactor = reactor;
+        this.channel = channel;
+        this.outboundQueue = new OutboundQueue<Frame>(chatServer.getConfig().getOutboundQueueCapacity(), chatServer.getConfig().getOverflowPolicy());
+        this.writeBatchMaxBytes = chatServer.getConfig().getWriteBatchMaxBytes();
+        this.writeBatch = new ByteBuffer[this.writeBatchMaxBytes > 0 ? MAX_BATCH_FRAMES : 2];
+        this.rateLimiter = chatServer.newRateLimiter();
+        SSLContext sslContext = chatServer.getConfig().getSslContext();
+
+        if (sslContext != null) {
+
+            SSLEngine engine = sslContext.createSSLEngine();
+            engine.setUseClientMode(false);
+            this.tls = new TlsChannel(engine, channel);
+
+        }
+
+    }
+
+    /**
+     * Registers the channel with the selector of the reactor. Called from the reactor thread.
+     * Any messages which were queued before the registration are flushed right away.
+     * @param selector the selector of the reactor
+     */
+    void register(Selector selector) {
+
+        try {
+
+            this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+            flush();
+
+        } catch (ClosedChannelException ce) {
+
+            close();
+
+        }
+
+    }
+
+    /**
+     * Sends an encoded message to the client. The frame is queued and the actual write happens on the reactor thread.
+     * If the queue overflows under the DISCONNECT policy then the client is evicted by the chat server.
+     * Messages sent before the handshake is complete are dropped, so the answer to the handshake is always the first message.
+     * @param frame the encoded message to send
+     * @throws IOException if the connection is closed
+     */
+    public void send(Frame frame) throws IOException {
+
+        if (this.closed)
+            throw new IOException("The connection is closed : " + this.channel);
+
+        if (this.nickName == null)
+            return;
+
+        queue(frame);
+
+    }
+
+    /**
+     * Puts a frame in the outbound queue and makes sure the reactor flushes it.
+     */
+    private void queue(Frame frame) {
+
+        if (!this.outboundQueue.offer(frame, !this.reactor.inReactorThread())) {
+
+            this.chatServer.evict(this);
+            return;
+
+        }
+
+        if (this.reactor.inReactorThread())
+            flush();
+        else if (this.flushScheduled.compareAndSet(false, true))
+            this.reactor.execute(this.flushTask);
+
+    }
+
+    /**
+     * Writes as many queued frames as the channel accepts. The queued frames are encoded to the protocol of the client,
+     * gathered in batches of up to the configured number of bytes and every batch is handed to the channel with a single gathering write.
+     * A chat frame may take two slots of the batch, when the nick frame of its sender has to be written first.
+     * If the channel can not accept the whole batch then the connection keeps the rest of it, registers its
+     * interest in writing and waits for the reactor to call it again, which is recorded as a write stall. Called from the reactor thread.
+     * Over TLS the connection also waits for the channel while the TLS layer still holds records it could not write.
+     */
+    void flush() {
+
+        if (this.key == null || this.closed)
+            return;
+
+        try {
+
+            while (true) {
+
+                int batchBytes = 0;
+
+                for (int i = 0; i < this.writeBatchSize; i++)
+                    batchBytes += this.writeBatch[i].remaining();
+
+                while (this.writeBatchSize < this.writeBatch.length - 1 && (this.writeBatchSize == 0 || batchBytes < this.writeBatchMaxBytes)) {
+
+                    Frame next = this.outboundQueue.poll();
+
+                    if (next == null)
+                        break;
+
+                    byte[] bytes = this.codec.encode(next);
+
+                    if (bytes == null)
+                        continue;
+
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    Frame definition = this.codec.definitionFor(next);
+
+                    if (definition != null) {
+
+                        ByteBuffer definitionBuffer = ByteBuffer.wrap(this.codec.encode(definition));
+                        this.writeBatch[this.writeBatchSize++] = definitionBuffer;
+                        batchBytes += definitionBuffer.remaining();
+
+                    }
+
+                    this.writeBatch[this.writeBatchSize++] = buffer;
+                    batchBytes += buffer.remaining();
+
+                }
+
+                if (this.writeBatchSize == 0 && (this.tls == null || this.tls.flushOutput())) {
+
+                    this.key.interestOps(readInterest());
+                    endStall();
+                    return;
+
+                }
+
+                if (this.tls == null)
+                    this.channel.write(this.writeBatch, 0, this.writeBatchSize);
+                else
+                    this.tls.write(this.writeBatch, 0, this.writeBatchSize);
+
+                int written = 0;
+
+                while (written < this.writeBatchSize && !this.writeBatch[written].hasRemaining())
+                    written++;
+
+                System.arraycopy(this.writeBatch, written, this.writeBatch, 0, this.writeBatchSize - written);
+
+                for (int i = this.writeBatchSize - written; i < this.writeBatchSize; i++)
+                    this.writeBatch[i] = null;
+
+                this.writeBatchSize -= written;
+
+                if (this.writeBatchSize > 0 || this.tls != null && this.tls.hasPendingOutput()) {
+
+                    this.key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+
+                    if (this.stallStartNanos == 0)
+                        this.stallStartNanos = System.nanoTime();
+
+                    return;
+
+                }
+
+            }
+
+        } catch (CancelledKeyException ce) {
+
+            close();
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while writing to the channel : {}", this.channel);
+            close();
+
+        }
+
+    }
+
+    /**
+     * Records the time the connection waited for the client to read, once all the pending bytes are written.
+     */
+    private void endStall() {
+
+        if (this.stallStartNanos == 0)
+            return;
+
+        this.chatServer.getMetrics().recordWriteStall(System.nanoTime() - this.stallStartNanos);
+        this.stallStartNanos = 0;
+
+    }
+
+    /**
+     * Called from the reactor thread when the channel can accept more bytes.
+     */
+    void onWritable() {
+
+        flush();
+
+        try {
+
+            processTlsInput();
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while working with the channel : {}", this.channel);
+            close();
+
+        }
+
+    }
+
+    /**
+     * Called from the reactor thread when there are bytes available to read.
+     * All the complete frames in the read buffer are decoded and handed over to the chat server.
+     * The first frame of the connection is the nick name of the client, same as in the ConnectionThread,
+     * and if it asks for the protocol v2 the rest of the buffer is decoded as v2 frames.
+     */
+    void onReadable() {
+
+        try {
+
+            if (readChannel() == -1) {
+
+                close();
+                return;
+
+            }
+
+            this.lastReadNanos = System.nanoTime();
+            processReadBuffer();
+            processTlsInput();
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while working with the channel : {}", this.channel);
+            close();
+
+        }
+
+    }
+
+    /**
+     * Reads the bytes available on the channel into the read buffer, decrypting them if the connection is over TLS.
+     * @return the number of bytes read, or -1 if the channel reached its end
+     * @throws IOException if the channel fails
+     */
+    private int readChannel() throws IOException {
+
+        if (this.tls == null)
+            return this.channel.read(this.readBuffer);
+
+        ensureTlsReadCapacity();
+        return this.tls.read(this.readBuffer);
+
+    }
+
+    /**
+     * Decrypts and handles the records which the TLS layer still holds, because the read buffer had no room for them
+     * or the connection was throttled, and writes the records of the handshake it could not write yet.
+     * @throws IOException if the channel fails or a frame is malformed
+     */
+    private void processTlsInput() throws IOException {
+
+        if (this.tls == null)
+            return;
+
+        while (!this.closed && !this.throttled && this.tls.hasBufferedInput()) {
+
+            ensureTlsReadCapacity();
+
+            if (this.tls.unwrap(this.readBuffer) == 0)
+                break;
+
+            processReadBuffer();
+
+        }
+
+        if (!this.closed && this.tls.hasPendingOutput())
+            flush();
+
+    }
+
+    /**
+     * Makes sure the read buffer has room for a whole decrypted record, which the TLS layer needs to decrypt it.
+     */
+    private void ensureTlsReadCapacity() {
+
+        int needed = this.tls.getApplicationBufferSize();
+
+        if (this.readBuffer.remaining() >= needed)
+            return;
+
+        ByteBuffer larger = ByteBuffer.allocate(this.readBuffer.position() + needed);
+        this.readBuffer.flip();
+        larger.put(this.readBuffer);
+        this.readBuffer = larger;
+
+    }
+
+    /**
+     * Decodes and handles the complete frames of the read buffer, until there are no more or the connection is throttled.
+     * @throws IOException if a frame is malformed
+     */
+    private void processReadBuffer() throws IOException {
+
+        this.readBuffer.flip();
+
+        while (!this.throttled) {
+
+            if (this.nickName != null && this.codec.getProtocol() == WireProtocol.V2) {
+
+                Frame frame = ProtocolV2.read(this.readBuffer, this.codec.getInflater());
+
+                if (frame == null)
+                    break;
+
+                handleFrame(frame);
+
+            } else {
+
+                if (this.readBuffer.remaining() < 2)
+                    break;
+
+                int length = this.readBuffer.getShort(this.readBuffer.position()) & 0xFFFF;
+
+                if (this.readBuffer.remaining() < 2 + length)
+                    break;
+
+                String message = decode(this.readBuffer, length);
+
+                if (this.nickName == null)
+                    handshake(message);
+                else
+                    handleMessage(message);
+
+            }
+
+            if (this.closed)
+                return;
+
+        }
+
+        this.readBuffer.compact();
+
+        if (!this.readBuffer.hasRemaining() && this.readBuffer.capacity() < MAX_FRAME_SIZE) {
+
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(this.readBuffer.capacity() * 2, MAX_FRAME_SIZE));
+            this.readBuffer.flip();
+            larger.put(this.readBuffer);
+            this.readBuffer = larger;
+
+        }
+
+    }
+
+    /**
+     * Hands a legacy message over to the chat server if it is within the rate limits of the client,
+     * else keeps it until the throttled connection resumes.
+     */
+    private void handleMessage(String message) {
+
+        if (admit(message.startsWith(ChatServer.COMMAND_PREFIX) ? MessageKind.COMMAND : MessageKind.CHAT))
+            this.chatServer.handleMessage(message, this);
+        else if (this.throttled)
+            this.pendingMessage = message;
+
+    }
+
+    /**
+     * Hands a v2 frame over to the chat server if it is within the rate limits of the client,
+     * else keeps it until the throttled connection resumes. Every frame is charged to the budget of its kind.
+     */
+    private void handleFrame(Frame frame) {
+
+        if (admit(ChatServer.kindOf(frame)))
+            this.chatServer.handleFrame(frame, this);
+        else if (this.throttled)
+            this.pendingFrame = frame;
+
+    }
+
+    /**
+     * Check to see if a message is within the rate limits of the client, else applies the configured action:
+     * the connection is throttled until the budget has a token, the message is dropped or the connection is closed.
+     * @param kind the kind of the message
+     * @return true if the message can be handled now else false
+     */
+    private boolean admit(MessageKind kind) {
+
+        if (this.rateLimiter == null || this.rateLimiter.tryAcquire(kind))
+            return true;
+
+        RateLimitAction action = this.rateLimiter.getAction();
+
+        if (action == RateLimitAction.THROTTLE) {
+
+            this.chatServer.getMetrics().recordRateLimitThrottle();
+            this.throttled = true;
+            this.resumeDeadline = System.nanoTime() + this.rateLimiter.nanosUntilAvailable(kind);
+            this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+            this.reactor.resumeLater(this);
+
+        } else if (action == RateLimitAction.DROP) {
+
+            this.chatServer.getMetrics().recordRateLimitDrop();
+
+        } else {
+
+            this.chatServer.getMetrics().recordRateLimitDisconnect();
+            LOG.info("Disconnecting client over its message rate : {}", this);
+            close();
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Called from the reactor thread when the throttle deadline of the connection has passed.
+     * The message that was held back is handled first, then the rest of the read buffer, and reading is resumed.
+     */
+    void resumeReading() {
+
+        if (this.closed)
+            return;
+
+        try {
+
+            this.throttled = false;
+            String message = this.pendingMessage;
+            Frame frame = this.pendingFrame;
+            this.pendingMessage = null;
+            this.pendingFrame = null;
+
+            if (message != null)
+                handleMessage(message);
+            else if (frame != null)
+                handleFrame(frame);
+
+            if (this.closed)
+                return;
+
+            if (this.throttled)
+                return;
+
+            processReadBuffer();
+            processTlsInput();
+
+            if (!this.closed && !this.throttled)
+                this.key.interestOps(this.key.interestOps() | SelectionKey.OP_READ);
+
+        } catch (CancelledKeyException ce) {
+
+            close();
+
+        } catch (IOException ie) {
+
+            LOG.debug("There was an error while working with the channel : {}", this.channel);
+            close();
+
+        }
+
+    }
+
+    /**
+     * Returns the read interest of the connection, which is dropped while the connection is throttled.
+     */
+    private int readInterest() {
+
+        return this.throttled ? 0 : SelectionKey.OP_READ;
+
+    }
+
+    /**
+     * Handles the first frame of the connection, which holds the nick name and the protocol the client asks for.
+     * The protocol v2 is acknowledged before the client is welcomed. A client whose nick name is used by another client
+     * is told so and closed, the messages are flushed by the reactor thread right away, before the channel is closed.
+     * @param hello the first frame
+     */
+    private void handshake(String hello) {
+
+        String answer = this.chatServer.negotiate(hello, this, this.codec);
+        String requestedNickName = answer != null ? ProtocolV2.nickNameOf(hello) : hello;
+
+        if (answer != null)
+            queue(Frame.handshake(answer));
+
+        if (!this.chatServer.claimNickName(this, requestedNickName)) {
+
+            LOG.info("Refusing the nick name in use : {} from {}", requestedNickName, this.channel);
+            queue(Frame.system(ChatServer.nickNameInUse(requestedNickName)));
+            close();
+            return;
+
+        }
+
+        this.nickName = requestedNickName;
+        this.chatServer.welcomeClient(this);
+
+    }
+
+    /**
+     * Closes the connection asynchronously by asking the reactor to close it.
+     */
+    public void disconnect() {
+
+        this.reactor.execute(this.closeTask);
+
+    }
+
+    /**
+     * Closes the connection once, discards the queued messages and requests from the chat server to invalidate it.
+     */
+    void close() {
+
+        if (this.closed)
+            return;
+
+        this.closed = true;
+        this.outboundQueue.close();
+        this.codec.endDeflater();
+        this.codec.endInflater();
+
+        if (this.tls != null)
+            this.tls.close();
+
+        this.chatServer.invalidate(this);
+
+    }
+
+    /**
+     * Decodes the writeUTF frame found at the current position of the buffer and moves the position after it.
+     * @param buffer the buffer holding the frame
+     * @param length the length of the modified UTF-8 bytes of the frame
+     * @return the decoded message
+     * @throws IOException if the bytes are not valid modified UTF-8
+     */
+    private static String decode(ByteBuffer buffer, int length) throws IOException {
+
+        int offset = buffer.arrayOffset() + buffer.position();
+        buffer.position(buffer.position() + 2 + length);
+        return new DataInputStream(new ByteArrayInputStream(buffer.array(), offset, 2 + length)).readUTF();
+
+    }
+
+    /**
+     * Getter methods for the internal variables.
+     */
+    public SocketChannel getConnection() {
+        return channel;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public ChatRoom getRoom() {
+        return room;
+    }
+
+    public void setRoom(ChatRoom room) {
+        this.room = room;
+    }
+
+    public OutboundQueue<Frame> getOutboundQueue() {
+        return outboundQueue;
+    }
+
+    public WireProtocol getProtocol() {
+        return codec.getProtocol();
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    public void acknowledge(long sequence) {
+        this.ackedSequence = sequence;
+    }
+
+    public long getAckedSequence() {
+        return ackedSequence;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    long getResumeDeadline() {
+        return resumeDeadline;
+    }
+
+    long getHandshakeDeadline() {
+        return handshakeDeadline;
+    }
+
+    void setHandshakeDeadline(long handshakeDeadline) {
+        this.handshakeDeadline = handshakeDeadline;
+    }
+
+    public String toString() {
+        return "NioConnection[" + channel + "]";
+    }
+
+}
@@ -0,0 +1,294 @@
+package net.hub.chat.nio;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.logging.Logger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reactor thread which owns a Selector and all the connections registered with it.
+ * Only the reactor thread touches the selection keys, other threads hand over work by submitting tasks
+ * which are executed by the reactor after it wakes up from the select() call.
+ * The reactor also closes the connections which do not send their nick name within the handshake timeout.
+ * All connections get the same timeout, so they expire in the order they were registered and a FIFO queue of them is enough.
+ * Connections throttled for their message rate wait in a queue ordered by the time they may read again.
+ */
+class NioReactor extends Thread {
+
+    private static final Logger LOG = Logger.getLogger(NioReactor.class);
+
+    private Selector selector;
+    private Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private ChatServer chatServer;
+    private volatile boolean running = true;
+    private long handshakeTimeoutNanos;
+    private ArrayDeque<NioConnection> handshakes = new ArrayDeque<NioConnection>();
+    private PriorityQueue<NioConnection> throttled = new PriorityQueue<NioConnection>(new Comparator<NioConnection>() {
+        public int compare(NioConnection first, NioConnection second) {
+            return Long.signum(first.getResumeDeadline() - second.getResumeDeadline());
+        }
+    });
+
+    /**
+     * Creates a new reactor thread with its own selector.
+     * @param name the name of the reactor thread
+     * @param chatServer the chat server, whose configuration holds the handshake timeout
+     * @throws IOException if the selector can not be opened
+     */
+    NioReactor(String name, ChatServer chatServer) throws IOException {
+
+        super(name);
+        this.selector = Selector.open();
+        this.chatServer = chatServer;
+        this.handshakeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(chatServer.getConfig().getHandshakeTimeoutMillis());
+
+    }
+
+    /**
+     * Registers a newly accepted connection with the selector of this reactor.
+     * @param connection the connection to register
+     */
+    void register(final NioConnection connection) {
+
+        execute(new Runnable() {
+            public void run() {
+                connection.register(selector);
+
+                if (handshakeTimeoutNanos > 0) {
+                    connection.setHandshakeDeadline(System.nanoTime() + handshakeTimeoutNanos);
+                    handshakes.add(connection);
+                }
+            }
+        });
+
+    }
+
+    /**
+     * Queues a throttled connection until its resume deadline. Called from the reactor thread only.
+     * @param connection the connection which stopped reading
+     */
+    void resumeLater(NioConnection connection) {
+
+        this.throttled.add(connection);
+
+    }
+
+    /**
+     * Submits a task to be executed by the reactor thread and wakes up the selector if needed.
+     * @param task the task to execute
+     */
+    void execute(Runnable task) {
+
+        this.tasks.add(task);
+
+        if (!inReactorThread())
+            this.selector.wakeup();
+
+    }
+
+    /**
+     * Stops the reactor once it has run the tasks submitted before, its selector is closed when it stops.
+     */
+    void shutdown() {
+
+        execute(new Runnable() {
+            public void run() {
+                running = false;
+            }
+        });
+
+    }
+
+    /**
+     * Check to see if the calling thread is this reactor.
+     * @return true if the caller is the reactor thread else false
+     */
+    boolean inReactorThread() {
+
+        return Thread.currentThread() == this;
+
+    }
+
+    /**
+     * Run method inherited from the Thread class, which described the way the thread will execute.
+     * The reactor blocks on the selector until a channel is ready or a task is submitted.
+     * First the pending tasks are executed and then every ready connection is asked to read or write.
+     * While connections are waiting for their handshake or are throttled the select() call is bounded by the earliest deadline.
+     * A task or a connection which throws, for example a CancelledKeyException when the key is cancelled between the checks,
+     * is logged and only the offending connection is closed, so the reactor keeps serving all the others.
+     * The reactor stops when it is shut down, closing its selector.
+     */
+    public void run() {
+
+        while (this.running) {
+
+            try {
+
+                long timeout = selectTimeout();
+
+                if (timeout == 0)
+                    this.selector.select();
+                else
+                    this.selector.select(timeout);
+
+            } catch (IOException ie) {
+
+                LOG.error("There was an error while waiting on the selector of {}", getName());
+                return;
+
+            }
+
+            Runnable task;
+
+            while ((task = this.tasks.poll()) != null) {
+
+                try {
+
+                    task.run();
+
+                } catch (RuntimeException re) {
+
+                    LOG.error("A task of {} failed : {}", getName(), re);
+
+                }
+
+            }
+
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+
+            while (keys.hasNext()) {
+
+                SelectionKey key = keys.next();
+                keys.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+
+                try {
+
+                    if (key.isValid() && key.isWritable())
+                        connection.onWritable();
+
+                    if (key.isValid() && key.isReadable())
+                        connection.onReadable();
+
+                } catch (RuntimeException re) {
+
+                    LOG.error("The connection of {} failed on {} : {}", connection.getNickName(), getName(), re);
+                    closeQuietly(connection);
+
+                }
+
+            }
+
+            expireHandshakes();
+            resumeThrottled();
+
+        }
+
+        try {
+
+            this.selector.close();
+
+        } catch (IOException ie) {
+
+            LOG.warn("There was an error while closing the selector of {}", getName());
+
+        }
+
+    }
+
+    /**
+     * Closes a connection which failed while it was served, logging a failure of the close itself instead of throwing it.
+     * @param connection the connection to close
+     */
+    private void closeQuietly(NioConnection connection) {
+
+        try {
+
+            connection.close();
+
+        } catch (RuntimeException re) {
+
+            LOG.error("The connection of {} could not be closed : {}", connection.getNickName(), re);
+
+        }
+
+    }
+
+    /**
+     * Returns how long the select() call may block until the earliest handshake or throttle deadline.
+     * @return the timeout in milliseconds, at least one, or zero if there is no deadline
+     */
+    private long selectTimeout() {
+
+        NioConnection handshake = this.handshakes.peek();
+        NioConnection throttle = this.throttled.peek();
+
+        if (handshake == null && throttle == null)
+            return 0;
+
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+
+        if (handshake != null)
+            wait = handshake.getHandshakeDeadline() - now;
+
+        if (throttle != null)
+            wait = Math.min(wait, throttle.getResumeDeadline() - now);
+
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+
+    }
+
+    /**
+     * Resumes reading from the throttled connections whose deadline has passed.
+     */
+    private void resumeThrottled() {
+
+        long now = System.nanoTime();
+        NioConnection connection;
+
+        while ((connection = this.throttled.peek()) != null && connection.getResumeDeadline() - now <= 0) {
+
+            this.throttled.poll();
+            connection.resumeReading();
+
+        }
+
+    }
+
+    /**
+     * Closes the connections whose handshake deadline has passed and forgets the ones that completed their handshake.
+     */
+    private void expireHandshakes() {
+
+        long now = System.nanoTime();
+        NioConnection connection;
+
+        while ((connection = this.handshakes.peek()) != null) {
+
+            if (connection.getNickName() == null && !connection.isClosed()) {
+
+                if (connection.getHandshakeDeadline() - now > 0)
+                    return;
+
+                this.chatServer.getAdmission().recordHandshakeTimeout(connection);
+                connection.close();
+
+            }
+
+            this.handshakes.poll();
+
+        }
+
+    }
+
+}
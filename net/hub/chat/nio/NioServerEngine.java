@@ -0,0 +1,131 @@
+package net.hub.chat.nio;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.logging.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The selector based engine of the chat server. Instead of creating a new thread for every accepted connection,
+ * the connections are distributed in a round robin fashion to a small number of reactor threads.
+ * Each reactor multiplexes its connections on a single Selector using non-blocking reads and writes.
+ * The wire format is the same that the thread per connection engine uses.
+ * Every accepted connection goes through the admission control of the chat server before it is handed over to a reactor.
+ */
+public class NioServerEngine {
+
+    private static final Logger LOG = Logger.getLogger(NioServerEngine.class);
+
+    private ChatServer chatServer;
+    private int port;
+    private ServerSocketChannel serverChannel;
+    private NioReactor[] reactors;
+    private int nextReactor = 0;
+
+    /**
+     * Creates a new engine for the chat server which binds to the given port and starts the reactor threads.
+     * @param chatServer the chat server that will handle the messages of the clients
+     * @param port the port which will be used by the server
+     * @param reactorCount the number of reactor threads, at least one reactor is always created
+     * @throws IOException if the port is in use or invalid and can no be bound
+     */
+    public NioServerEngine(ChatServer chatServer, int port, int reactorCount) throws IOException {
+
+        this.chatServer = chatServer;
+        this.port = port;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.reactors = new NioReactor[Math.max(1, reactorCount)];
+
+        for (int i = 0; i < this.reactors.length; i++) {
+
+            this.reactors[i] = new NioReactor("NioReactor-" + i, chatServer);
+            this.reactors[i].start();
+
+        }
+
+    }
+
+    /**
+     * The engine listens for new requests for connection from clients, until it is closed.
+     * This method has a repeating loop which blocks on the ServerSocketChannel accept() method.
+     * Whenever a new connection is accepted and admitted it is switched to non-blocking mode and handed over to the next reactor.
+     * The loop waits before accepting while the chat server is saturated.
+     * @throws IOException if an error occurs while waiting
+     */
+    public void listen() throws IOException {
+
+        LOG.info("Chat Server listening at port : {} with {} reactor threads", this.port, this.reactors.length);
+
+        while (true) {
+
+            this.chatServer.getAdmission().awaitCapacity();
+            SocketChannel channel;
+
+            try {
+
+                channel = this.serverChannel.accept();
+
+            } catch (ClosedChannelException ce) {
+
+                return;
+
+            }
+
+            if (!this.chatServer.getAdmission().admit(channel.socket()))
+                continue;
+
+            LOG.info("Received connection from {}", channel);
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, this.chatServer.getConfig().isTcpNoDelay());
+
+            NioReactor reactor = this.reactors[this.nextReactor];
+            this.nextReactor = (this.nextReactor + 1) % this.reactors.length;
+
+            NioConnection connection = new NioConnection(this.chatServer, reactor, channel);
+            this.chatServer.registerClient(connection);
+            reactor.register(connection);
+
+        }
+
+    }
+
+    /**
+     * Closes the listening channel and stops the reactor threads once they have run the tasks already submitted to them,
+     * so the connections disconnected before are closed first. It waits for the reactors to stop,
+     * since closing a connection still hands its leave message over to the broadcast pool of the chat server.
+     */
+    public void close() {
+
+        try {
+
+            this.serverChannel.close();
+
+        } catch (IOException ie) {
+
+            LOG.warn("There was an error while closing the listening channel at port : {}", this.port);
+
+        }
+
+        for (NioReactor reactor : this.reactors)
+            reactor.shutdown();
+
+        try {
+
+            for (NioReactor reactor : this.reactors)
+                reactor.join();
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+    }
+
+}
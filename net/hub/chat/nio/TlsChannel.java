@@ -0,0 +1,271 @@
+package net.hub.chat.nio;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The TLS layer of a NioConnection, which encrypts and decrypts the bytes of its non-blocking channel with an SSLEngine.
+ * The encrypted bytes read from the channel are kept in the inbound buffer until they form a whole record and are decrypted
+ * into the read buffer of the connection, the records encrypted from the outbound frames are kept in the outbound buffer
+ * until the channel accepts them. The handshake is driven by the reads and the writes of the connection, whichever the engine waits for,
+ * and its delegated tasks run right away on the reactor thread, since they are short compared with a round trip to the client.
+ * A client which comes back with the ticket or the session id of an earlier connection resumes its TLS session and skips
+ * the certificate and key exchange, the session cache and the tickets are handled by the SSLContext of the server.
+ * It is only touched by the reactor thread of its connection.
+ */
+class TlsChannel {
+
+    private static final ByteBuffer[] EMPTY = { ByteBuffer.allocate(0) };
+
+    private SSLEngine engine;
+    private SocketChannel channel;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private boolean inboundClosed = false;
+
+    /**
+     * Creates the TLS layer of a channel.
+     * @param engine the engine of the connection, in server mode
+     * @param channel the non-blocking channel of the client
+     */
+    TlsChannel(SSLEngine engine, SocketChannel channel) {
+
+        this.engine = engine;
+        this.channel = channel;
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut.flip();
+
+    }
+
+    /**
+     * Reads the encrypted bytes available on the channel and decrypts as many of them as possible.
+     * @param dst the buffer the decrypted bytes are put in, which must have room for a whole record
+     * @return the number of decrypted bytes, or -1 if the channel reached its end or the client closed the TLS session
+     * @throws IOException if the channel or the engine fails
+     */
+    int read(ByteBuffer dst) throws IOException {
+
+        int read = this.channel.read(this.netIn);
+        int produced = unwrap(dst);
+
+        if (produced == 0 && (read == -1 || this.inboundClosed))
+            return -1;
+
+        return produced;
+
+    }
+
+    /**
+     * Decrypts the whole records of the inbound buffer, taking the steps of the handshake the engine asks for on the way.
+     * It stops when the records run out, when the destination is full or when the handshake waits for the channel to accept its bytes.
+     * @param dst the buffer the decrypted bytes are put in, which must have room for a whole record
+     * @return the number of decrypted bytes
+     * @throws IOException if the channel or the engine fails
+     */
+    int unwrap(ByteBuffer dst) throws IOException {
+
+        int produced = 0;
+        this.netIn.flip();
+
+        try {
+
+            while (true) {
+
+                progressHandshake();
+
+                if (this.engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP || !this.netIn.hasRemaining())
+                    break;
+
+                SSLEngineResult result = this.engine.unwrap(this.netIn, dst);
+                produced += result.bytesProduced();
+
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+
+                    this.inboundClosed = true;
+                    break;
+
+                }
+
+                if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesConsumed() == 0)
+                    break;
+
+            }
+
+        } finally {
+
+            this.netIn.compact();
+
+        }
+
+        int packetSize = this.engine.getSession().getPacketBufferSize();
+
+        if (this.netIn.capacity() < packetSize) {
+
+            ByteBuffer larger = ByteBuffer.allocate(packetSize);
+            this.netIn.flip();
+            larger.put(this.netIn);
+            this.netIn = larger;
+
+        }
+
+        return produced;
+
+    }
+
+    /**
+     * Encrypts the remaining bytes of the given buffers and writes the records to the channel, until the buffers are empty
+     * or the channel accepts no more bytes. Nothing is encrypted while the handshake is in progress or while earlier records are still pending.
+     * @param srcs the buffers holding the bytes to send
+     * @param offset the first buffer to send
+     * @param length the number of buffers to send
+     * @return the number of bytes taken from the buffers
+     * @throws IOException if the channel or the engine fails or the TLS session is closed
+     */
+    long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+
+        if (!flushOutput() || !progressHandshake())
+            return 0;
+
+        long consumed = 0;
+
+        while (true) {
+
+            SSLEngineResult result = wrap(srcs, offset, length);
+            consumed += result.bytesConsumed();
+
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED)
+                throw new SSLException("The TLS session is closed : " + this.channel);
+
+            if (!flushOutput() || result.bytesConsumed() == 0)
+                return consumed;
+
+        }
+
+    }
+
+    /**
+     * Takes the steps of the handshake which do not need bytes from the client, running the delegated tasks
+     * and writing the handshake records, until the engine waits for the client or the channel accepts no more bytes.
+     * @return true if the handshake is complete, else false
+     * @throws IOException if the channel or the engine fails
+     */
+    private boolean progressHandshake() throws IOException {
+
+        while (true) {
+
+            SSLEngineResult.HandshakeStatus status = this.engine.getHandshakeStatus();
+
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+
+                Runnable task;
+
+                while ((task = this.engine.getDelegatedTask()) != null)
+                    task.run();
+
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+
+                if (!flushOutput())
+                    return false;
+
+                SSLEngineResult result = wrap(EMPTY, 0, 1);
+
+                if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesProduced() == 0) {
+
+                    flushOutput();
+                    return false;
+
+                }
+
+            } else {
+
+                flushOutput();
+                return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING || status == SSLEngineResult.HandshakeStatus.FINISHED;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Encrypts the bytes of the given buffers into the outbound buffer.
+     */
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws SSLException {
+
+        this.netOut.compact();
+
+        try {
+
+            return this.engine.wrap(srcs, offset, length, this.netOut);
+
+        } finally {
+
+            this.netOut.flip();
+
+        }
+
+    }
+
+    /**
+     * Writes the pending records of the outbound buffer to the channel.
+     * @return true if all of them were written, else false
+     * @throws IOException if the channel fails
+     */
+    boolean flushOutput() throws IOException {
+
+        while (this.netOut.hasRemaining()) {
+
+            if (this.channel.write(this.netOut) == 0)
+                return false;
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Sends the close_notify alert of the TLS session if the channel accepts it right away, the channel is closed afterwards anyway.
+     */
+    void close() {
+
+        this.engine.closeOutbound();
+
+        try {
+
+            if (flushOutput()) {
+
+                wrap(EMPTY, 0, 1);
+                flushOutput();
+
+            }
+
+        } catch (IOException ie) {
+
+            return;
+
+        }
+
+    }
+
+    /**
+     * Getter methods for the state of the buffers.
+     */
+    boolean hasPendingOutput() {
+        return netOut.hasRemaining();
+    }
+
+    boolean hasBufferedInput() {
+        return netIn.position() > 0;
+    }
+
+    int getApplicationBufferSize() {
+        return engine.getSession().getApplicationBufferSize();
+    }
+
+}
@@ -0,0 +1,16 @@
+package net.hub.chat.store;
+
+/**
+ * The policies that decide when the message log forces its writes to the disk.
+ * EVERY_MESSAGE forces after every batch written by the appender, so every message is on the disk before
+ * the next batch is written. The messages that queued up while the disk was busy are committed together.
+ * INTERVAL forces at most once every configured number of milliseconds.
+ * OS never forces and leaves it to the operating system to write the pages back.
+ */
+public enum FsyncPolicy {
+
+    EVERY_MESSAGE,
+    INTERVAL,
+    OS
+
+}
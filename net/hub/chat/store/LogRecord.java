@@ -0,0 +1,48 @@
+package net.hub.chat.store;
+
+/**
+ * A single message read back from the message log, together with its offset and the time it was logged.
+ */
+public class LogRecord {
+
+    private long offset;
+    private long timestamp;
+    private String room;
+    private String message;
+
+    /**
+     * Creates a new log record.
+     * @param offset the position of the record in the log, starting from zero
+     * @param timestamp the time the message was logged in milliseconds since the epoch
+     * @param room the name of the room the message was transmitted to
+     * @param message the message
+     */
+    public LogRecord(long offset, long timestamp, String room, String message) {
+
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.room = room;
+        this.message = message;
+
+    }
+
+    /**
+     * Getter methods for the internal variables.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+}
@@ -0,0 +1,516 @@
+package net.hub.chat.store;
+
+import net.hub.chat.ProtocolV2;
+import net.hub.chat.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A single segment of the message log. It consists of a log file holding the framed records one after the other
+ * and a sparse index file with an entry every few kilobytes, which maps an offset and a timestamp to the position
+ * of a record in the log file. The files are named after the offset of the first record of the segment.
+ * A record is framed as : the length of the rest of the record, the CRC32 of everything after the checksum,
+ * the offset, the timestamp, the length of the room name, the room name and the message, both in UTF-8.
+ * The room name is cut to the 65535 bytes its length field holds and the message to the largest frame of the protocol,
+ * so that a record is never larger than the reader accepts : a larger record would look corrupted and the recovery
+ * would truncate it together with every record after it.
+ * Records are appended to a write buffer by the single appender thread and written to the file on flush().
+ * Readers may read the segment concurrently, they only see the records which have already been flushed.
+ */
+class LogSegment {
+
+    private static final Logger LOG = Logger.getLogger(LogSegment.class);
+
+    static final String LOG_SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".index";
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 2;
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+    static final int MAX_ROOM_BYTES = 65535;
+    static final int MAX_MESSAGE_BYTES = ProtocolV2.MAX_FRAME_BYTES;
+    private static final int MAX_RECORD_SIZE = HEADER_SIZE + MAX_ROOM_BYTES + MAX_MESSAGE_BYTES;
+
+    private long baseOffset;
+    private FileChannel log;
+    private FileChannel index;
+    private int indexIntervalBytes;
+    private volatile long size = 0;
+    private long nextOffset;
+    private long bytesSinceIndexEntry = 0;
+
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer indexBuffer = ByteBuffer.allocate(64 * INDEX_ENTRY_SIZE);
+    private CRC32 crc = new CRC32();
+
+    private long[] indexOffsets = new long[64];
+    private long[] indexTimestamps = new long[64];
+    private int[] indexPositions = new int[64];
+    private int indexSize = 0;
+
+    /**
+     * Opens the segment with the given base offset, creating its files if they do not exist.
+     * The last segment of the log is recovered : its records are validated one by one, a torn or corrupted
+     * tail is truncated and its index is rebuilt. The index of any other segment is loaded as it is.
+     * @param directory the directory of the log
+     * @param baseOffset the offset of the first record of the segment
+     * @param indexIntervalBytes the number of bytes between two index entries
+     * @param recover if the segment has to be recovered
+     * @throws IOException if the files can not be opened or read
+     */
+    LogSegment(File directory, long baseOffset, int indexIntervalBytes, boolean recover) throws IOException {
+
+        this.baseOffset = baseOffset;
+        this.nextOffset = baseOffset;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.log = FileChannel.open(new File(directory, fileName(baseOffset, LOG_SUFFIX)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(new File(directory, fileName(baseOffset, INDEX_SUFFIX)).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        if (recover)
+            recover();
+        else
+            loadIndex();
+
+    }
+
+    /**
+     * Returns the name of a file of the segment with the given base offset, zero padded so that the names sort by offset.
+     * @param baseOffset the offset of the first record of the segment
+     * @param suffix the suffix of the file
+     * @return the name of the file
+     */
+    static String fileName(long baseOffset, String suffix) {
+
+        return String.format("%020d", baseOffset) + suffix;
+
+    }
+
+    /**
+     * Scans the whole log file, validating the length, the checksum and the offset of every record.
+     * The file is truncated right after the last valid record and the index is rebuilt from the valid records.
+     */
+    private void recover() throws IOException {
+
+        this.index.truncate(0);
+        long position = 0;
+        long fileSize = this.log.size();
+
+        while (position < fileSize) {
+
+            LogRecord record = readRecord(position, fileSize);
+
+            if (record == null || record.getOffset() != this.nextOffset)
+                break;
+
+            int recordSize = recordSize(position);
+            addIndexEntry(record.getOffset(), record.getTimestamp(), position, recordSize);
+            this.nextOffset++;
+            position += recordSize;
+
+        }
+
+        if (position < fileSize) {
+
+            LOG.warn("Truncating the torn tail of the message log segment {} at position {}", this.baseOffset, position);
+            this.log.truncate(position);
+
+        }
+
+        this.size = position;
+        writeIndexEntries();
+        this.log.position(this.size);
+
+    }
+
+    /**
+     * Loads the sparse index of a segment that does not need to be recovered and finds where the segment ends.
+     */
+    private void loadIndex() throws IOException {
+
+        ByteBuffer entries = ByteBuffer.allocate((int) this.index.size());
+        this.index.read(entries, 0);
+        entries.flip();
+
+        while (entries.remaining() >= INDEX_ENTRY_SIZE)
+            storeIndexEntry(entries.getLong(), entries.getLong(), entries.getInt());
+
+        this.size = this.log.size();
+        this.log.position(this.size);
+
+        long position = this.indexSize > 0 ? this.indexPositions[this.indexSize - 1] : 0;
+        this.nextOffset = this.indexSize > 0 ? this.indexOffsets[this.indexSize - 1] : this.baseOffset;
+
+        while (position < this.size) {
+
+            position += recordSize(position);
+            this.nextOffset++;
+
+        }
+
+    }
+
+    /**
+     * Adds a record to the write buffer of the segment, cutting the room name and the message to their maximum sizes.
+     * Called from the appender thread only.
+     * @param offset the offset of the record
+     * @param timestamp the time the message was logged
+     * @param room the name of the room
+     * @param message the message
+     */
+    void append(long offset, long timestamp, String room, String message) throws IOException {
+
+        byte[] roomBytes = truncate(room.getBytes(StandardCharsets.UTF_8), MAX_ROOM_BYTES);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+
+        if (messageBytes.length > MAX_MESSAGE_BYTES) {
+
+            LOG.warn("Truncating a message of {} bytes to {} bytes in the message log", messageBytes.length, MAX_MESSAGE_BYTES);
+            messageBytes = truncate(messageBytes, MAX_MESSAGE_BYTES);
+
+        }
+
+        int recordSize = HEADER_SIZE + roomBytes.length + messageBytes.length;
+
+        if (this.writeBuffer.remaining() < recordSize) {
+
+            flush();
+
+            if (this.writeBuffer.capacity() < recordSize)
+                this.writeBuffer = ByteBuffer.allocate(recordSize);
+
+        }
+
+        long position = this.size + this.writeBuffer.position();
+        int start = this.writeBuffer.position();
+
+        this.writeBuffer.putInt(recordSize - 4);
+        this.writeBuffer.putInt(0);
+        this.writeBuffer.putLong(offset);
+        this.writeBuffer.putLong(timestamp);
+        this.writeBuffer.putShort((short) roomBytes.length);
+        this.writeBuffer.put(roomBytes);
+        this.writeBuffer.put(messageBytes);
+
+        this.crc.reset();
+        this.crc.update(this.writeBuffer.array(), start + 8, recordSize - 8);
+        this.writeBuffer.putInt(start + 4, (int) this.crc.getValue());
+
+        addIndexEntry(offset, timestamp, position, recordSize);
+        this.nextOffset = offset + 1;
+
+    }
+
+    /**
+     * Cuts UTF-8 bytes to at most the given length, without splitting a character.
+     * @param bytes the UTF-8 bytes
+     * @param maxLength the maximum length
+     * @return the bytes themselves if they are short enough, else a copy of the longest prefix of whole characters
+     */
+    private static byte[] truncate(byte[] bytes, int maxLength) {
+
+        if (bytes.length <= maxLength)
+            return bytes;
+
+        int length = maxLength;
+
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80)
+            length--;
+
+        return Arrays.copyOf(bytes, length);
+
+    }
+
+    /**
+     * Writes the buffered records and the new index entries to the files. Called from the appender thread only.
+     */
+    void flush() throws IOException {
+
+        this.writeBuffer.flip();
+
+        while (this.writeBuffer.hasRemaining())
+            this.log.write(this.writeBuffer);
+
+        this.size = this.log.position();
+        this.writeBuffer.clear();
+        writeIndexEntries();
+
+    }
+
+    /**
+     * Forces the written records and index entries to the disk.
+     */
+    void force() throws IOException {
+
+        this.log.force(false);
+        this.index.force(false);
+
+    }
+
+    /**
+     * Records an index entry for the given record if enough bytes have been written since the last entry.
+     * The first record of the segment always gets an entry.
+     */
+    private void addIndexEntry(long offset, long timestamp, long position, int recordSize) {
+
+        if (this.indexSize == 0 || this.bytesSinceIndexEntry >= this.indexIntervalBytes) {
+
+            storeIndexEntry(offset, timestamp, (int) position);
+
+            if (this.indexBuffer.remaining() < INDEX_ENTRY_SIZE) {
+
+                ByteBuffer larger = ByteBuffer.allocate(this.indexBuffer.capacity() * 2);
+                this.indexBuffer.flip();
+                larger.put(this.indexBuffer);
+                this.indexBuffer = larger;
+
+            }
+
+            this.indexBuffer.putLong(offset).putLong(timestamp).putInt((int) position);
+            this.bytesSinceIndexEntry = 0;
+
+        }
+
+        this.bytesSinceIndexEntry += recordSize;
+
+    }
+
+    /**
+     * Keeps an index entry in memory, where the readers search it.
+     */
+    private synchronized void storeIndexEntry(long offset, long timestamp, int position) {
+
+        if (this.indexSize == this.indexOffsets.length) {
+
+            this.indexOffsets = Arrays.copyOf(this.indexOffsets, this.indexSize * 2);
+            this.indexTimestamps = Arrays.copyOf(this.indexTimestamps, this.indexSize * 2);
+            this.indexPositions = Arrays.copyOf(this.indexPositions, this.indexSize * 2);
+
+        }
+
+        this.indexOffsets[this.indexSize] = offset;
+        this.indexTimestamps[this.indexSize] = timestamp;
+        this.indexPositions[this.indexSize] = position;
+        this.indexSize++;
+
+    }
+
+    /**
+     * Appends the pending index entries to the index file.
+     */
+    private void writeIndexEntries() throws IOException {
+
+        this.indexBuffer.flip();
+
+        while (this.indexBuffer.hasRemaining())
+            this.index.write(this.indexBuffer, this.index.size());
+
+        this.indexBuffer.clear();
+
+    }
+
+    /**
+     * Finds the position from which a reader looking for the given offset has to start scanning.
+     * @param offset the offset that is looked for
+     * @return the position of the closest indexed record at or before the offset
+     */
+    synchronized long positionForOffset(long offset) {
+
+        int low = 0;
+        int high = this.indexSize - 1;
+        int found = -1;
+
+        while (low <= high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (this.indexOffsets[middle] <= offset) {
+
+                found = middle;
+                low = middle + 1;
+
+            } else {
+
+                high = middle - 1;
+
+            }
+
+        }
+
+        return found < 0 ? 0 : this.indexPositions[found];
+
+    }
+
+    /**
+     * Finds the position from which a reader looking for the given timestamp has to start scanning.
+     * @param timestamp the timestamp that is looked for
+     * @return the position of the last indexed record logged before the timestamp
+     */
+    synchronized long positionForTimestamp(long timestamp) {
+
+        int low = 0;
+        int high = this.indexSize - 1;
+        int found = -1;
+
+        while (low <= high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (this.indexTimestamps[middle] < timestamp) {
+
+                found = middle;
+                low = middle + 1;
+
+            } else {
+
+                high = middle - 1;
+
+            }
+
+        }
+
+        return found < 0 ? 0 : this.indexPositions[found];
+
+    }
+
+    /**
+     * Reads the records starting from the given position, keeping the ones accepted by the filter.
+     * @param position the position to start scanning from
+     * @param fromOffset the smallest offset to keep
+     * @param fromTimestamp the smallest timestamp to keep
+     * @param maxRecords the maximum number of records to keep
+     * @param records the list where the records are added
+     */
+    void read(long position, long fromOffset, long fromTimestamp, int maxRecords, List<LogRecord> records) throws IOException {
+
+        long end = this.size;
+
+        while (position < end && records.size() < maxRecords) {
+
+            LogRecord record = readRecord(position, end);
+
+            if (record == null)
+                return;
+
+            if (record.getOffset() >= fromOffset && record.getTimestamp() >= fromTimestamp)
+                records.add(record);
+
+            position += recordSize(position);
+
+        }
+
+    }
+
+    /**
+     * Returns the total size in bytes of the record at the given position.
+     */
+    private int recordSize(long position) throws IOException {
+
+        ByteBuffer length = ByteBuffer.allocate(4);
+        this.log.read(length, position);
+        return length.getInt(0) + 4;
+
+    }
+
+    /**
+     * Reads and validates the record at the given position.
+     * @param position the position of the record
+     * @param end the position after which there are no records
+     * @return the record or null if the record is incomplete or corrupted
+     */
+    private LogRecord readRecord(long position, long end) throws IOException {
+
+        if (end - position < HEADER_SIZE)
+            return null;
+
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, position);
+        int recordSize = length.getInt(0) + 4;
+
+        if (recordSize < HEADER_SIZE || recordSize > MAX_RECORD_SIZE || position + recordSize > end)
+            return null;
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        readFully(record, position);
+
+        CRC32 checksum = new CRC32();
+        checksum.update(record.array(), 8, recordSize - 8);
+
+        if (record.getInt(4) != (int) checksum.getValue())
+            return null;
+
+        record.position(8);
+        long offset = record.getLong();
+        long timestamp = record.getLong();
+        int roomLength = record.getShort() & 0xFFFF;
+
+        if (HEADER_SIZE + roomLength > recordSize)
+            return null;
+
+        String room = new String(record.array(), HEADER_SIZE, roomLength, StandardCharsets.UTF_8);
+        String message = new String(record.array(), HEADER_SIZE + roomLength, recordSize - HEADER_SIZE - roomLength, StandardCharsets.UTF_8);
+        return new LogRecord(offset, timestamp, room, message);
+
+    }
+
+    /**
+     * Fills the buffer with the bytes of the log file found at the given position.
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            if (this.log.read(buffer, position + buffer.position()) < 0)
+                break;
+
+        }
+
+    }
+
+    /**
+     * Closes the files of the segment.
+     */
+    void close() throws IOException {
+
+        this.log.close();
+        this.index.close();
+
+    }
+
+    /**
+     * Methods that are used to return variables of the segment.
+     */
+    long getBaseOffset() {
+
+        return this.baseOffset;
+
+    }
+
+    long getNextOffset() {
+
+        return this.nextOffset;
+
+    }
+
+    long getSize() {
+
+        return this.size + this.writeBuffer.position();
+
+    }
+
+    boolean isEmpty() {
+
+        return this.nextOffset == this.baseOffset;
+
+    }
+
+}
@@ -0,0 +1,362 @@
+package net.hub.chat.store;
+
+import net.hub.chat.logging.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A durable, append-only log of the chat messages, split in segments of a configurable size.
+ * Appending a message only puts it in a bounded queue, so the broadcast path never waits for the disk.
+ * A single appender thread drains the queue, assigns the offsets, writes the records in batches through
+ * FileChannel and forces them to the disk according to the fsync policy, which gives group commit for free.
+ * If the queue is full the message is not logged and counted as dropped, rather than stalling the broadcast.
+ * When the log is opened the last segment is scanned and a torn tail, left by a crash in the middle of a write,
+ * is truncated. Every segment has a sparse index by offset and timestamp, so a replay starts close to the
+ * requested record instead of scanning the segments from their beginning.
+ */
+public class MessageLog implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(MessageLog.class);
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final int INDEX_INTERVAL_BYTES = 4096;
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int MAX_BATCH_RECORDS = 1024;
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private File directory;
+    private FsyncPolicy fsyncPolicy;
+    private long fsyncIntervalMillis;
+    private long segmentBytes;
+    private ConcurrentSkipListMap<Long, LogSegment> segments = new ConcurrentSkipListMap<Long, LogSegment>();
+    private LogSegment activeSegment;
+    private ArrayBlockingQueue<PendingRecord> pendingRecords = new ArrayBlockingQueue<PendingRecord>(QUEUE_CAPACITY);
+    private AtomicLong droppedRecords = new AtomicLong();
+    private volatile long nextOffset;
+    private long lastTimestamp = 0;
+    private long lastForce = System.currentTimeMillis();
+    private boolean unforcedWrites = false;
+    private volatile boolean closed = false;
+    private Thread appender;
+
+    /**
+     * Opens the message log in the given directory, recovering it if it already holds segments, and starts the appender.
+     * @param directory the directory of the log, created if it does not exist
+     * @param fsyncPolicy the policy that decides when the writes are forced to the disk
+     * @param fsyncIntervalMillis the interval of the INTERVAL policy
+     * @param segmentBytes the size after which a new segment is started
+     * @throws IOException if the directory or the segments can not be opened
+     */
+    public MessageLog(File directory, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis, long segmentBytes) throws IOException {
+
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.segmentBytes = segmentBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Could not create the message log directory : " + directory);
+
+        List<Long> baseOffsets = new ArrayList<Long>();
+        File[] files = directory.listFiles();
+
+        for (File file : files == null ? new File[0] : files) {
+
+            String name = file.getName();
+
+            if (name.endsWith(LogSegment.LOG_SUFFIX))
+                baseOffsets.add(Long.parseLong(name.substring(0, name.length() - LogSegment.LOG_SUFFIX.length())));
+
+        }
+
+        Collections.sort(baseOffsets);
+
+        for (int i = 0; i < baseOffsets.size(); i++) {
+
+            long baseOffset = baseOffsets.get(i);
+            this.segments.put(baseOffset, new LogSegment(directory, baseOffset, INDEX_INTERVAL_BYTES, i == baseOffsets.size() - 1));
+
+        }
+
+        if (this.segments.isEmpty())
+            this.segments.put(0L, new LogSegment(directory, 0, INDEX_INTERVAL_BYTES, false));
+
+        this.activeSegment = this.segments.lastEntry().getValue();
+        this.nextOffset = this.activeSegment.getNextOffset();
+
+        this.appender = new Thread(new Runnable() {
+            public void run() {
+                appendRecords();
+            }
+        }, "MessageLog-appender");
+        this.appender.setDaemon(true);
+        this.appender.start();
+
+    }
+
+    /**
+     * Queues a message to be logged. It never blocks, if the queue is full the message is dropped and counted.
+     * @param room the name of the room the message was transmitted to
+     * @param message the message
+     * @return true if the message was queued else false
+     */
+    public boolean append(String room, String message) {
+
+        if (!this.closed && this.pendingRecords.offer(new PendingRecord(room, message, System.currentTimeMillis())))
+            return true;
+
+        this.droppedRecords.incrementAndGet();
+        return false;
+
+    }
+
+    /**
+     * The loop of the appender thread. It waits for queued messages, writes them in batches and forces
+     * the writes to the disk according to the fsync policy. It terminates when the log is closed and the queue is empty.
+     */
+    private void appendRecords() {
+
+        while (!this.closed || !this.pendingRecords.isEmpty()) {
+
+            try {
+
+                PendingRecord record = this.pendingRecords.poll(pollMillis(), TimeUnit.MILLISECONDS);
+
+                if (record != null) {
+
+                    int batch = 0;
+
+                    while (record != null) {
+
+                        write(record);
+
+                        if (++batch == MAX_BATCH_RECORDS)
+                            break;
+
+                        record = this.pendingRecords.poll();
+
+                    }
+
+                    this.activeSegment.flush();
+                    this.unforcedWrites = true;
+
+                }
+
+                if (this.unforcedWrites && shouldForce())
+                    force();
+
+            } catch (InterruptedException ie) {
+
+                continue;
+
+            } catch (IOException ie) {
+
+                LOG.error("There was an error while writing to the message log : {}", ie);
+
+            }
+
+        }
+
+    }
+
+    /**
+     * Writes a single record to the active segment, starting a new segment first if the active one is full.
+     */
+    private void write(PendingRecord record) throws IOException {
+
+        if (!this.activeSegment.isEmpty() && this.activeSegment.getSize() >= this.segmentBytes) {
+
+            this.activeSegment.flush();
+            this.activeSegment.force();
+            this.activeSegment = new LogSegment(this.directory, this.nextOffset, INDEX_INTERVAL_BYTES, false);
+            this.segments.put(this.nextOffset, this.activeSegment);
+
+        }
+
+        this.lastTimestamp = Math.max(this.lastTimestamp, record.timestamp);
+        this.activeSegment.append(this.nextOffset, this.lastTimestamp, record.room, record.message);
+        this.nextOffset++;
+
+    }
+
+    /**
+     * Check to see if the written records have to be forced to the disk now.
+     */
+    private boolean shouldForce() {
+
+        if (this.fsyncPolicy == FsyncPolicy.EVERY_MESSAGE)
+            return true;
+
+        if (this.fsyncPolicy == FsyncPolicy.INTERVAL)
+            return System.currentTimeMillis() - this.lastForce >= this.fsyncIntervalMillis;
+
+        return false;
+
+    }
+
+    /**
+     * Returns how long the appender may wait for a message before it has to check if a force is due.
+     */
+    private long pollMillis() {
+
+        if (this.fsyncPolicy == FsyncPolicy.INTERVAL && this.unforcedWrites)
+            return Math.max(1, Math.min(IDLE_POLL_MILLIS, this.lastForce + this.fsyncIntervalMillis - System.currentTimeMillis()));
+
+        return IDLE_POLL_MILLIS;
+
+    }
+
+    /**
+     * Forces the active segment to the disk.
+     */
+    private void force() throws IOException {
+
+        this.activeSegment.force();
+        this.lastForce = System.currentTimeMillis();
+        this.unforcedWrites = false;
+
+    }
+
+    /**
+     * Reads the records starting from the given offset. Only the segment holding the offset is searched,
+     * using its index, and the following segments are read only if more records are needed.
+     * @param fromOffset the offset of the first record
+     * @param maxRecords the maximum number of records to read
+     * @return the records, in the order they were logged
+     * @throws IOException if the segments can not be read
+     */
+    public List<LogRecord> read(long fromOffset, int maxRecords) throws IOException {
+
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        Map.Entry<Long, LogSegment> first = this.segments.floorEntry(fromOffset);
+        Long start = first == null ? this.segments.firstKey() : first.getKey();
+
+        for (LogSegment segment : this.segments.tailMap(start).values()) {
+
+            if (records.size() >= maxRecords)
+                break;
+
+            segment.read(segment.positionForOffset(fromOffset), fromOffset, Long.MIN_VALUE, maxRecords, records);
+
+        }
+
+        return records;
+
+    }
+
+    /**
+     * Reads the records logged at or after the given time. Since the timestamps never decrease the search starts
+     * from the last segment whose first record is older than the timestamp, and that segment is searched using its index.
+     * @param timestamp the time in milliseconds since the epoch
+     * @param maxRecords the maximum number of records to read
+     * @return the records, in the order they were logged
+     * @throws IOException if the segments can not be read
+     */
+    public List<LogRecord> readFromTimestamp(long timestamp, int maxRecords) throws IOException {
+
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        List<LogSegment> candidates = new ArrayList<LogSegment>(this.segments.values());
+        int first = 0;
+
+        for (int i = 1; i < candidates.size(); i++) {
+
+            if (!firstTimestampBefore(candidates.get(i), timestamp))
+                break;
+
+            first = i;
+
+        }
+
+        for (int i = first; i < candidates.size() && records.size() < maxRecords; i++) {
+
+            LogSegment segment = candidates.get(i);
+            segment.read(segment.positionForTimestamp(timestamp), Long.MIN_VALUE, timestamp, maxRecords, records);
+
+        }
+
+        return records;
+
+    }
+
+    /**
+     * Check to see if the first record of a segment was logged before the given time.
+     */
+    private boolean firstTimestampBefore(LogSegment segment, long timestamp) throws IOException {
+
+        List<LogRecord> firstRecord = new ArrayList<LogRecord>(1);
+        segment.read(0, Long.MIN_VALUE, Long.MIN_VALUE, 1, firstRecord);
+        return !firstRecord.isEmpty() && firstRecord.get(0).getTimestamp() < timestamp;
+
+    }
+
+    /**
+     * Closes the log. The queued messages are written and forced to the disk before the segments are closed.
+     */
+    public void close() throws IOException {
+
+        this.closed = true;
+
+        try {
+
+            this.appender.join();
+
+        } catch (InterruptedException ie) {
+
+            Thread.currentThread().interrupt();
+
+        }
+
+        this.activeSegment.flush();
+        this.activeSegment.force();
+
+        for (LogSegment segment : this.segments.values())
+            segment.close();
+
+    }
+
+    /**
+     * Methods that are used to return variables of the log.
+     */
+    public long getNextOffset() {
+
+        return this.nextOffset;
+
+    }
+
+    public long getDroppedRecords() {
+
+        return this.droppedRecords.get();
+
+    }
+
+    /**
+     * A message waiting in the queue to be written by the appender.
+     */
+    private static class PendingRecord {
+
+        private final String room;
+        private final String message;
+        private final long timestamp;
+
+        private PendingRecord(String room, String message, long timestamp) {
+
+            this.room = room;
+            this.message = message;
+            this.timestamp = timestamp;
+
+        }
+
+    }
+
+}
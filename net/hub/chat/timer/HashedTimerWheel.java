@@ -0,0 +1,224 @@
+package net.hub.chat.timer;
+
+import net.hub.chat.logging.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel, which runs many coarse timeouts from a single thread instead of one scheduled task per timeout.
+ * The wheel is an array of buckets and its thread moves to the next bucket every tick, running the timeouts of the bucket
+ * which are due in the current round and counting down the rounds of the others. Scheduling and cancelling a timeout
+ * costs the same however many timeouts there are, and every tick only visits the timeouts of one bucket.
+ * Any thread can schedule a timeout, it is handed over through a queue and put in its bucket by the wheel thread,
+ * which is the only thread touching the buckets. A cancelled timeout is unlinked the next time its bucket is visited.
+ * The timeouts run on the wheel thread, so they must be short and must not block.
+ */
+public class HashedTimerWheel extends Thread {
+
+    private static final Logger LOG = Logger.getLogger(HashedTimerWheel.class);
+
+    private long tickNanos;
+    private int mask;
+    private Timeout[] buckets;
+    private Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+    private long startNanos;
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new timer wheel. The thread is a daemon and is not started here.
+     * @param name the name of the wheel thread
+     * @param tickMillis the duration of a tick, which is the precision of the timeouts
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public HashedTimerWheel(String name, long tickMillis, int wheelSize) {
+
+        super(name);
+        setDaemon(true);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.startNanos = System.nanoTime();
+
+    }
+
+    /**
+     * Schedules a timeout to run after the given delay, rounded up to the next tick.
+     * A timeout can only be scheduled again once it has run, typically by its own task, and never once it is cancelled.
+     * @param timeout the timeout to schedule
+     * @param delayNanos the delay in nanoseconds
+     */
+    public void schedule(Timeout timeout, long delayNanos) {
+
+        timeout.deadline = System.nanoTime() + Math.max(0, delayNanos);
+        this.pending.add(timeout);
+
+    }
+
+    /**
+     * Run method inherited from the Thread class, which described the way the thread will execute.
+     * The thread sleeps until the end of the current tick, puts the newly scheduled timeouts in their buckets
+     * and runs the due timeouts of the bucket of the tick. It stops once the wheel is shut down.
+     */
+    public void run() {
+
+        while (this.running) {
+
+            long tickEnd = this.startNanos + (this.tick + 1) * this.tickNanos;
+            long now;
+
+            while ((now = System.nanoTime()) - tickEnd < 0 && this.running)
+                LockSupport.parkNanos(tickEnd - now);
+
+            transferPending();
+            expire(this.buckets[(int) (this.tick & this.mask)]);
+            this.tick++;
+
+        }
+
+    }
+
+    /**
+     * Stops the wheel thread, the timeouts which are still scheduled never run.
+     */
+    public void shutdown() {
+
+        this.running = false;
+        LockSupport.unpark(this);
+
+    }
+
+    /**
+     * Puts the timeouts scheduled since the last tick in the bucket of their deadline.
+     * A deadline which has already passed is put in the bucket of the current tick.
+     */
+    private void transferPending() {
+
+        Timeout timeout;
+
+        while ((timeout = this.pending.poll()) != null) {
+
+            if (timeout.cancelled)
+                continue;
+
+            long ticks = Math.max(this.tick, (timeout.deadline - this.startNanos + this.tickNanos - 1) / this.tickNanos);
+            timeout.rounds = (ticks - this.tick) >> Integer.numberOfTrailingZeros(this.buckets.length);
+            timeout.bucket = (int) (ticks & this.mask);
+            timeout.previous = null;
+            timeout.next = this.buckets[timeout.bucket];
+
+            if (timeout.next != null)
+                timeout.next.previous = timeout;
+
+            this.buckets[timeout.bucket] = timeout;
+
+        }
+
+    }
+
+    /**
+     * Runs the timeouts of a bucket which are due in the current round and unlinks them together with the cancelled ones.
+     * @param head the first timeout of the bucket
+     */
+    private void expire(Timeout head) {
+
+        Timeout timeout = head;
+
+        while (timeout != null) {
+
+            Timeout next = timeout.next;
+
+            if (timeout.cancelled) {
+
+                unlink(timeout);
+
+            } else if (timeout.rounds <= 0) {
+
+                unlink(timeout);
+
+                try {
+
+                    timeout.task.run();
+
+                } catch (RuntimeException re) {
+
+                    LOG.error("There was an error while running a timeout : {}", re);
+
+                }
+
+            } else {
+
+                timeout.rounds--;
+
+            }
+
+            timeout = next;
+
+        }
+
+    }
+
+    /**
+     * Removes a timeout from its bucket.
+     */
+    private void unlink(Timeout timeout) {
+
+        if (timeout.previous != null)
+            timeout.previous.next = timeout.next;
+        else
+            this.buckets[timeout.bucket] = timeout.next;
+
+        if (timeout.next != null)
+            timeout.next.previous = timeout.previous;
+
+        timeout.previous = null;
+        timeout.next = null;
+
+    }
+
+    /**
+     * A timeout of the wheel, which can be scheduled again and again so that a recurring check does not allocate.
+     * The links and the rounds are only touched by the wheel thread.
+     */
+    public static class Timeout {
+
+        private Runnable task;
+        private volatile long deadline;
+        private volatile boolean cancelled = false;
+        private long rounds;
+        private int bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        /**
+         * Creates a new timeout which is not scheduled yet.
+         * @param task the task to run on the wheel thread when the timeout expires
+         */
+        public Timeout(Runnable task) {
+
+            this.task = task;
+
+        }
+
+        /**
+         * Cancels the timeout for good, so that its task does not run. It is removed from the wheel by the wheel thread.
+         */
+        public void cancel() {
+
+            this.cancelled = true;
+
+        }
+
+        public boolean isCancelled() {
+
+            return this.cancelled;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package net.hub.chat.timer;
+
+import net.hub.chat.ChatServer;
+import net.hub.chat.ClientConnection;
+import net.hub.chat.Frame;
+import net.hub.chat.WireProtocol;
+import net.hub.chat.logging.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The idle monitor of the chat server, which finds the clients that went away without closing their connection.
+ * A client of the protocol v2 which has sent nothing for the heartbeat interval is sent a ping, and a client which has
+ * sent nothing for the idle timeout, not even the pong, is disconnected and invalidated by the chat server.
+ * Every watched client has a single timeout in a hashed timer wheel, which is only moved forward when it expires,
+ * so the reads of a client just note their time and the cost of the monitor stays flat however many clients are connected.
+ * The legacy clients can not answer a ping, so they are not watched.
+ */
+public class IdleMonitor {
+
+    private static final Logger LOG = Logger.getLogger(IdleMonitor.class);
+
+    private static final int WHEEL_SIZE = 512;
+
+    private ChatServer chatServer;
+    private HashedTimerWheel wheel;
+    private long heartbeatNanos;
+    private long idleTimeoutNanos;
+    private ConcurrentHashMap<ClientConnection, Watch> watches = new ConcurrentHashMap<ClientConnection, Watch>();
+    private LongAdder pingsSent = new LongAdder();
+    private LongAdder idleTimeouts = new LongAdder();
+
+    /**
+     * Creates a new idle monitor with the heartbeat settings of the configuration of the chat server.
+     * A heartbeat interval of zero, or one not shorter than the idle timeout, means the clients are never pinged.
+     * @param chatServer the chat server whose clients are watched
+     */
+    public IdleMonitor(ChatServer chatServer) {
+
+        this.chatServer = chatServer;
+        this.wheel = new HashedTimerWheel("IdleMonitor", chatServer.getConfig().getTimerTickMillis(), WHEEL_SIZE);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(chatServer.getConfig().getIdleTimeoutMillis());
+        long heartbeat = TimeUnit.MILLISECONDS.toNanos(chatServer.getConfig().getHeartbeatIntervalMillis());
+        this.heartbeatNanos = heartbeat > 0 && heartbeat < this.idleTimeoutNanos ? heartbeat : 0;
+
+    }
+
+    /**
+     * Starts the thread of the timer wheel.
+     */
+    public void start() {
+
+        this.wheel.start();
+
+    }
+
+    /**
+     * Stops the thread of the timer wheel, the clients are no longer pinged nor timed out.
+     */
+    public void stop() {
+
+        this.wheel.shutdown();
+
+    }
+
+    /**
+     * Starts watching a client once its handshake is complete.
+     * @param client the client to watch
+     */
+    public void watch(ClientConnection client) {
+
+        if (client.getProtocol() != WireProtocol.V2)
+            return;
+
+        Watch watch = new Watch(client);
+
+        if (this.watches.putIfAbsent(client, watch) == null)
+            watch.scheduleNext(System.nanoTime());
+
+    }
+
+    /**
+     * Stops watching a client, called when the client is invalidated.
+     * @param client the client to forget
+     */
+    public void unwatch(ClientConnection client) {
+
+        Watch watch = this.watches.remove(client);
+
+        if (watch != null)
+            watch.timeout.cancel();
+
+    }
+
+    /**
+     * Getters for the counters of the monitor.
+     */
+    public int getWatchedClients() {
+        return watches.size();
+    }
+
+    public long getPingsSent() {
+        return pingsSent.sum();
+    }
+
+    public long getIdleTimeouts() {
+        return idleTimeouts.sum();
+    }
+
+    /**
+     * The timeout of a single client, which runs on the wheel thread whenever the client may have been silent for long enough.
+     * It is only touched by the wheel thread once it is scheduled.
+     */
+    private class Watch implements Runnable {
+
+        private ClientConnection client;
+        private HashedTimerWheel.Timeout timeout;
+        private long pingedAfter = -1;
+
+        private Watch(ClientConnection client) {
+
+            this.client = client;
+            this.timeout = new HashedTimerWheel.Timeout(this);
+
+        }
+
+        /**
+         * Checks how long the client has been silent. A client silent for the idle timeout is disconnected and invalidated,
+         * one silent for the heartbeat interval is pinged once, and the timeout is moved to the next time either could happen.
+         */
+        public void run() {
+
+            long now = System.nanoTime();
+            long lastRead = this.client.getLastReadNanos();
+
+            if (now - lastRead >= idleTimeoutNanos) {
+
+                watches.remove(this.client);
+                idleTimeouts.increment();
+                LOG.info("Disconnecting idle client : {}", this.client.getConnection());
+                this.client.disconnect();
+                chatServer.invalidate(this.client);
+                return;
+
+            }
+
+            if (heartbeatNanos > 0 && now - lastRead >= heartbeatNanos && this.pingedAfter != lastRead) {
+
+                try {
+
+                    this.client.send(Frame.ping());
+                    this.pingedAfter = lastRead;
+                    pingsSent.increment();
+
+                } catch (IOException ie) {
+
+                    watches.remove(this.client);
+                    return;
+
+                }
+
+            }
+
+            scheduleNext(now);
+
+        }
+
+        /**
+         * Schedules the next check, at the end of the heartbeat interval if the client has not been pinged since
+         * its last read, else at the end of the idle timeout.
+         */
+        private void scheduleNext(long now) {
+
+            long lastRead = this.client.getLastReadNanos();
+            long silence = heartbeatNanos > 0 && this.pingedAfter != lastRead ? heartbeatNanos : idleTimeoutNanos;
+            wheel.schedule(this.timeout, lastRead + silence - now);
+
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package net.hub.chat.tls;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Factory methods for the TLS contexts of the chat server and the chat client, built from key store files.
+ * The key store of the server holds its private key and certificate, the trust store of the client the certificates
+ * it trusts, for example the self-signed certificate of a test server. Both can be PKCS12 or JKS files.
+ * A context holds the session cache of its side, so the same context must be used for every connection of a server
+ * or client for the TLS sessions to be resumed.
+ */
+public final class TlsContexts {
+
+    private TlsContexts() {
+
+    }
+
+    /**
+     * Creates the context of a server from the key store holding its private key and certificate.
+     * @param keyStorePath the path of the key store
+     * @param password the password of the key store and of the key
+     * @return the new context
+     * @throws IOException if the key store can not be read or holds no usable key
+     */
+    public static SSLContext forServer(String keyStorePath, char[] password) throws IOException {
+
+        try {
+
+            KeyStore keyStore = KeyStore.getInstance(new File(keyStorePath), password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keyStore, password);
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(), null, null);
+            return context;
+
+        } catch (GeneralSecurityException ge) {
+
+            throw new IOException("There was an error while loading the key store : " + keyStorePath, ge);
+
+        }
+
+    }
+
+    /**
+     * Creates the context of a client which trusts the certificates of the given trust store.
+     * @param trustStorePath the path of the trust store, or null for the default trust store of the JVM
+     * @param password the password of the trust store
+     * @return the new context
+     * @throws IOException if the trust store can not be read
+     */
+    public static SSLContext forClient(String trustStorePath, char[] password) throws IOException {
+
+        try {
+
+            TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(trustStorePath == null ? null : KeyStore.getInstance(new File(trustStorePath), password));
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers.getTrustManagers(), null);
+            return context;
+
+        } catch (GeneralSecurityException ge) {
+
+            throw new IOException("There was an error while loading the trust store : " + trustStorePath, ge);
+
+        }
+
+    }
+
+}
@@ -1,25 +1,37 @@
 package net.hub.chat.ui;
 
 import net.hub.chat.ChatClient;
+import net.hub.chat.ChatClientConfig;
 
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultCaret;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A simple Swing user interface used to set the host, port and nick name of the client.
  * After the submission of these information and a successful connection to the server the chat
  * client window is created with a text area holding the messages and a text input waiting
  * for new messages from the user.
+ * The messages received by the client thread are queued and rendered on the event dispatch thread by a Swing timer,
+ * which appends all the messages queued since the last render at once, so a burst of messages costs one document update
+ * and one repaint per render interval instead of one per message. Only the last lines of the chat are kept in the text area.
  */
 public class ChatClientWindow  extends JFrame {
 
     private JTextField textField;
     private JTextArea textArea;
     private ChatClient chatClient;
+    private Queue<String> pendingMessages = new ConcurrentLinkedQueue<String>();
+    private AtomicBoolean renderScheduled = new AtomicBoolean(false);
+    private Timer renderTimer;
+    private int maxDisplayedLines;
 
     /**
      * First create a pop up with Swing to get the host and the port of the server. Following that the user has
@@ -67,7 +79,16 @@ public class ChatClientWindow  extends JFrame {
 
                     try {
 
-                        chatClient = new ChatClient( host, portNumber, nickName, this );
+                        ChatClientConfig config = new ChatClientConfig();
+                        maxDisplayedLines = config.getMaxDisplayedLines();
+                        renderTimer = new Timer((int) config.getRenderIntervalMillis(), new ActionListener() {
+                            public void actionPerformed(ActionEvent e) {
+                                render();
+                            }
+                        });
+                        renderTimer.setRepeats(false);
+
+                        chatClient = new ChatClient( host, portNumber, nickName, this, config );
 
                         JFrame frame = new JFrame("Chat Client");
                         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -130,9 +151,58 @@ public class ChatClientWindow  extends JFrame {
 
     }
 
+    /**
+     * Queues a message received from the server to be rendered. It is called by the client thread,
+     * which never touches the text area itself, and starts the render timer unless a render is already pending.
+     * @param message the message to display
+     */
+    public void display(String message) {
+
+        pendingMessages.add(message);
+
+        if (renderScheduled.compareAndSet(false, true))
+            renderTimer.start();
+
+    }
+
+    /**
+     * Appends all the queued messages to the text area with a single append and trims the oldest lines
+     * beyond the maximum number of displayed lines. It runs on the event dispatch thread.
+     * The pending flag is cleared before the queue is drained, so a message queued during the render schedules the next one.
+     */
+    private void render() {
+
+        renderScheduled.set(false);
+        StringBuilder batch = new StringBuilder();
+        String message;
+
+        while ((message = pendingMessages.poll()) != null)
+            batch.append(message).append('\n');
+
+        if (batch.length() == 0)
+            return;
+
+        textArea.append(batch.toString());
+        int excess = textArea.getLineCount() - maxDisplayedLines;
+
+        if (maxDisplayedLines <= 0 || excess <= 0)
+            return;
+
+        try {
+
+            textArea.replaceRange(null, 0, textArea.getLineEndOffset(excess - 1));
+
+        } catch (BadLocationException be) {
+
+            System.out.println("There was an error while trimming the displayed messages.");
+
+        }
+
+    }
+
     /**
      * Getter method for the text area where the messages from the server are printed.
-     * It is used from the client thread to update the user interface.
+     * It is only touched on the event dispatch thread, the client thread hands its messages over with display().
      */
     public JTextArea getTextArea() {
         return textArea;